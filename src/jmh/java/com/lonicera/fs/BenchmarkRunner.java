@@ -0,0 +1,22 @@
+package com.lonicera.fs;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+
+/**
+ * 带 GC profiler 运行全部基准，同时报告吞吐量和分配速率，其余参数与 JMH 命令行一致
+ */
+public class BenchmarkRunner {
+
+  public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+    new Runner(new OptionsBuilder()
+        .parent(new CommandLineOptions(args))
+        .include(FileSystemBenchmark.class.getSimpleName())
+        .addProfiler(GCProfiler.class)
+        .build()).run();
+  }
+}
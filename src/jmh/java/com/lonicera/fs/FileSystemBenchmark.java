@@ -0,0 +1,147 @@
+package com.lonicera.fs;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * 块、inode、目录和文件读取路径的基准。image 取 bundled 时使用 classpath 中的 rootimage-0.12-hd，
+ * 取数字时生成对应文件数量的映像。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FileSystemBenchmark {
+
+  @Param({"1000", "10000", "50000"})
+  public String image;
+
+  private File imageFile;
+  private MinixFileSystem fs;
+  private int firstDataZone;
+  private int nzones;
+  private int ninodes;
+  private Inode dir;
+  private String deepPath;
+  private String bigFile;
+
+  @Setup(Level.Trial)
+  public void mount() throws IOException, URISyntaxException {
+    if ("bundled".equals(image)) {
+      URL url = FileSystemBenchmark.class.getClassLoader().getResource("rootimage-0.12-hd");
+      if (url == null) {
+        throw new IllegalStateException("rootimage-0.12-hd not found on classpath");
+      }
+      fs = MinixFileSystem.open(new File(url.toURI()));
+      fs.mount(0);
+      deepPath = "/usr/bin";
+      bigFile = largestFile(fs.stat(deepPath), deepPath);
+      dir = fs.stat("/usr/bin");
+    } else {
+      imageFile = File.createTempFile("minix-bench", ".img");
+      // 小文件各占一个 zone，50000 个文件仍能放进一个 v1 分区
+      ImageGenerator.Summary summary = new ImageGenerator()
+          .files(Integer.parseInt(image))
+          .fanOut(8)
+          .depth(2)
+          .fileSize(ImageGenerator.SizeDistribution.UNIFORM, 100, 550, 999)
+          .largeFiles(1, 2 * 1024 * 1024)
+          .generate(imageFile);
+      fs = MinixFileSystem.open(imageFile);
+      fs.mount(0);
+      deepPath = summary.getDeepestFile();
+      bigFile = summary.getLargestFile();
+      dir = fs.stat("/d0");
+    }
+    SuperBlock superBlock = fs.getSuperBlock();
+    firstDataZone = superBlock.getFirstDatazone();
+    nzones = superBlock.getNzones();
+    ninodes = superBlock.getNinodes();
+  }
+
+  private String largestFile(Inode parent, String path) {
+    String largest = null;
+    long size = -1;
+    for (DirEntry entry : fs.list(parent)) {
+      Inode inode = fs.readInode(entry.getInode());
+      if (!inode.isDir() && inode.getIsize() > size) {
+        size = inode.getIsize();
+        largest = path + "/" + entry.getName();
+      }
+    }
+    return largest;
+  }
+
+  @TearDown(Level.Trial)
+  public void close() throws IOException {
+    fs.close();
+    if (imageFile != null) {
+      imageFile.delete();
+    }
+  }
+
+  @Benchmark
+  public ByteBuffer readBlock() {
+    return fs.readBlock(ThreadLocalRandom.current().nextInt(firstDataZone, nzones));
+  }
+
+  @Benchmark
+  public long readInode() {
+    return fs.readInode(ThreadLocalRandom.current().nextInt(1, ninodes + 1)).getIsize();
+  }
+
+  @Benchmark
+  public List<DirEntry> listDirectory() {
+    return fs.list(dir);
+  }
+
+  @Benchmark
+  public Inode resolvePath() {
+    return fs.stat(deepPath);
+  }
+
+  @Benchmark
+  public void readFile(Blackhole blackhole) {
+    fs.open(bigFile).writeTo(new WritableByteChannel() {
+      @Override
+      public int write(ByteBuffer src) {
+        int length = src.remaining();
+        blackhole.consume(src.get(src.limit() - 1));
+        src.position(src.limit());
+        return length;
+      }
+
+      @Override
+      public boolean isOpen() {
+        return true;
+      }
+
+      @Override
+      public void close() {
+      }
+    });
+  }
+}
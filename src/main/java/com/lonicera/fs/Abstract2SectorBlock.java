@@ -1,8 +1,10 @@
 package com.lonicera.fs;
 
+import java.nio.ByteBuffer;
+
 public class Abstract2SectorBlock implements Block {
-  public Abstract2SectorBlock(byte[] bytes){
-    if(bytes == null || bytes.length != 1024){
+  public Abstract2SectorBlock(ByteBuffer bytes){
+    if(bytes == null || bytes.remaining() != 1024){
       throw new IllegalArgumentException("bytes");
     }
   }
@@ -1,695 +1,955 @@
 package com.lonicera.fs;
 
 import com.lonicera.fs.BootSector.Partition;
-import com.lonicera.fs.SuperBlock.BitMap;
-import com.lonicera.fs.SuperBlock.DefaultBitMap;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.io.RandomAccessFile;
-import java.io.Reader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
-import java.util.Arrays;
-import java.util.Deque;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
 import java.util.Formatter;
-import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.HashMap;
 import java.util.List;
-import java.util.function.Supplier;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.management.JMException;
+import javax.management.ObjectName;
 
 public class App {
 
-  private static RandomAccessFile randomAccessFile;
-  private static int inodeStartSect;
-  private static int partitionStartSect;
-  private static BitMap inodeMap;
-  private static BitMap zoneMap;
-  private static Inode pwd;
-  private static Inode root;
-  private static String pwdDirName;
-  private static Deque<DirEntry> pwdEntryList = new LinkedList<>();
-
-  public static void main(String[] args) throws URISyntaxException, FileNotFoundException {
-    URL url = App.class.getClassLoader().getResource("rootimage-0.12-hd");
-    RandomAccessFile imageFile = new RandomAccessFile(new File(url.toURI()), "r");
-    Partition[] partitions = fdisk(imageFile);
-    printPartitions(partitions);
-    int index = selectPartitions(partitions.length - 1);
-    mount(partitions[index]);
-    chroot("/");
-  }
-
-  private static void chroot(String path) {
-    if (path.equals("/")) {
-      pwd = root;
-      pwdDirName = "/";
-    } else if (!path.equals(".")) {
-      Deque<DirEntry> entryList = entryChain(path);
-      pwdEntryList = entryList;
-      DirEntry pwdEntry = entryList.peekLast();
-      if(pwdEntry != null){
-        pwd = readInode(pwdEntry.getInode());
-        pwdDirName = pwdEntry.getName();
-      }else{
-        pwd = root;
-        pwdDirName = "/";
+  // 输出缓冲区的大小，批处理时所有输出都经过这一个缓冲区
+  private static final int OUTPUT_BUFFER_SIZE = Integer.getInteger("fs.out.buffer", 256 * 1024);
+
+  private static final BufferedReader STDIN = new BufferedReader(new InputStreamReader(System.in));
+
+  private static final Map<String, Spec> COMMANDS = new HashMap<>();
+  // ll 每读取这么多目录项输出一次
+  private static final int LIST_BATCH = 256;
+  // head、tail 和 dd 每次从文件读取的字节数
+  private static final int READ_CHUNK = 64 * 1024;
+
+  private static MinixFileSystem fs;
+  private static Session session;
+  private static File image;
+  private static int partition;
+  private static ZoneOwners zoneOwners;
+  private static PrintStream out;
+  // 大文件 cat 时先清空 out 再直接写这个通道，标准输出时可以由内核完成传输
+  private static WritableByteChannel outChannel;
+  // 交互模式下分批输出的内容立即刷新
+  private static boolean interactive;
+
+  static {
+    register("help", 0, 0, command -> printHelp());
+    register("pwd", 0, 0, command -> out.println(session.pwd()));
+    register("cd", 1, 1, command -> session.cd(command.arg(0)));
+    register("ll", 0, 5, command -> ls(command.tokens()));
+    register("cat", 1, 1, command -> catFile(command.arg(0)));
+    register("head", 1, 3, command -> head(command.tokens()));
+    register("tail", 1, 3, command -> tail(command.tokens()));
+    register("dd", 1, 4, command -> dd(command.tokens()));
+    register("df", 0, 0, command -> printDiskFree());
+    register("mkdir", 1, 1, command -> session.mkdir(command.arg(0)));
+    register("touch", 1, 1, command -> touch(command.arg(0)));
+    register("rm", 1, 1, command -> session.unlink(command.arg(0)));
+    register("write", 2, Integer.MAX_VALUE,
+        command -> writeLine(command.arg(0), command.rest(1)));
+    register("truncate", 2, 2, command -> truncate(command.arg(0), command.arg(1)));
+    register("sync", 0, 0, command -> fs.sync());
+    register("fsck", 0, 0, command -> out.println(new Fsck(fs).check()));
+    register("du", 0, 2, command -> du(command.tokens()));
+    register("find", 1, Integer.MAX_VALUE, command -> find(command.tokens()));
+    register("grep", 1, 6, command -> grep(command.tokens()));
+    register("owner", 1, 2, command -> owner(command.tokens()));
+    register("query", 0, Integer.MAX_VALUE, command -> query(command.tokens()));
+    register("stats", 0, 1, command -> stats(command.arg(0, "")));
+    register("extract", 2, 2, command -> extract(command.arg(0), command.arg(1)));
+    register("import", 2, 2, command -> importTree(command.arg(0), command.arg(1)));
+  }
+
+  /**
+   * 不带参数时使用 classpath 中的映像，交互式选择分区。批处理模式：
+   * <pre>
+   * --image file [--partition n] [--script file|-] [--command line]...
+   * </pre>
+   * 给出 --image 但没有脚本和命令时进入交互模式。-Dfs.writable=true 时以读写方式挂载
+   */
+  public static void main(String[] args) throws URISyntaxException, IOException {
+    String script = null;
+    List<String> commands = new ArrayList<>();
+    Integer index = null;
+    for (int i = 0; i < args.length; i++) {
+      if (i + 1 >= args.length) {
+        usage("missing argument to " + args[i]);
       }
-    }
-    exploreFileSystem();
-  }
-
-  private static Deque<DirEntry> entryChain(String path) {
-    Inode parent;
-    Deque<DirEntry> entryList;
-    if (path.startsWith("/")) {
-      parent = root;
-      entryList = new LinkedList<>();
-    } else {
-      parent = pwd;
-      entryList = pwdEntryList;
-    }
-    String[] segs = path.replaceFirst("/", "").split("/");
-    for (String seg : segs) {
-      DirEntry child = childEntry(parent, seg);
-      if(seg.equals("..") && pwdEntryList.size() > 0){
-        pwdEntryList.removeLast();
-      }else if(seg.equals(".")){
-        ;
-      }else{
-        pwdEntryList.add(child);
+      String value = args[++i];
+      switch (args[i - 1]) {
+        case "--image":
+          image = new File(value);
+          break;
+        case "--partition":
+          index = Integer.valueOf(value);
+          break;
+        case "--script":
+          script = value;
+          break;
+        case "--command":
+          commands.add(value);
+          break;
+        default:
+          usage("unknown option " + args[i - 1]);
       }
-      parent = readInode(child.getInode());
     }
-    return entryList;
-  }
-
-  private static DirEntry childEntry(Inode parent, String pathName) {
-    List<DirEntry> entryList = lsInode(parent);
-    for (DirEntry entry : entryList) {
-      if (entry.getName().equals(pathName)) {
-        return entry;
-      }
+    if (image == null) {
+      URL url = App.class.getClassLoader().getResource("rootimage-0.12-hd");
+      image = new File(url.toURI());
     }
-    throw new CommandExecuteException("path not exists");
-  }
-
-  private static void printRootPath() {
-    System.out.print("[root@localhost " + pwdDirName + "]# ");
-  }
-
-
-  private static void exploreFileSystem() {
-    printRootPath();
-    Reader reader = new InputStreamReader(System.in);
-    BufferedReader br = new BufferedReader(reader);
-    try {
-      String line = br.readLine();
-      while (line != null) {
-        if (isHelp(line)) {
-          printHelp();
-        }
-        if (isPwd(line)) {
-          printPwd();
-        } else if (isCd(line)) {
-          String path = arg(line);
-          safeCommand(() -> chroot(path));
-        } else if (isList(line)) {
-          String path = arg(line);
-          safeCommand(() -> ls(path));
-        } else if (isCat(line)) {
-          String path = arg(line);
-          safeCommand(() -> catFile(path));
-        } else {
-          System.err.println("unsupport command :" + line);
-        }
-        printRootPath();
-        line = br.readLine();
-      }
-    } catch (IOException e) {
-      throw new FileSystemParseException(e);
+    setOutput(new FileOutputStream(FileDescriptor.out));
+    fs = MinixFileSystem.open(image, Boolean.getBoolean("fs.writable"));
+    boolean batch = script != null || !commands.isEmpty();
+    if (index == null && !batch) {
+      Partition[] partitions = fs.partitions();
+      printPartitions(partitions);
+      index = selectPartitions(partitions.length - 1);
     }
-  }
-
-  private static interface Command {
-
-    void eval();
-  }
-
-  private static void safeCommand(Command command) {
+    partition = index == null ? 0 : index;
     try {
-      command.eval();
+      fs.mount(partition);
     } catch (CommandExecuteException e) {
-      System.err.println(e.getMessage());
+      usage(e.getMessage());
+    }
+    registerMetrics();
+    int failures;
+    if (batch) {
+      failures = runBatch(fs, commands);
+      if (script != null) {
+        try (BufferedReader reader = script.equals("-") ? STDIN
+            : new BufferedReader(new FileReader(script), 64 * 1024)) {
+          failures += runBatch(fs, reader);
+        }
+      }
+    } else {
+      session = fs.newSession();
+      interactive = true;
+      failures = exploreFileSystem();
     }
-  }
-
-  private static Object catFile(String path) {
-    Inode inode = readPathInode(path);
-    Iterator<byte[]> itr = readZoneBlockIterator(inode.getIzone(), inode.getIsize());
-    System.out.println();
-    while (itr.hasNext()) {
-      byte[] bytes = itr.next();
-      System.out.print(new String(bytes));
+    out.flush();
+    fs.close();
+    if (batch && failures > 0) {
+      System.err.println(failures + " commands failed");
+      System.exit(1);
     }
-    return null;
   }
 
-  private static void printPwd() {
-    StringBuilder sb = new StringBuilder("/");
-    for(DirEntry entry : pwdEntryList){
-      sb.append(entry.getName());
-      sb.append("/");
-    }
-    if(sb.length() > 1){
-      sb.deleteCharAt(sb.length() - 1);
-    }
-    System.out.println(sb);
+  private static void usage(String message) {
+    System.err.println(message);
+    System.err.println(
+        "usage : App [--image file] [--partition n] [--script file|-] [--command line]...");
+    System.exit(2);
   }
 
-  private static boolean isPwd(String line) {
-    return line.trim().equals("pwd");
+  private static void setOutput(FileOutputStream target) {
+    out = new PrintStream(new BufferedOutputStream(target, OUTPUT_BUFFER_SIZE), false);
+    outChannel = target.getChannel();
   }
 
-  private static String arg(String line) {
-    String[] commands = line.trim().split("\\s");
-    return commands.length == 2 ? commands[1] : ".";
+  /**
+   * 在已挂载的文件系统上依次执行命令，输出写入 target，结束时清空缓冲区
+   *
+   * @return 失败的命令数
+   */
+  static int runBatch(MinixFileSystem fs, OutputStream target, Iterable<String> lines) {
+    out = new PrintStream(new BufferedOutputStream(target, OUTPUT_BUFFER_SIZE), false);
+    outChannel = Channels.newChannel(target);
+    return runBatch(fs, lines);
   }
 
-  private static boolean isCat(String line) {
-    String[] commands = line.trim().split("\\s");
-    return commands.length == 2 && commands[0].equals("cat");
+  private static int runBatch(MinixFileSystem fs, Iterable<String> lines) {
+    bind(fs);
+    int failures = 0;
+    for (String line : lines) {
+      if (!execute(line)) {
+        failures++;
+      }
+    }
+    out.flush();
+    return failures;
   }
 
-  private static boolean isList(String line) {
-    String[] commands = line.trim().split("\\s");
-    return commands.length <= 2 && commands[0].equals("ll");
+  private static int runBatch(MinixFileSystem fs, BufferedReader reader) throws IOException {
+    bind(fs);
+    int failures = 0;
+    for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+      if (!execute(line)) {
+        failures++;
+      }
+    }
+    out.flush();
+    return failures;
   }
 
-  private static boolean isCd(String line) {
-    String[] commands = line.trim().split("\\s");
-    return commands.length == 2 && commands[0].equals("cd");
+  private static void bind(MinixFileSystem mounted) {
+    if (fs != mounted || session == null) {
+      fs = mounted;
+      session = mounted.newSession();
+      zoneOwners = null;
+    }
   }
 
-  private static void printHelp() {
-    System.out.println("support : cd ll cat");
+  private static void registerMetrics() {
+    try {
+      ManagementFactory.getPlatformMBeanServer()
+          .registerMBean(fs.getMetrics(), new ObjectName(Metrics.OBJECT_NAME));
+    } catch (JMException e) {
+      System.err.println("metrics mbean not registered : " + e.getMessage());
+    }
   }
 
-  private static boolean isHelp(String line) {
-    return line.trim().equals("help");
+  private static void printRootPath() {
+    out.print("[root@localhost " + session.dirName() + "]# ");
+    out.flush();
   }
 
-  private static int selectPartitions(int maxIndex) {
-    printMountTip();
-    Reader reader = new InputStreamReader(System.in);
-    BufferedReader br = new BufferedReader(reader);
+  private static int exploreFileSystem() {
+    printRootPath();
+    int failures = 0;
     try {
-      String line = br.readLine();
+      String line = STDIN.readLine();
       while (line != null) {
-        try {
-          Integer index = Integer.valueOf(line);
-          if (index > maxIndex) {
-            System.out.println("index overflow.");
-            printMountTip();
-          } else {
-            return index;
-          }
-        } catch (NumberFormatException e) {
-          System.out.println("please enter a number.");
-          printMountTip();
+        if (!execute(line)) {
+          failures++;
         }
-        line = br.readLine();
+        printRootPath();
+        line = STDIN.readLine();
       }
     } catch (IOException e) {
       throw new FileSystemParseException(e);
     }
-    return 0;
+    return failures;
   }
 
-  private static void printMountTip() {
-    System.out.print("mount a partition (e.g.0) : ");
-  }
-
-  private static Partition[] fdisk(RandomAccessFile imageFile) {
-    BootSector bootSector = readBootSector(imageFile, 0, 1);
-    Partition p1 = bootSector.getP1();
-    Partition p2 = bootSector.getP2();
-    Partition p3 = bootSector.getP3();
-    Partition p4 = bootSector.getP4();
-    randomAccessFile = imageFile;
-    return new Partition[]{p1, p2, p3, p4};
-  }
+  /**
+   * 一行命令只解析一次：按空白切分的各项，以及每项在原始行中的位置，write 的文本需要保留原有的空白。
+   * 单引号或双引号括起的部分是一项，可以包含空白
+   */
+  static final class CommandLine {
 
-  private static void printPartitions(Partition... partitions) {
-    System.out.println("Partitions List :");
-    Formatter formatter = new Formatter();
-    formatter.format("%3s %10s %10s %15s %15s\r\n", "no", "bootInd", "sysInd", "startSect", "nr_sects");
-    for (int i = 0; i < partitions.length; i++) {
-      Partition partition = partitions[i];
-      formatter
-          .format("%3s %10s %10s %15s %15s\r\n", i, partition.getBootInd(), partition.getSysInd(), partition.getStartSect(),
-              partition.getNrSects());
-    }
-    System.out.println(formatter);
-  }
+    private static final Pattern TOKEN = Pattern.compile("\"([^\"]*)\"|'([^']*)'|\\S+");
 
-  private static void ls(String path) {
-    Inode inode = readPathInode(path);
-    List<DirEntry> entryList = lsInode(inode);
-    printEntryList(entryList);
-  }
+    private final String line;
+    private final String[] tokens;
+    private final int[] starts;
 
-  private static void printEntryList(List<DirEntry> entryList) {
-    Formatter formatter = new Formatter();
-    formatter.format("%3s %10s %20s %20s\r\n", "type", "size", "time", "name");
-    for (DirEntry dirEntry : entryList) {
-      int index = dirEntry.getInode();
-      Inode inode = readInode(index);
-      LocalDateTime creatTime = LocalDateTime
-          .ofEpochSecond(inode.getImtime(), 0, ZoneOffset.of("Z"));
-      formatter
-          .format("%3s %10s %20s %20s\r\n", type(inode.getImode().intValue()), inode.getIsize(),
-              creatTime, dirEntry.getName());
+    private CommandLine(String line, String[] tokens, int[] starts) {
+      this.line = line;
+      this.tokens = tokens;
+      this.starts = starts;
     }
-    System.out.println(formatter);
-  }
 
-  // 引导块 + 超级块 + inode Map + zone Map + blocks
-  private static void mount(Partition partition) {
-    // 扇区 sector : 512 byte  块 block : 1024byte
-    // 1. 两个扇区为一个逻辑块
-    // 2. 文件系统的基本单位是块
-    // 3. boot分区的 0 扇区是cpu启动时需要校验的块，510 511 byte需要校验
-    partitionStartSect = partition.getStartSect();
-    if (partition.getBootInd() != 0) {
-      //引导块内是内核的引导指令,这是分区引导块，没有内容
+    /**
+     * @return 空行和 # 开头的注释返回 null
+     */
+    static CommandLine parse(String line) {
+      List<String> tokens = new ArrayList<>();
+      List<Integer> starts = new ArrayList<>();
+      Matcher matcher = TOKEN.matcher(line);
+      while (matcher.find()) {
+        String quoted = matcher.group(1) != null ? matcher.group(1) : matcher.group(2);
+        tokens.add(quoted != null ? quoted : matcher.group());
+        starts.add(matcher.start());
+      }
+      if (tokens.isEmpty() || tokens.get(0).startsWith("#")) {
+        return null;
+      }
+      int[] offsets = new int[starts.size()];
+      for (int i = 0; i < offsets.length; i++) {
+        offsets[i] = starts.get(i);
+      }
+      return new CommandLine(line, tokens.toArray(new String[0]), offsets);
     }
 
-    // 4. 超级块的开始扇区 = 分区开始扇区 + 引导块占用的 2 扇区
-    int superSectStart = partitionStartSect + 2;
+    String name() {
+      return tokens[0];
+    }
 
-    // 7. 读取分区的超级块
-    SuperBlock superBlock = readSuperBlock(superSectStart, 1);
+    int argCount() {
+      return tokens.length - 1;
+    }
 
-    // 8. 从超级块中读取 inode 的块数量
-    int imapBlocks = superBlock.getImapBlocks();
+    String arg(int i) {
+      return tokens[i + 1];
+    }
 
-    // 9. 从超级块中读取 zone 的块数量
-    int zmapBlocks = superBlock.getZmapBlocks();
+    String arg(int i, String defaultValue) {
+      return i + 1 < tokens.length ? tokens[i + 1] : defaultValue;
+    }
 
-    // 10. 计算 inode 的开始扇区 = 超级块开始扇区 + 超级块（2扇区） + （块位图 + 区位图）*2
-    inodeStartSect = superSectStart + 2 + (imapBlocks + zmapBlocks) * 2;
+    // 从第 i 个参数开始的原始文本
+    String rest(int i) {
+      return line.substring(starts[i + 1]).trim();
+    }
 
-    int ninode = superBlock.getNinodes();
-    inodeMap = readBitMap(superSectStart + 2, imapBlocks);
-    zoneMap = readBitMap(superSectStart + 2 + imapBlocks, zmapBlocks);
+    // 包括命令名
+    String[] tokens() {
+      return tokens;
+    }
+  }
 
-    Inode node = readInode(1);
+  private interface Handler {
 
-    root = node;
-    pwd = node;
-    pwdDirName = "/";
+    void run(CommandLine command);
   }
 
-  private static Inode readPathInode(String path) {
-    if (path.equals("/")) {
-      return readInode(1);
-    }
-
-    Inode parent;
-    String[] pathSegs;
-    if (path.startsWith("/")) {
-      parent = root;
-      pathSegs = path.replaceFirst("/", "").split("/");
-    } else {
-      parent = pwd;
-      pathSegs = path.split("/");
-    }
+  private static final class Spec {
 
+    private final int minArgs;
+    private final int maxArgs;
+    private final Handler handler;
 
-    for (String seg : pathSegs) {
-      parent = childInode(parent, seg);
+    private Spec(int minArgs, int maxArgs, Handler handler) {
+      this.minArgs = minArgs;
+      this.maxArgs = maxArgs;
+      this.handler = handler;
     }
-    return parent;
   }
 
-  private static Inode childInode(Inode parent, String seg) {
-    if (!parent.isDir()) {
-      throw new CommandExecuteException("path is not a dir");
+  private static void register(String name, int minArgs, int maxArgs, Handler handler) {
+    COMMANDS.put(name, new Spec(minArgs, maxArgs, handler));
+  }
+
+  /**
+   * 按命令名查表执行，命令耗时按命令名统计，包括输出的时间
+   *
+   * @return 命令不存在、参数个数不对或者执行失败时返回 false
+   */
+  static boolean execute(String line) {
+    CommandLine command = CommandLine.parse(line);
+    if (command == null) {
+      return true;
     }
-    List<DirEntry> entryList = lsInode(parent);
-    for (DirEntry entry : entryList) {
-      if (entry.getName().equals(seg)) {
-        return readInode(entry.getInode());
-      }
+    Spec spec = COMMANDS.get(command.name());
+    if (spec == null || command.argCount() < spec.minArgs || command.argCount() > spec.maxArgs) {
+      error("unsupport command :" + line);
+      return false;
     }
-    throw new CommandExecuteException("path not exists");
+    long start = System.nanoTime();
+    boolean ok = safeCommand(() -> spec.handler.run(command));
+    fs.getMetrics().recordCommand(command.name(), System.nanoTime() - start);
+    return ok;
   }
 
+  private static interface Command {
 
-  private static List<DirEntry> lsInode(Inode inode) {
+    void eval();
+  }
 
-    char type = type(inode.getImode().intValue());
-    if (type != 'd') {
-      throw new CommandExecuteException("target is not dir");
+  private static boolean safeCommand(Command command) {
+    try {
+      command.eval();
+      return true;
+    } catch (CommandExecuteException e) {
+      error(e.getMessage());
+      return false;
+    } catch (RuntimeException e) {
+      // 映像损坏等意外错误只中止当前命令，shell 继续运行
+      error("unexpected error : " + e);
+      return false;
     }
+  }
 
-    // 12. 获取 inode 对应的 zones
-    int[] zones = inode.getIzone();
-
-    long size = inode.getIsize();
-
-    Iterator<byte[]> bytesItr = readZoneBlockIterator(zones, size);
-
-    List<DirEntry> dirList = new LinkedList<>();
+  // 先清空输出缓冲区，让错误信息出现在之前的输出之后
+  private static void error(String message) {
+    out.flush();
+    System.err.println(message);
+  }
 
-    while (bytesItr.hasNext()) {
-      byte[] bytes = bytesItr.next();
-      List<DirEntry> mapedEntryList = mapDirInBlock(bytes);
-      dirList.addAll(mapedEntryList);
+  // 小文件写入输出缓冲区，大文件先清空缓冲区再直接写输出通道
+  private static void catFile(String path) {
+    MinixFile file = session.open(path);
+    out.println();
+    if (file.size() < OUTPUT_BUFFER_SIZE) {
+      file.writeTo(out);
+    } else {
+      out.flush();
+      file.writeTo(outChannel);
     }
-
-    return dirList;
   }
 
-  private static class BlockIndexItr {
-
-    private static interface IntItr {
+  // head 和 tail 的参数：[-n lines | -c bytes] path，默认 10 行
+  private static final class Slice {
 
-      IntItr EMPTY = new IntItr() {
+    private boolean bytes;
+    private long count = 10;
+    private String path;
 
-        @Override
-        public boolean hasNext() {
-          return false;
-        }
-
-        @Override
-        public int next() {
-          throw new IllegalStateException();
+    private static Slice parse(String[] commands) {
+      Slice slice = new Slice();
+      for (int i = 1; i < commands.length; i++) {
+        if (commands[i].equals("-n") || commands[i].equals("-c")) {
+          if (i + 1 >= commands.length) {
+            throw new CommandExecuteException("missing argument to " + commands[i]);
+          }
+          slice.bytes = commands[i].equals("-c");
+          slice.count = size(commands[++i]);
+        } else {
+          slice.path = commands[i];
         }
-      };
-
-      boolean hasNext();
-
-      int next();
-    }
-
-    private static class LazyIndexItr implements IntItr {
-
-      private IntItr itr;
-      private Supplier<int[]> supplier;
-
-      public LazyIndexItr(Supplier<int[]> supplier) {
-        this.supplier = supplier;
       }
-
-      @Override
-      public boolean hasNext() {
-        if (itr == null) {
-          itr = new IndexItr(supplier.get());
-        }
-        return itr.hasNext();
+      if (slice.path == null) {
+        throw new CommandExecuteException("missing file operand");
       }
+      return slice;
+    }
+  }
 
-      @Override
-      public int next() {
-        if (itr == null) {
-          itr = new IndexItr(supplier.get());
+  private static void head(String[] commands) {
+    Slice slice = Slice.parse(commands);
+    Inode inode = session.stat(slice.path);
+    if (slice.bytes) {
+      copyRange(inode, 0, slice.count);
+      return;
+    }
+    MinixFile file = fs.open(inode);
+    long size = inode.getIsize();
+    long lines = 0;
+    for (long position = 0; position < size && lines < slice.count; position += READ_CHUNK) {
+      ByteBuffer bytes = readChunk(file, position, READ_CHUNK);
+      int end = bytes.limit();
+      for (int i = bytes.position(); i < bytes.limit(); i++) {
+        if (bytes.get(i) == '\n' && ++lines == slice.count) {
+          end = i + 1;
+          break;
         }
-        return itr.next();
       }
+      bytes.limit(end);
+      write(bytes);
     }
+  }
 
-    private static class IndexItr implements IntItr {
-
-      private final int[] indexs;
-      private final int offset;
-      private final int length;
-      private int i;
-      private final int limit;
-
-      public IndexItr(int[] indexs) {
-        this(indexs, 0, indexs.length);
-      }
+  private static void tail(String[] commands) {
+    Slice slice = Slice.parse(commands);
+    Inode inode = session.stat(slice.path);
+    long size = inode.getIsize();
+    if (slice.bytes) {
+      copyRange(inode, Math.max(0, size - slice.count), slice.count);
+    } else {
+      copyRange(inode, lastLines(inode, slice.count), size);
+    }
+  }
 
-      public IndexItr(int[] indexs, int offset, int length) {
-        if (offset < 0 || offset + length > indexs.length) {
-          throw new IllegalArgumentException();
+  // 最后 lines 行的起始位置。从文件末尾向前分块查找换行，只读取最后几块
+  private static long lastLines(Inode inode, long lines) {
+    long size = inode.getIsize();
+    if (lines == 0) {
+      return size;
+    }
+    // 最后一个字节是换行时不算作一行的开始
+    long end = size > 0 && fs.read(inode, size - 1, 1).get(0) == '\n' ? size - 1 : size;
+    long found = 0;
+    for (long chunkEnd = end; chunkEnd > 0; chunkEnd -= READ_CHUNK) {
+      long chunkStart = Math.max(0, chunkEnd - READ_CHUNK);
+      ByteBuffer bytes = fs.read(inode, chunkStart, (int) (chunkEnd - chunkStart));
+      for (int i = bytes.limit() - 1; i >= 0; i--) {
+        if (bytes.get(i) == '\n' && ++found == lines) {
+          return chunkStart + i + 1;
         }
-        this.indexs = indexs;
-        this.offset = offset;
-        this.length = length;
-        this.i = offset;
-        this.limit = i + length;
       }
+    }
+    return 0;
+  }
 
-
-      @Override
-      public boolean hasNext() {
-        return i < limit - 1 && indexs[i] != 0;
+  // dd if=path [bs=512] [skip=0] [count=n]，skip 和 count 以 bs 为单位
+  private static void dd(String[] commands) {
+    String path = null;
+    long blockSize = 512;
+    long skip = 0;
+    long count = -1;
+    for (int i = 1; i < commands.length; i++) {
+      String operand = commands[i];
+      int index = operand.indexOf('=');
+      if (index < 0) {
+        throw new CommandExecuteException("unrecognized operand " + operand);
       }
-
-      @Override
-      public int next() {
-        if (i == limit || indexs[i] == 0) {
-          throw new IllegalStateException();
-        }
-        int index = indexs[i];
-        i++;
-        return index;
+      String value = operand.substring(index + 1);
+      switch (operand.substring(0, index)) {
+        case "if":
+          path = value;
+          break;
+        case "bs":
+          blockSize = size(value);
+          break;
+        case "skip":
+          skip = size(value);
+          break;
+        case "count":
+          count = size(value);
+          break;
+        default:
+          throw new CommandExecuteException("unrecognized operand " + operand);
       }
-
     }
+    if (path == null) {
+      throw new CommandExecuteException("missing if=");
+    }
+    if (blockSize == 0) {
+      throw new CommandExecuteException("invalid number : bs=0");
+    }
+    long offset = skip > Long.MAX_VALUE / blockSize ? Long.MAX_VALUE : skip * blockSize;
+    long length = count < 0 || count > Long.MAX_VALUE / blockSize ? Long.MAX_VALUE
+        : count * blockSize;
+    copyRange(session.stat(path), offset, length);
+  }
 
+  // 把文件 [offset, offset + length) 分块输出，超过文件末尾的部分忽略
+  private static void copyRange(Inode inode, long offset, long length) {
+    MinixFile file = fs.open(inode);
+    long size = inode.getIsize();
+    long end = length >= size - offset ? size : offset + length;
+    for (long position = offset; position < end; position += READ_CHUNK) {
+      write(readChunk(file, position, (int) Math.min(READ_CHUNK, end - position)));
+    }
+  }
 
-    private IntItr level01;
-    private IntItr level02;
-    private IntItr level03;
-    private IntItr currentItr;
+  // 经过 MinixFile 读取，连续的分块读取逐步扩大预读窗口
+  private static ByteBuffer readChunk(MinixFile file, long position, int length) {
+    ByteBuffer bytes = ByteBuffer.allocate(length);
+    file.read(bytes, position);
+    bytes.flip();
+    return bytes;
+  }
 
-    private int[] zones;
+  private static void write(ByteBuffer bytes) {
+    out.write(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining());
+  }
 
-    public BlockIndexItr(int[] zones) {
-      if (zones.length != 9) {
-        throw new IllegalArgumentException();
+  private static long size(String value) {
+    try {
+      long size = Long.parseLong(value);
+      if (size >= 0) {
+        return size;
       }
-      this.zones = zones;
-      level01 = new IndexItr(zones, 0, 7);
-      level02 = zones[7] == 0 ? IntItr.EMPTY : new LazyIndexItr(indexsProvider(zones[7]));
-      level03 = zones[8] == 0 ? IntItr.EMPTY : newIntItr(zones[8]);
-      currentItr = level01;
-    }
-
-    private IntItr newIntItr(int zone) {
-      LazyIndexItr itr = new LazyIndexItr(indexsProvider(zone));
-      return new IntItr() {
-        private IntItr currentItr;
-
-        @Override
-        public boolean hasNext() {
-          if (currentItr == null) {
-            if (itr.hasNext()) {
-              currentItr = new LazyIndexItr(indexsProvider(itr.next()));
-              return currentItr.hasNext();
-            } else {
-              return false;
-            }
-          } else {
-            if (currentItr.hasNext()) {
-              return true;
-            }
-            if (itr.hasNext()) {
-              currentItr = new LazyIndexItr(indexsProvider(itr.next()));
-              return currentItr.hasNext();
-            }
-          }
-          return false;
-        }
-
-        @Override
-        public int next() {
-          return currentItr.next();
-        }
-      };
+    } catch (NumberFormatException e) {
+      // 与负数一样报错
     }
+    throw new CommandExecuteException("bad number : " + value);
+  }
 
-    private static Supplier<int[]> indexsProvider(int block) {
-      return () -> {
-        byte[] bytes = readBlock(block);
-        IndexBlock indexBlock = IndexBlock.map(bytes);
-        return indexBlock.indexes();
-      };
+  private static void touch(String path) {
+    try {
+      session.stat(path);
+    } catch (CommandExecuteException e) {
+      session.create(path);
     }
+  }
 
-    public boolean hasNext() {
-      if (level01 == currentItr) {
-        if (currentItr.hasNext()) {
-          return true;
-        } else {
-          currentItr = level02;
-        }
-      }
+  // 在文件末尾追加一行，文件不存在时创建
+  private static void writeLine(String path, String text) {
+    touch(path);
+    session.open(path).append(ByteBuffer.wrap((text + "\n").getBytes(StandardCharsets.UTF_8)));
+  }
 
-      if (level02 == currentItr) {
-        if (currentItr.hasNext()) {
-          return true;
-        } else {
-          currentItr = level03;
-        }
-      }
-      return level03.hasNext();
+  private static void truncate(String path, String size) {
+    try {
+      session.open(path).truncate(Long.parseLong(size));
+    } catch (NumberFormatException e) {
+      throw new CommandExecuteException("bad size : " + size);
     }
+  }
 
-    public int next() {
-      return currentItr.next();
+  // du [-s] [path]，-s 只输出合计
+  private static void du(String[] commands) {
+    boolean summary = commands.length > 1 && commands[1].equals("-s");
+    int pathIndex = summary ? 2 : 1;
+    String path = commands.length > pathIndex ? commands[pathIndex] : ".";
+    TreeWalker walker = new TreeWalker(fs);
+    TreeWalker.Usage usage = walker.du(session.stat(path), path);
+    Formatter formatter = new Formatter();
+    printUsage(formatter, usage, summary);
+    for (String warning : walker.getWarnings()) {
+      formatter.format("%s\r\n", warning);
     }
+    out.print(formatter);
   }
 
-  private static Iterator<byte[]> readZoneBlockIterator(int[] zones, long size) {
-    BlockIndexItr itr = new BlockIndexItr(zones);
-    return new Iterator<byte[]>() {
-
-      private long remaining = size;
-
-      @Override
-      public boolean hasNext() {
-        return itr.hasNext() && remaining > 0;
+  // 与 du 相同，子目录先于父目录输出
+  private static void printUsage(Formatter formatter, TreeWalker.Usage usage, boolean summary) {
+    if (!summary) {
+      for (TreeWalker.Usage child : usage.getChildren()) {
+        printUsage(formatter, child, false);
       }
+    }
+    formatter.format("%8s %12s  %s\r\n", usage.getZones(), usage.getBytes(), usage.getPath());
+  }
 
-      @Override
-      public byte[] next() {
-        int index = itr.next();
-        byte[] bytes = readBlock(index);
-        if (remaining > bytes.length) {
-          remaining -= bytes.length;
-          return bytes;
-        } else {
-          long newLength = remaining;
-          remaining = 0;
-          return Arrays.copyOf(bytes, (int) newLength);
+  // find path [-name glob] [-type f|d] [-size [+-]n[k|M]]
+  private static void find(String[] commands) {
+    TreeWalker.Query query = new TreeWalker.Query();
+    for (int i = 2; i < commands.length; i += 2) {
+      if (i + 1 >= commands.length) {
+        throw new CommandExecuteException("missing argument to " + commands[i]);
+      }
+      String value = commands[i + 1];
+      switch (commands[i]) {
+        case "-name":
+          query.name(value);
+          break;
+        case "-type":
+          if (!value.equals("f") && !value.equals("d")) {
+            throw new CommandExecuteException("unknown type " + value);
+          }
+          query.type(value.charAt(0));
+          break;
+        case "-size":
+          long[] range = sizeRange(value);
+          query.minSize(range[0]).maxSize(range[1]);
+          break;
+        default:
+          throw new CommandExecuteException("unknown predicate " + commands[i]);
+      }
+    }
+    String path = commands[1];
+    TreeWalker walker = new TreeWalker(fs);
+    StringBuilder sb = new StringBuilder();
+    for (String matched : walker.find(session.stat(path), path, query)) {
+      sb.append(matched).append("\r\n");
+    }
+    for (String warning : walker.getWarnings()) {
+      sb.append(warning).append("\r\n");
+    }
+    out.print(sb);
+  }
+
+  // grep [-E] [-i] [-n] [-l] pattern [path]，路径默认为当前目录
+  private static void grep(String[] commands) {
+    Grep grep = new Grep(fs);
+    List<String> operands = new ArrayList<>();
+    boolean filesOnly = false;
+    for (int i = 1; i < commands.length; i++) {
+      switch (commands[i]) {
+        case "-E":
+          grep.regex(true);
+          break;
+        case "-i":
+          grep.ignoreCase(true);
+          break;
+        case "-n":
+          grep.lineNumbers(true);
+          break;
+        case "-l":
+          filesOnly = true;
+          break;
+        default:
+          operands.add(commands[i]);
+      }
+    }
+    if (operands.isEmpty() || operands.size() > 2) {
+      throw new CommandExecuteException("usage : grep [-E] [-i] [-n] [-l] pattern [path]");
+    }
+    String path = operands.size() == 2 ? operands.get(1) : ".";
+    Grep.Result result = grep.filesOnly(filesOnly)
+        .search(operands.get(0), session.stat(path), path);
+    if (filesOnly) {
+      for (String file : result.getFiles()) {
+        out.print(file);
+        out.print("\r\n");
+      }
+    } else {
+      for (Grep.Match match : result.getMatches()) {
+        out.print(match.getPath());
+        out.print(':');
+        if (match.getLineNumber() > 0) {
+          out.print(match.getLineNumber());
+          out.print(':');
         }
+        out.write(match.getLine(), 0, match.getLine().length);
+        out.print("\r\n");
       }
-    };
+    }
+    for (String warning : result.getWarnings()) {
+      out.print(warning);
+      out.print("\r\n");
+    }
   }
 
-  private static List<DirEntry> mapDirInBlock(byte[] zoneBytes) {
-    List<DirEntry> entryList = new LinkedList<>();
-    for (int i = 0; i < zoneBytes.length; i += 16) {
-      DirEntry dirEntry = DirEntry.map(zoneBytes, i);
-      if (dirEntry.getInode() > 0) {
-        entryList.add(dirEntry);
+  // query [-type t] [-size [+-]n[k|M]] [-newer time] [-older time] [-uid n] [-links n]
+  private static void query(String[] commands) {
+    InodeTable table = InodeTable.scan(fs);
+    InodeTable.Query query = table.query();
+    for (int i = 1; i < commands.length; i += 2) {
+      if (i + 1 >= commands.length) {
+        throw new CommandExecuteException("missing argument to " + commands[i]);
+      }
+      String value = commands[i + 1];
+      switch (commands[i]) {
+        case "-type":
+          query.type(value.charAt(0));
+          break;
+        case "-size":
+          long[] range = sizeRange(value);
+          query.minSize(range[0]).maxSize(range[1]);
+          break;
+        case "-newer":
+          query.modifiedAfter(seconds(value));
+          break;
+        case "-older":
+          query.modifiedBefore(seconds(value));
+          break;
+        case "-uid":
+          query.uid(number(value));
+          break;
+        case "-links":
+          query.minLinks(number(value));
+          break;
+        default:
+          throw new CommandExecuteException("unknown predicate " + commands[i]);
       }
     }
-    return entryList;
+    int[] inums = query.select();
+    String[] paths = table.paths(inums);
+    Formatter formatter = new Formatter();
+    for (int i = 0; i < inums.length; i++) {
+      int inum = inums[i];
+      LocalDateTime mtime = LocalDateTime.ofEpochSecond(table.mtime(inum), 0, ZoneOffset.of("Z"));
+      formatter.format("%6s %3s %10s %20s  %s\r\n", inum, table.type(inum), table.size(inum),
+          mtime, paths[i] == null ? "?" : paths[i]);
+    }
+    formatter.format("%d of %d inodes matched, scanned in %d ms\r\n", inums.length,
+        table.getCount(), table.getElapsedNanos() / 1_000_000);
+    out.print(formatter);
   }
 
-  private static char type(int mode) {
-    int value = (mode & 0_170000) >> 12;
-    if (value == 1) {
-      return 'p';
+  // owner zone 或者 owner fromZone toZone，-Dfs.owners.persist=true 时索引保存在映像旁边
+  private static void owner(String[] commands) {
+    if (zoneOwners == null || !zoneOwners.isCurrent()) {
+      zoneOwners = Boolean.getBoolean("fs.owners.persist") && image != null
+          ? ZoneOwners.loadOrBuild(fs, new File(image.getPath() + "." + partition + ".owners"))
+          : ZoneOwners.build(fs);
     }
-    if (value == 2) {
-      return 'c';
+    int from = number(commands[1]);
+    int to = commands.length == 3 ? number(commands[2]) : from + 1;
+    StringBuilder sb = new StringBuilder();
+    for (ZoneOwners.Owner owner : zoneOwners.owners(from, to)) {
+      sb.append(owner).append("\r\n");
     }
-    if (value == 4) {
-      return 'd';
+    if (commands.length == 2 && sb.length() == 0) {
+      sb.append("zone ").append(from).append(" is free\r\n");
     }
-    if (value == 6) {
-      return 'b';
-    }
-    if (value == 8) {
-      return '-';
-    }
-    if (value == 10) {
-      return '-';
+    out.print(sb);
+  }
+
+  // 把映像中的 path 复制到宿主机的 hostDir 下
+  private static void extract(String path, String hostDir) {
+    String name = path;
+    while (name.length() > 1 && name.endsWith("/")) {
+      name = name.substring(0, name.length() - 1);
     }
-    throw new Error(); // should never happen
+    name = name.substring(name.lastIndexOf('/') + 1);
+    out.println(new Extractor(fs).extract(session.stat(path), name, new File(hostDir)));
   }
 
-  private static Inode readInode(int inodeIndex) {
-    int actualIndex = inodeIndex - 1;
-    int offset = inodeStartSect * Sector.SECTOR_SIZE + actualIndex * Inode.INODE_SIZE;
-    byte[] blockBytes = readBytets(offset, Inode.INODE_SIZE);
-    return new Inode(blockBytes);
+  private static void importTree(String hostPath, String dir) {
+    out.println(new Importer(fs).importFrom(new File(hostPath), session.stat(dir)));
   }
 
-  private static byte[] readBytets(long offset, int length) {
-    byte[] bytes = new byte[length];
-    try {
-      randomAccessFile.seek(offset);
-      int len = randomAccessFile.read(bytes, 0, length);
-    } catch (IOException e) {
-      throw new IllegalStateException(e);
+  private static void stats(String option) {
+    if (option.isEmpty()) {
+      out.println(fs.getMetrics());
+    } else if (option.equals("reset")) {
+      fs.getMetrics().reset();
+    } else {
+      throw new CommandExecuteException("unknown option " + option);
     }
-
-    return bytes;
   }
 
-  private static BitMap readBitMap(int startSect,
-      int blockCount) {
-    byte[] blockBytes = readBlock(startSect, blockCount);
-    return new DefaultBitMap(blockBytes);
+  private static int number(String value) {
+    try {
+      return Integer.parseInt(value);
+    } catch (NumberFormatException e) {
+      throw new CommandExecuteException("bad number : " + value);
+    }
   }
 
-  private static SuperBlock readSuperBlock(int startSect,
-      int block) {
-    byte[] bytes = readBlock(startSect, block);
-    SuperBlock superBlock = SuperBlock.map(bytes);
-    return superBlock;
+  // 纪元秒，或者 UTC 的 2020-01-01、2020-01-01T08:00:00
+  private static long seconds(String value) {
+    try {
+      if (value.chars().allMatch(Character::isDigit)) {
+        return Long.parseLong(value);
+      }
+      if (value.indexOf('T') < 0) {
+        return LocalDate.parse(value).atStartOfDay().toEpochSecond(ZoneOffset.UTC);
+      }
+      return LocalDateTime.parse(value).toEpochSecond(ZoneOffset.UTC);
+    } catch (DateTimeParseException | NumberFormatException e) {
+      throw new CommandExecuteException("bad time : " + value);
+    }
+  }
+
+  /**
+   * +n 大于 n，-n 小于 n，n 等于 n，单位 k 和 M 按 1024 计
+   *
+   * @return 最小值和最大值，-1 表示不限
+   */
+  private static long[] sizeRange(String value) {
+    char sign = value.charAt(0);
+    String number = sign == '+' || sign == '-' ? value.substring(1) : value;
+    long unit = 1;
+    if (number.endsWith("k")) {
+      unit = 1024;
+    } else if (number.endsWith("M")) {
+      unit = 1024 * 1024;
+    }
+    if (unit != 1) {
+      number = number.substring(0, number.length() - 1);
+    }
+    long size;
+    try {
+      size = Long.parseLong(number) * unit;
+    } catch (NumberFormatException e) {
+      throw new CommandExecuteException("bad size : " + value);
+    }
+    if (sign == '+') {
+      return new long[]{size + 1, -1};
+    } else if (sign == '-') {
+      return new long[]{-1, Math.max(0, size - 1)};
+    }
+    return new long[]{size, size};
   }
 
-  private static BootSector readBootSector(RandomAccessFile randomAccessFile, int startSector,
-      int sectorCount) {
-    byte[] bytes = readSector(randomAccessFile, startSector, sectorCount);
-    BootSector bootSector = BootSector.map(bytes);
-    return bootSector;
+  private static void printHelp() {
+    out.println("support : pwd cd ll cat head tail dd df mkdir touch rm write truncate sync fsck du find"
+        + " grep query owner stats extract import");
   }
 
-  private static byte[] readBlock(int block) {
-    byte[] blockBytes = new byte[Block.BLOCK_SIZE];
+  private static int selectPartitions(int maxIndex) {
+    printMountTip();
     try {
-      randomAccessFile.seek((partitionStartSect + block * 2) * Sector.SECTOR_SIZE);
-      int len = randomAccessFile.read(blockBytes, 0, blockBytes.length);
-      if (len != blockBytes.length) {
-        throw new IllegalStateException("unexpect end");
+      String line = STDIN.readLine();
+      while (line != null) {
+        try {
+          Integer index = Integer.valueOf(line);
+          if (index > maxIndex) {
+            out.println("index overflow.");
+            printMountTip();
+          } else {
+            return index;
+          }
+        } catch (NumberFormatException e) {
+          out.println("please enter a number.");
+          printMountTip();
+        }
+        line = STDIN.readLine();
       }
-      return blockBytes;
-    } catch (IOException ioException) {
-      throw new IllegalStateException(ioException);
+    } catch (IOException e) {
+      throw new FileSystemParseException(e);
     }
+    return 0;
   }
 
-  private static byte[] readBlock(int startSector,
-      int blockCount) {
-    byte[] blockBytes = new byte[Block.BLOCK_SIZE * blockCount];
-    try {
-      randomAccessFile.seek(startSector * Sector.SECTOR_SIZE);
-      int len = randomAccessFile.read(blockBytes, 0, blockBytes.length);
-      if (len != blockBytes.length) {
-        throw new IllegalStateException("unexpect end");
-      }
-      return blockBytes;
-    } catch (IOException ioException) {
-      throw new IllegalStateException(ioException);
+  private static void printMountTip() {
+    out.print("mount a partition (e.g.0) : ");
+    out.flush();
+  }
+
+  private static void printPartitions(Partition... partitions) {
+    out.println("Partitions List :");
+    Formatter formatter = new Formatter();
+    formatter.format("%3s %10s %10s %15s %15s\r\n", "no", "bootInd", "sysInd", "startSect", "nr_sects");
+    for (int i = 0; i < partitions.length; i++) {
+      Partition partition = partitions[i];
+      formatter
+          .format("%3s %10s %10s %15s %15s\r\n", i, partition.getBootInd(), partition.getSysInd(), partition.getStartSect(),
+              partition.getNrSects());
     }
+    out.println(formatter);
   }
 
-  private static byte[] readSector(RandomAccessFile randomAccessFile, int startSector,
-      int sectorCount) {
-    byte[] sectorBytes = new byte[Sector.SECTOR_SIZE * sectorCount];
-    try {
-      randomAccessFile.seek(startSector * Sector.SECTOR_SIZE);
-      int len = randomAccessFile.read(sectorBytes, 0, sectorBytes.length);
-      if (len != sectorBytes.length) {
-        throw new IllegalStateException("unexpect end");
+  private static void printDiskFree() {
+    SuperBlock superBlock = fs.getSuperBlock();
+    int inodes = superBlock.getNinodes();
+    int zones = superBlock.getNzones() - superBlock.getFirstDatazone();
+    int freeInodes = fs.freeInodes();
+    int freeZones = fs.freeZones();
+    Formatter formatter = new Formatter();
+    formatter.format("%s\r\n", fs.getLayout());
+    formatter.format("%6s %10s %10s %10s\r\n", "", "total", "used", "free");
+    formatter.format("%6s %10s %10s %10s\r\n", "inodes", inodes, inodes - freeInodes, freeInodes);
+    formatter.format("%6s %10s %10s %10s\r\n", "zones", zones, zones - freeZones, freeZones);
+    out.println(formatter);
+  }
+
+  // ll [-o offset] [-n limit] [path]，边读边输出，内存占用与目录大小无关
+  private static void ls(String[] commands) {
+    long offset = 0;
+    long limit = Long.MAX_VALUE;
+    String path = ".";
+    for (int i = 1; i < commands.length; i++) {
+      if (commands[i].equals("-o") || commands[i].equals("-n")) {
+        if (i + 1 >= commands.length) {
+          throw new CommandExecuteException("missing argument to " + commands[i]);
+        }
+        long value = number(commands[i + 1]);
+        if (value < 0) {
+          throw new CommandExecuteException("bad number : " + commands[i + 1]);
+        }
+        if (commands[i].equals("-o")) {
+          offset = value;
+        } else {
+          limit = value;
+        }
+        i++;
+      } else {
+        path = commands[i];
+      }
+    }
+    DirEntryIterator itr = session.iterate(path);
+    itr.skip(offset);
+    out.format("%3s %10s %20s %20s\r\n", "type", "size", "time", "name");
+    List<DirEntry> batch = new ArrayList<>(LIST_BATCH);
+    for (long count = 0; count < limit && itr.hasNext(); count++) {
+      batch.add(itr.next());
+      if (batch.size() == LIST_BATCH) {
+        printEntries(batch);
+        batch.clear();
       }
-      return sectorBytes;
-    } catch (IOException ioException) {
-      throw new IllegalStateException(ioException);
+    }
+    printEntries(batch);
+    out.println();
+  }
+
+  private static void printEntries(List<DirEntry> entryList) {
+    int[] inums = new int[entryList.size()];
+    int i = 0;
+    for (DirEntry dirEntry : entryList) {
+      inums[i++] = dirEntry.getInode();
+    }
+    Inode[] inodes = fs.readInodes(inums);
+    i = 0;
+    for (DirEntry dirEntry : entryList) {
+      Inode inode = inodes[i++];
+      LocalDateTime creatTime = LocalDateTime
+          .ofEpochSecond(inode.getImtime(), 0, ZoneOffset.of("Z"));
+      out.format("%3s %10s %20s %20s\r\n", inode.getType(), inode.getIsize(), creatTime,
+          dirEntry.getName());
+    }
+    if (interactive) {
+      out.flush();
     }
   }
 
@@ -0,0 +1,63 @@
+package com.lonicera.fs;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+public interface BlockDevice extends Closeable {
+
+  int TRANSFER_CHUNK_SIZE = 64 * 1024;
+
+  long size();
+
+  /**
+   * 返回 [offset, offset + length) 的只读视图，position 为 0，字节序为小端
+   */
+  ByteBuffer read(long offset, int length);
+
+  default ByteBuffer readSector(long startSector, int sectorCount) {
+    return read(startSector * Sector.SECTOR_SIZE, sectorCount * Sector.SECTOR_SIZE);
+  }
+
+  default boolean isWritable() {
+    return false;
+  }
+
+  /**
+   * 把 src 的剩余内容写到 offset 处，只读设备抛出 IllegalStateException
+   */
+  default void write(long offset, ByteBuffer src) {
+    throw new IllegalStateException("read-only device");
+  }
+
+  /**
+   * 把已写入的数据刷到存储设备
+   */
+  default void force() {
+  }
+
+  /**
+   * 提示设备稍后会读取这段数据，默认什么也不做
+   */
+  default void prefetch(long offset, long length) {
+  }
+
+  /**
+   * 把 [offset, offset + count) 原样写入 target，能直接由通道传输的实现应覆盖此方法
+   */
+  default long transferTo(long offset, long count, WritableByteChannel target) throws IOException {
+    long position = offset;
+    long end = offset + count;
+    while (position < end) {
+      int length = (int) Math.min(end - position, TRANSFER_CHUNK_SIZE);
+      ByteBuffer bytes = read(position, length);
+      while (bytes.hasRemaining()) {
+        target.write(bytes);
+      }
+      position += length;
+    }
+    return count;
+  }
+
+}
@@ -0,0 +1,60 @@
+package com.lonicera.fs;
+
+import java.util.function.IntFunction;
+
+/**
+ * 按逻辑块顺序给出 inode 的 zone 指向的全部数据块号：7 个直接块，然后依次是一次、二次、三次间接块覆盖的块，
+ * 级数由 Layout 决定。没有分配的块（空洞）给出 0，没有分配的索引块覆盖的块都是空洞。每个索引块只在第一次用到时读取一次
+ */
+class BlockIndexItr {
+
+  private final Layout layout;
+  private final int[] zones;
+  private final IntFunction<IndexBlock> indexReader;
+  private final int limit;
+  private int block;
+  // 每一层当前读入的索引块，depth 0 是最靠近数据块的一层
+  private final int[] cachedZones;
+  private final int[][] cached;
+
+  public BlockIndexItr(Layout layout, int[] zones, IntFunction<IndexBlock> indexReader) {
+    if (zones.length != layout.getZoneCount()) {
+      throw new IllegalArgumentException();
+    }
+    this.layout = layout;
+    this.zones = zones;
+    this.indexReader = indexReader;
+    this.limit = layout.getMaxFileBlocks();
+    this.cachedZones = new int[layout.getIndexLevels()];
+    this.cached = new int[layout.getIndexLevels()][];
+  }
+
+  public boolean hasNext() {
+    return block < limit;
+  }
+
+  public int next() {
+    if (block >= limit) {
+      throw new IllegalStateException();
+    }
+    int logicalBlock = block++;
+    if (logicalBlock < Layout.DIRECT_ZONES) {
+      return zones[logicalBlock];
+    }
+    long index = logicalBlock - Layout.DIRECT_ZONES;
+    int level = 1;
+    while (index >= layout.span(level)) {
+      index -= layout.span(level);
+      level++;
+    }
+    int zone = zones[Layout.DIRECT_ZONES + level - 1];
+    for (int depth = level - 1; depth >= 0 && zone != 0; depth--) {
+      if (cachedZones[depth] != zone || cached[depth] == null) {
+        cached[depth] = indexReader.apply(zone).indexes();
+        cachedZones[depth] = zone;
+      }
+      zone = cached[depth][(int) (index / layout.span(depth) % layout.getIndexCount())];
+    }
+    return zone;
+  }
+}
@@ -1,7 +1,7 @@
 package com.lonicera.fs;
 
 import com.lonicera.fs.BootSector.Partition;
-import java.util.Arrays;
+import java.nio.ByteBuffer;
 import lombok.Getter;
 
 public class BootBlock extends Abstract2SectorBlock implements Block {
@@ -15,9 +15,9 @@ public class BootBlock extends Abstract2SectorBlock implements Block {
   @Getter
   private Partition p4;
 
-  private BootBlock(byte[] bytes){
+  private BootBlock(ByteBuffer bytes){
     super(bytes);
-    if(unsignByte(bytes[510]) != 0x55 || unsignByte(bytes[511]) != 0xaa){
+    if(Bytes.u8(bytes, 510) != 0x55 || Bytes.u8(bytes, 511) != 0xaa){
       throw new IllegalArgumentException("bad boot block");
     }
     bootSector = mapBootSector(bytes);
@@ -27,17 +27,14 @@ public class BootBlock extends Abstract2SectorBlock implements Block {
     p4 = bootSector.getP4();
   }
 
-  private short unsignByte(byte b){
-    return (short) (b & 0xff);
-  }
-
 
-  private BootSector mapBootSector(byte[] bytes) {
-    byte[] sectorBytes = Arrays.copyOf(bytes, 512);
-    return BootSector.map(sectorBytes);
+  private BootSector mapBootSector(ByteBuffer bytes) {
+    ByteBuffer sectorBytes = bytes.duplicate();
+    sectorBytes.limit(512);
+    return BootSector.map(sectorBytes.slice());
   }
 
-  public static BootBlock map(byte[] bytes){
+  public static BootBlock map(ByteBuffer bytes){
     return new BootBlock(bytes);
   }
 
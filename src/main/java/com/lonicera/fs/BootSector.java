@@ -1,10 +1,8 @@
 package com.lonicera.fs;
 
 
-import java.util.Arrays;
+import java.nio.ByteBuffer;
 import lombok.Getter;
-import org.joou.UByte;
-import org.joou.UInteger;
 
 @Getter
 public class BootSector implements Sector {
@@ -22,77 +20,63 @@ public class BootSector implements Sector {
     int getNrSects();
   }
 
-  private class SimplePartition implements Partition {
-
-    private UByte bootInd; //引导标识
-    private UByte head; //分区起始磁头号
-    private UByte sector;//分区起始扇区
-    private UByte cyl;//分区起始柱面
-    private UByte sysInd; //0x0b-DOS  0x80-Old Minix 0x83-Linux
-    private UByte endHead;//分区结束磁头号
-    private UByte endSector;//分区结束扇区
-    private UByte endCyl;//结束柱面
-    @Getter
-    private int startSect; //起始物理扇区
-    @Getter
-    private int nrSects; // 占用扇区数
-
-    private SimplePartition(byte[] bytes){
-      if(bytes == null || bytes.length != PARTITION_SIZE){
+  private static class SimplePartition implements Partition {
+
+    private static final int BOOT_IND = 0; //引导标识
+    private static final int HEAD = 1; //分区起始磁头号
+    private static final int SECTOR = 2;//分区起始扇区
+    private static final int CYL = 3;//分区起始柱面
+    private static final int SYS_IND = 4; //0x0b-DOS  0x80-Old Minix 0x83-Linux
+    private static final int END_HEAD = 5;//分区结束磁头号
+    private static final int END_SECTOR = 6;//分区结束扇区
+    private static final int END_CYL = 7;//结束柱面
+    private static final int START_SECT = 8; //起始物理扇区
+    private static final int NR_SECTS = 12; // 占用扇区数
+
+    private final ByteBuffer bytes;
+    private final int offset;
+
+    private SimplePartition(ByteBuffer bytes, int offset){
+      if(bytes == null || bytes.limit() < offset + PARTITION_SIZE){
         throw new IllegalStateException("bytes not enough");
       }
-      mapBytes(bytes);
+      this.bytes = bytes;
+      this.offset = offset;
     }
 
-    private void mapBytes(byte[] bytes){
-      bootInd = UByte.valueOf(bytes[0]);
-      head = UByte.valueOf(bytes[1]);
-      sector = UByte.valueOf(bytes[2]);
-      cyl = UByte.valueOf(bytes[3]);
-      sysInd = UByte.valueOf(bytes[4]);
-      endHead = UByte.valueOf(bytes[5]);
-      endSector = UByte.valueOf(bytes[6]);
-      endCyl = UByte.valueOf(bytes[7]);
-      startSect = concatInt(bytes, 8);
-      nrSects = concatInt(bytes, 12);
+    @Override
+    public int getBootInd() {
+      return Bytes.u8(bytes, offset + BOOT_IND);
     }
 
-    private int concatInt(byte[] bytes, int start){
-      int value = 0;
-      for(int step = 0; step < 3; step ++){
-        value |= ((bytes[start] & 0xff) << (step * 8));
-        start++;
-      }
-      return UInteger.valueOf(value).intValue();
+    @Override
+    public int getSysInd() {
+      return Bytes.u8(bytes, offset + SYS_IND);
     }
 
     @Override
-    public int getBootInd() {
-      return bootInd.intValue();
+    public int getStartSect() {
+      return (int) Bytes.u32(bytes, offset + START_SECT);
     }
 
     @Override
-    public int getSysInd() {
-      return sysInd.intValue();
+    public int getNrSects() {
+      return (int) Bytes.u32(bytes, offset + NR_SECTS);
     }
   }
 
-  private BootSector(byte[] bytes){
+  private BootSector(ByteBuffer bytes){
     mapBytes(bytes);
   }
 
-  private void mapBytes(byte[] bytes){
-    byte[] partition1Bytes = Arrays.copyOfRange(bytes, 0x1be, 0x1be + 16);
-    p1 = new SimplePartition(partition1Bytes);
-    byte[] partition2Bytes = Arrays.copyOfRange(bytes, 0x1ce, 0x1ce + 16);
-    p2 = new SimplePartition(partition2Bytes);
-    byte[] partition3Bytes = Arrays.copyOfRange(bytes, 0x1de, 0x1de + 16);
-    p3 = new SimplePartition(partition3Bytes);
-    byte[] partition4Bytes = Arrays.copyOfRange(bytes, 0x1ee, 0x1ee + 16);
-    p4 = new SimplePartition(partition4Bytes);
+  private void mapBytes(ByteBuffer bytes){
+    p1 = new SimplePartition(bytes, 0x1be);
+    p2 = new SimplePartition(bytes, 0x1ce);
+    p3 = new SimplePartition(bytes, 0x1de);
+    p4 = new SimplePartition(bytes, 0x1ee);
   }
 
-  public static BootSector map(byte[] bytes){
+  public static BootSector map(ByteBuffer bytes){
     return new BootSector(bytes);
   }
 }
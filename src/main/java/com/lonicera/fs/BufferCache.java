@@ -0,0 +1,331 @@
+package com.lonicera.fs;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.IntFunction;
+
+/**
+ * 参照 minix 的 buf cache：以逻辑块号为 key，按 LRU 淘汰，超级块所在的块被钉住不参与淘汰。
+ * <p>
+ * 修改过的块是脏块，不参与淘汰，对同一块的多次修改合并为一次写入。读取到的块可能是只读的映射视图，
+ * 第一次修改时复制一份。flush 时按块号排序，连续的块合并成一次写入。
+ * <p>
+ * 未命中时在锁外读取，同一块的并发读取共用一次读取。读取期间块被修改或丢弃时，读到的内容不放入缓存。
+ */
+public class BufferCache {
+
+  // 一次写入最多合并的块数
+  private static final int MAX_WRITE_BLOCKS = 256;
+
+  public interface BlockWriter {
+
+    void write(int block, ByteBuffer bytes);
+  }
+
+  private final IntFunction<ByteBuffer> reader;
+  private final int capacity;
+  private final int blockSize;
+  private final LinkedHashMap<Integer, ByteBuffer> blocks = new LinkedHashMap<>(16, 0.75f, true);
+  private final Map<Integer, ByteBuffer> pinned = new HashMap<>();
+  private final TreeMap<Integer, ByteBuffer> dirty = new TreeMap<>();
+  private final Map<Integer, CompletableFuture<ByteBuffer>> loading = new HashMap<>();
+
+  private long hits;
+  private long misses;
+  private long evictions;
+  private long writes;
+  private long flushedBlocks;
+
+  public BufferCache(IntFunction<ByteBuffer> reader, int capacity) {
+    this(reader, capacity, Block.BLOCK_SIZE);
+  }
+
+  public BufferCache(IntFunction<ByteBuffer> reader, int capacity, int blockSize) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("capacity");
+    }
+    this.reader = reader;
+    this.capacity = capacity;
+    this.blockSize = blockSize;
+  }
+
+  public static BufferCache withMemoryBudget(IntFunction<ByteBuffer> reader, long bytes,
+      int blockSize) {
+    return new BufferCache(reader, (int) Math.max(1, bytes / blockSize), blockSize);
+  }
+
+  public ByteBuffer get(int block) {
+    return view(load(block));
+  }
+
+  /**
+   * 返回可写的视图并把块标记为脏块
+   */
+  public ByteBuffer getForWrite(int block) {
+    synchronized (this) {
+      ByteBuffer buffer = dirty.get(block);
+      if (buffer != null) {
+        return writableView(buffer);
+      }
+    }
+    ByteBuffer loaded = load(block);
+    synchronized (this) {
+      ByteBuffer buffer = dirty.get(block);
+      if (buffer == null) {
+        buffer = loaded;
+        if (buffer.isReadOnly()) {
+          ByteBuffer copy = ByteBuffer.allocate(buffer.capacity());
+          copy.put(buffer.duplicate());
+          copy.rewind();
+          buffer = copy;
+        }
+        markDirty(block, buffer);
+      }
+      return writableView(buffer);
+    }
+  }
+
+  /**
+   * 新分配的块不需要读取原有内容，直接以全 0 的脏块代替
+   */
+  public synchronized ByteBuffer create(int block) {
+    ByteBuffer buffer = ByteBuffer.allocate(blockSize);
+    markDirty(block, buffer);
+    return writableView(buffer);
+  }
+
+  private ByteBuffer load(int block) {
+    CompletableFuture<ByteBuffer> future;
+    boolean reading = false;
+    synchronized (this) {
+      ByteBuffer buffer = cached(block);
+      if (buffer != null) {
+        hits++;
+        return buffer;
+      }
+      future = loading.get(block);
+      if (future == null) {
+        misses++;
+        future = new CompletableFuture<>();
+        loading.put(block, future);
+        reading = true;
+      } else {
+        hits++;
+      }
+    }
+    if (!reading) {
+      return current(block, join(future));
+    }
+    ByteBuffer buffer;
+    try {
+      buffer = reader.apply(block);
+    } catch (RuntimeException e) {
+      synchronized (this) {
+        loading.remove(block, future);
+      }
+      future.completeExceptionally(e);
+      throw e;
+    }
+    synchronized (this) {
+      if (loading.remove(block, future)) {
+        blocks.put(block, buffer);
+        evict();
+      }
+    }
+    future.complete(buffer);
+    return current(block, buffer);
+  }
+
+  private ByteBuffer cached(int block) {
+    ByteBuffer buffer = dirty.get(block);
+    if (buffer == null) {
+      buffer = pinned.get(block);
+    }
+    if (buffer == null) {
+      buffer = blocks.get(block);
+    }
+    return buffer;
+  }
+
+  // 读取期间块被修改时以缓存中的内容为准
+  private synchronized ByteBuffer current(int block, ByteBuffer loaded) {
+    ByteBuffer buffer = dirty.get(block);
+    if (buffer == null) {
+      buffer = pinned.get(block);
+    }
+    return buffer == null ? loaded : buffer;
+  }
+
+  private static ByteBuffer join(CompletableFuture<ByteBuffer> future) {
+    try {
+      return future.join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw e;
+    }
+  }
+
+  private void markDirty(int block, ByteBuffer buffer) {
+    loading.remove(block);
+    blocks.remove(block);
+    if (pinned.containsKey(block)) {
+      pinned.put(block, buffer);
+    }
+    dirty.put(block, buffer);
+    writes++;
+  }
+
+  /**
+   * 按块号顺序写出全部脏块，连续的块合并为一次写入，写出后的块回到 LRU 中
+   *
+   * @return 写出的块数
+   */
+  public synchronized int flush(BlockWriter writer) {
+    int count = dirty.size();
+    Iterator<Map.Entry<Integer, ByteBuffer>> itr = dirty.entrySet().iterator();
+    Map.Entry<Integer, ByteBuffer> entry = itr.hasNext() ? itr.next() : null;
+    while (entry != null) {
+      int start = entry.getKey();
+      ByteBuffer first = entry.getValue();
+      ByteBuffer run = null;
+      int length = 1;
+      entry = itr.hasNext() ? itr.next() : null;
+      while (entry != null && entry.getKey() == start + length && length < MAX_WRITE_BLOCKS) {
+        if (run == null) {
+          run = ByteBuffer.allocate(MAX_WRITE_BLOCKS * blockSize);
+          run.put(first.duplicate());
+        }
+        run.put(entry.getValue().duplicate());
+        length++;
+        entry = itr.hasNext() ? itr.next() : null;
+      }
+      if (run == null) {
+        writer.write(start, first.duplicate());
+      } else {
+        run.flip();
+        writer.write(start, run);
+      }
+    }
+    for (Map.Entry<Integer, ByteBuffer> flushed : dirty.entrySet()) {
+      if (!pinned.containsKey(flushed.getKey())) {
+        blocks.put(flushed.getKey(), flushed.getValue());
+      }
+    }
+    dirty.clear();
+    flushedBlocks += count;
+    evict();
+    return count;
+  }
+
+  /**
+   * [block, block + count) 中是否有未写出的块
+   */
+  public synchronized boolean isDirty(int block, int count) {
+    return !dirty.isEmpty() && !dirty.subMap(block, block + count).isEmpty();
+  }
+
+  public synchronized int dirtyCount() {
+    return dirty.size();
+  }
+
+  public ByteBuffer pin(int block) {
+    ByteBuffer loaded = load(block);
+    synchronized (this) {
+      ByteBuffer buffer = pinned.get(block);
+      if (buffer == null) {
+        buffer = dirty.containsKey(block) ? dirty.get(block) : blocks.remove(block);
+      }
+      if (buffer == null) {
+        buffer = loaded;
+      }
+      pinned.put(block, buffer);
+      return view(buffer);
+    }
+  }
+
+  public synchronized void unpin(int block) {
+    ByteBuffer buffer = pinned.remove(block);
+    if (buffer != null && !dirty.containsKey(block)) {
+      blocks.put(block, buffer);
+      evict();
+    }
+  }
+
+  /**
+   * 丢弃缓存的块，包括未写出的修改，块被释放时使用
+   */
+  public synchronized void invalidate(int block) {
+    loading.remove(block);
+    blocks.remove(block);
+    dirty.remove(block);
+  }
+
+  private void evict() {
+    Iterator<ByteBuffer> itr = blocks.values().iterator();
+    while (blocks.size() > capacity && itr.hasNext()) {
+      itr.next();
+      itr.remove();
+      evictions++;
+    }
+  }
+
+  // 每次返回独立的 position/limit，调用方修改视图不影响缓存内容
+  private static ByteBuffer view(ByteBuffer buffer) {
+    return buffer.asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  private static ByteBuffer writableView(ByteBuffer buffer) {
+    return buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  public int getCapacity() {
+    return capacity;
+  }
+
+  public synchronized int size() {
+    return blocks.size() + pinned.size() + dirty.size();
+  }
+
+  public synchronized long getHits() {
+    return hits;
+  }
+
+  public synchronized long getMisses() {
+    return misses;
+  }
+
+  public synchronized long getEvictions() {
+    return evictions;
+  }
+
+  public synchronized long getWrites() {
+    return writes;
+  }
+
+  public synchronized long getFlushedBlocks() {
+    return flushedBlocks;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "BufferCache{" +
+        "capacity=" + capacity +
+        ", cached=" + blocks.size() +
+        ", pinned=" + pinned.size() +
+        ", hits=" + hits +
+        ", misses=" + misses +
+        ", evictions=" + evictions +
+        ", dirty=" + dirty.size() +
+        ", flushed=" + flushedBlocks +
+        '}';
+  }
+}
@@ -0,0 +1,53 @@
+package com.lonicera.fs;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * 按小端在 ByteBuffer 的绝对位置读写无符号数，不移动 position，不装箱
+ */
+final class Bytes {
+
+  private Bytes() {
+  }
+
+  static int u8(ByteBuffer bytes, int index) {
+    return bytes.get(index) & 0xff;
+  }
+
+  static int u16(ByteBuffer bytes, int index) {
+    short value = bytes.getShort(index);
+    if (bytes.order() != ByteOrder.LITTLE_ENDIAN) {
+      value = Short.reverseBytes(value);
+    }
+    return value & 0xffff;
+  }
+
+  static long u32(ByteBuffer bytes, int index) {
+    int value = bytes.getInt(index);
+    if (bytes.order() != ByteOrder.LITTLE_ENDIAN) {
+      value = Integer.reverseBytes(value);
+    }
+    return value & 0xffffffffL;
+  }
+
+  static void putU8(ByteBuffer bytes, int index, int value) {
+    bytes.put(index, (byte) value);
+  }
+
+  static void putU16(ByteBuffer bytes, int index, int value) {
+    short v = (short) value;
+    if (bytes.order() != ByteOrder.LITTLE_ENDIAN) {
+      v = Short.reverseBytes(v);
+    }
+    bytes.putShort(index, v);
+  }
+
+  static void putU32(ByteBuffer bytes, int index, long value) {
+    int v = (int) value;
+    if (bytes.order() != ByteOrder.LITTLE_ENDIAN) {
+      v = Integer.reverseBytes(v);
+    }
+    bytes.putInt(index, v);
+  }
+}
@@ -0,0 +1,233 @@
+package com.lonicera.fs;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * 目录项缓存：(父目录 inode, 文件名) -> 目录项，文件名不存在时缓存 inode 为 0 的负目录项。
+ * 目录第一次被查找时建立 文件名 -> 目录项 的 hash 索引，避免逐项比较。
+ * <p>
+ * 读取目录在锁外进行，同一目录的并发查找共用一次读取。读取期间有目录被修改时，读到的结果只返回给本次查找，不放入缓存。
+ * 新增和删除目录项时就地更新已建立的索引，不需要重新读取目录
+ */
+public class DentryCache {
+
+  private static class Key {
+
+    private final int parent;
+    private final String name;
+
+    private Key(int parent, String name) {
+      this.parent = parent;
+      this.name = name;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key key = (Key) o;
+      return parent == key.parent && name.equals(key.name);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(parent, name);
+    }
+  }
+
+  private final Function<Inode, List<DirEntry>> dirReader;
+  private final int entryCapacity;
+  private final int dirCapacity;
+  private final LinkedHashMap<Key, DirEntry> entries;
+  private final LinkedHashMap<Integer, Map<String, DirEntry>> dirIndexes;
+  private final ConcurrentHashMap<Integer, CompletableFuture<Map<String, DirEntry>>> loading =
+      new ConcurrentHashMap<>();
+  // 每次修改目录加一
+  private long generation;
+
+  private long hits;
+  private long negativeHits;
+  private long misses;
+
+  public DentryCache(Function<Inode, List<DirEntry>> dirReader, int entryCapacity,
+      int dirCapacity) {
+    if (entryCapacity < 1 || dirCapacity < 1) {
+      throw new IllegalArgumentException("capacity");
+    }
+    this.dirReader = dirReader;
+    this.entryCapacity = entryCapacity;
+    this.dirCapacity = dirCapacity;
+    this.entries = new LinkedHashMap<Key, DirEntry>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Key, DirEntry> eldest) {
+        return size() > DentryCache.this.entryCapacity;
+      }
+    };
+    this.dirIndexes = new LinkedHashMap<Integer, Map<String, DirEntry>>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Integer, Map<String, DirEntry>> eldest) {
+        return size() > DentryCache.this.dirCapacity;
+      }
+    };
+  }
+
+  /**
+   * @return 目录项，不存在时返回 null
+   */
+  public DirEntry lookup(Inode parent, String name) {
+    Key key = new Key(parent.getInum(), name);
+    long start;
+    synchronized (this) {
+      DirEntry entry = entries.get(key);
+      if (entry != null) {
+        if (entry.getInode() == 0) {
+          negativeHits++;
+          return null;
+        }
+        hits++;
+        return entry;
+      }
+      misses++;
+      Map<String, DirEntry> index = dirIndexes.get(parent.getInum());
+      if (index != null) {
+        return cache(key, index.get(name));
+      }
+      start = generation;
+    }
+    Map<String, DirEntry> index = loadDirIndex(parent, start);
+    // 放入缓存的索引会被就地修改，只在锁内读取
+    synchronized (this) {
+      DirEntry entry = index.get(name);
+      if (generation == start) {
+        cache(key, entry);
+      }
+      return entry;
+    }
+  }
+
+  private DirEntry cache(Key key, DirEntry entry) {
+    entries.put(key, entry == null ? DirEntry.of(0, key.name) : entry);
+    return entry;
+  }
+
+  private Map<String, DirEntry> loadDirIndex(Inode parent, long start) {
+    int inum = parent.getInum();
+    CompletableFuture<Map<String, DirEntry>> future = new CompletableFuture<>();
+    CompletableFuture<Map<String, DirEntry>> existing = loading.putIfAbsent(inum, future);
+    if (existing != null) {
+      return join(existing);
+    }
+    try {
+      List<DirEntry> entryList = dirReader.apply(parent);
+      Map<String, DirEntry> index = new HashMap<>(entryList.size() * 2);
+      for (DirEntry entry : entryList) {
+        index.put(entry.getName(), entry);
+      }
+      synchronized (this) {
+        if (generation == start) {
+          dirIndexes.put(inum, index);
+        }
+      }
+      future.complete(index);
+      return index;
+    } catch (RuntimeException e) {
+      future.completeExceptionally(e);
+      throw e;
+    } finally {
+      loading.remove(inum, future);
+    }
+  }
+
+  private static Map<String, DirEntry> join(CompletableFuture<Map<String, DirEntry>> future) {
+    try {
+      return future.join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * 目录中新增了目录项
+   */
+  public synchronized void added(int dirInum, DirEntry entry) {
+    Map<String, DirEntry> index = modified(dirInum);
+    if (index != null) {
+      index.put(entry.getName(), entry);
+    }
+    Key key = new Key(dirInum, entry.getName());
+    if (entries.containsKey(key)) {
+      entries.put(key, entry);
+    }
+  }
+
+  /**
+   * 目录中名为 name 的目录项被删除
+   */
+  public synchronized void removed(int dirInum, String name) {
+    Map<String, DirEntry> index = modified(dirInum);
+    if (index != null) {
+      index.remove(name);
+    }
+    Key key = new Key(dirInum, name);
+    if (entries.containsKey(key)) {
+      cache(key, null);
+    }
+  }
+
+  // 正在进行的读取可能没有看到这次修改，不再放入缓存
+  private Map<String, DirEntry> modified(int dirInum) {
+    generation++;
+    loading.remove(dirInum);
+    return dirIndexes.get(dirInum);
+  }
+
+  public synchronized void invalidate(int dirInum) {
+    modified(dirInum);
+    dirIndexes.remove(dirInum);
+    Iterator<Key> itr = entries.keySet().iterator();
+    while (itr.hasNext()) {
+      if (itr.next().parent == dirInum) {
+        itr.remove();
+      }
+    }
+  }
+
+  public synchronized long getHits() {
+    return hits;
+  }
+
+  public synchronized long getNegativeHits() {
+    return negativeHits;
+  }
+
+  public synchronized long getMisses() {
+    return misses;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "DentryCache{" +
+        "entries=" + entries.size() +
+        ", dirs=" + dirIndexes.size() +
+        ", hits=" + hits +
+        ", negativeHits=" + negativeHits +
+        ", misses=" + misses +
+        '}';
+  }
+}
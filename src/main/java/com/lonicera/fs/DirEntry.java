@@ -1,11 +1,16 @@
 package com.lonicera.fs;
 
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import lombok.Getter;
-import org.joou.UShort;
 
+/**
+ * 目录项：inode 号（v3 为 32 位，其它为 16 位）和以 0 填充的名字，名字长度由 Layout 决定，按 UTF-8 编码
+ */
 @Getter
 public class DirEntry {
+
   private int inode;
   private String name;
 
@@ -13,31 +18,48 @@ public class DirEntry {
 
   }
 
-  public static DirEntry map(byte[] bytes, int offset){
+  static DirEntry of(int inode, String name){
     DirEntry dirEntry = new DirEntry();
-    dirEntry.inode = concatShort(bytes, offset);
-    dirEntry.name = concatString(bytes, offset + 2, 14);
+    dirEntry.inode = inode;
+    dirEntry.name = name;
     return dirEntry;
   }
 
-  private static String concatString(byte[] bytes, int start, int count){
+  public static DirEntry map(Layout layout, ByteBuffer bytes, int offset){
+    DirEntry dirEntry = new DirEntry();
+    dirEntry.inode = layout.entryInode(bytes, offset);
+    int nameOffset = layout.getDirEntrySize() - layout.getNameLength();
+    dirEntry.name = concatString(bytes, offset + nameOffset, layout.getNameLength());
+    return dirEntry;
+  }
+
+  // 名字不足 nameLength 字节时以 0 填充
+  static void write(Layout layout, ByteBuffer bytes, int offset, int inode, String name){
+    byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+    int nameLength = layout.getNameLength();
+    if(nameBytes.length > nameLength){
+      throw new CommandExecuteException("file name too long");
+    }
+    layout.putEntryInode(bytes, offset, inode);
+    int nameOffset = offset + layout.getDirEntrySize() - nameLength;
+    for(int i = 0; i < nameLength; i++){
+      bytes.put(nameOffset + i, i < nameBytes.length ? nameBytes[i] : 0);
+    }
+  }
+
+  private static String concatString(ByteBuffer bytes, int start, int count){
+    byte[] name = new byte[count];
     int effectCount = 0;
     for(int i = start; i < start + count; i++){
-      if(bytes[i] != '\0'){
+      byte b = bytes.get(i);
+      if(b != '\0'){
+        name[effectCount] = b;
         effectCount ++;
       }else {
-        return new String(bytes, start, effectCount);
+        return new String(name, 0, effectCount, StandardCharsets.UTF_8);
       }
     }
-    return new String(bytes, start, effectCount);
-  }
-
-  private static int concatShort(byte[] bytes, int start){
-    return UShort.valueOf(unsignByte(bytes[start]) | (unsignByte(bytes[start + 1]) << 8)).intValue();
-  }
-
-  private static int unsignByte(byte b){
-    return (int) (b & 0xff);
+    return new String(name, 0, effectCount, StandardCharsets.UTF_8);
   }
 
   @Override
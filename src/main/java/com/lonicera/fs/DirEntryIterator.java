@@ -0,0 +1,71 @@
+package com.lonicera.fs;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * 逐块读取目录项，同一时间只持有一个块，内存占用与目录大小无关。inode 号为 0 的空槽被跳过
+ */
+public class DirEntryIterator implements Iterator<DirEntry> {
+
+  private final Layout layout;
+  private final int entrySize;
+  private final Iterator<ByteBuffer> blocks;
+  private ByteBuffer block;
+  private int offset;
+
+  DirEntryIterator(Layout layout, Iterator<ByteBuffer> blocks) {
+    this.layout = layout;
+    this.entrySize = layout.getDirEntrySize();
+    this.blocks = blocks;
+  }
+
+  // 定位到下一个有效的目录项，没有时返回 false
+  private boolean seek() {
+    while (true) {
+      if (block != null) {
+        for (; offset + entrySize <= block.limit(); offset += entrySize) {
+          if (layout.entryInode(block, offset) != 0) {
+            return true;
+          }
+        }
+      }
+      if (!blocks.hasNext()) {
+        block = null;
+        return false;
+      }
+      block = blocks.next();
+      offset = 0;
+    }
+  }
+
+  @Override
+  public boolean hasNext() {
+    return seek();
+  }
+
+  @Override
+  public DirEntry next() {
+    if (!seek()) {
+      throw new NoSuchElementException();
+    }
+    DirEntry entry = DirEntry.map(layout, block, offset);
+    offset += entrySize;
+    return entry;
+  }
+
+  /**
+   * 跳过 count 个目录项，只读 inode 号不解析名字
+   *
+   * @return 实际跳过的个数
+   */
+  public long skip(long count) {
+    long skipped = 0;
+    while (skipped < count && seek()) {
+      offset += entrySize;
+      skipped++;
+    }
+    return skipped;
+  }
+}
@@ -0,0 +1,33 @@
+package com.lonicera.fs;
+
+import lombok.Getter;
+
+/**
+ * 文件中物理上连续的一段逻辑块：从 zone 开始的 blocks 个块，其中有效内容 length 字节。zone 为 0 时是空洞，内容全是 0
+ */
+@Getter
+public class Extent {
+
+  private final int zone;
+  private final int blocks;
+  private final long length;
+
+  public Extent(int zone, int blocks, long length) {
+    this.zone = zone;
+    this.blocks = blocks;
+    this.length = length;
+  }
+
+  public boolean isHole() {
+    return zone == 0;
+  }
+
+  @Override
+  public String toString() {
+    return "Extent{" +
+        "zone=" + zone +
+        ", blocks=" + blocks +
+        ", length=" + length +
+        '}';
+  }
+}
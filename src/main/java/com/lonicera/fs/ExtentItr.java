@@ -0,0 +1,46 @@
+package com.lonicera.fs;
+
+import java.util.Iterator;
+
+/**
+ * 把 BlockIndexItr 给出的区号中相邻的合并为一个区段，连续的空洞合并为一个 zone 为 0 的区段，按文件大小截断
+ */
+class ExtentItr implements Iterator<Extent> {
+
+  private final BlockIndexItr itr;
+  private final int blockSize;
+  private long remaining;
+  private boolean hasPending;
+  private int pending;
+
+  public ExtentItr(BlockIndexItr itr, long size, int blockSize) {
+    this.itr = itr;
+    this.blockSize = blockSize;
+    this.remaining = size;
+  }
+
+  @Override
+  public boolean hasNext() {
+    return remaining > 0 && (hasPending || itr.hasNext());
+  }
+
+  @Override
+  public Extent next() {
+    int start = hasPending ? pending : itr.next();
+    hasPending = false;
+    int blocks = 1;
+    long length = Math.min(remaining, blockSize);
+    while (length < remaining && itr.hasNext()) {
+      int zone = itr.next();
+      if (zone != (start == 0 ? 0 : start + blocks)) {
+        pending = zone;
+        hasPending = true;
+        break;
+      }
+      blocks++;
+      length = Math.min(remaining, (long) blocks * blockSize);
+    }
+    remaining -= length;
+    return new Extent(start, blocks, length);
+  }
+}
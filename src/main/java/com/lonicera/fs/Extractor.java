@@ -0,0 +1,244 @@
+package com.lonicera.fs;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import lombok.Getter;
+
+/**
+ * 把映像中的一棵子树复制到宿主文件系统，相当于 cp -r。
+ * <p>
+ * 先遍历目录树建立宿主目录，并取出每个文件的区段列表；再按第一个区段的位置排序，由线程池并发写出，
+ * 读取大致沿映像从前往后进行。正在复制的文件总大小不超过 maxInFlightBytes。文件大小和修改时间与映像中一致
+ */
+public class Extractor {
+
+  private static final int THREADS = Integer.getInteger("fs.extract.threads",
+      Math.max(2, Runtime.getRuntime().availableProcessors()));
+  // 同时在复制的字节数上限
+  private static final long IN_FLIGHT_BYTES = Long.getLong("fs.extract.inflight", 64L << 20);
+
+  @Getter
+  public static class Summary {
+
+    private int files;
+    private int dirs;
+    private int skipped;
+    private long bytes;
+    private long elapsedNanos;
+    private List<String> errors;
+
+    public double getBytesPerSecond() {
+      return elapsedNanos == 0 ? 0 : bytes * 1e9 / elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder sb = new StringBuilder();
+      for (String error : errors) {
+        sb.append(error).append("\r\n");
+      }
+      sb.append(String.format("%d files, %d dirs, %d bytes extracted in %d ms (%.1f MiB/s)",
+          files, dirs, bytes, elapsedNanos / 1_000_000, getBytesPerSecond() / (1 << 20)));
+      if (skipped > 0) {
+        sb.append(", ").append(skipped).append(" special files skipped");
+      }
+      return sb.toString();
+    }
+  }
+
+  // 一个待复制的文件，区段在遍历时取出
+  private static class Job {
+
+    private final Path target;
+    private final long size;
+    private final long mtime;
+    private final List<Extent> extents;
+
+    private Job(Path target, long size, long mtime, List<Extent> extents) {
+      this.target = target;
+      this.size = size;
+      this.mtime = mtime;
+      this.extents = extents;
+    }
+
+    private int firstZone() {
+      return extents.isEmpty() ? 0 : extents.get(0).getZone();
+    }
+  }
+
+  private final MinixFileSystem fs;
+  private int threads = THREADS;
+  private long maxInFlightBytes = IN_FLIGHT_BYTES;
+
+  public Extractor(MinixFileSystem fs) {
+    this.fs = fs;
+  }
+
+  public Extractor threads(int threads) {
+    if (threads < 1) {
+      throw new IllegalArgumentException("threads");
+    }
+    this.threads = threads;
+    return this;
+  }
+
+  public Extractor maxInFlightBytes(long maxInFlightBytes) {
+    if (maxInFlightBytes < Block.BLOCK_SIZE) {
+      throw new IllegalArgumentException("maxInFlightBytes");
+    }
+    this.maxInFlightBytes = maxInFlightBytes;
+    return this;
+  }
+
+  /**
+   * 把 start 复制为 hostDir 下的同名文件或目录。start 是根目录，或者 name 是 . 或 .. 时把目录的内容复制到 hostDir
+   *
+   * @param name start 在映像中的名字
+   */
+  public Summary extract(Inode start, String name, File hostDir) {
+    long begin = System.nanoTime();
+    Summary summary = new Summary();
+    ConcurrentLinkedQueue<String> errors = new ConcurrentLinkedQueue<>();
+    List<Job> jobs = new ArrayList<>();
+    // 目录的修改时间在其中的文件写完之后设置
+    List<Job> dirs = new ArrayList<>();
+    Path root = hostDir.toPath();
+    LongBitMap visited = new LongBitMap(fs.getSuperBlock().getNinodes() + 1);
+    try {
+      Files.createDirectories(root);
+      if (start.getInum() == MinixFileSystem.ROOT_INODE || name.isEmpty() || name.equals(".")
+          || name.equals("..")) {
+        walk(start, root, jobs, dirs, summary, visited);
+      } else {
+        plan(start, root.resolve(name), jobs, dirs, summary, visited);
+      }
+    } catch (IOException e) {
+      throw new CommandExecuteException("cannot create " + e.getMessage());
+    }
+    jobs.sort(Comparator.comparingInt(Job::firstZone));
+    AtomicLong bytes = new AtomicLong();
+    AtomicInteger files = new AtomicInteger();
+    copy(jobs, bytes, files, errors);
+    for (int i = dirs.size() - 1; i >= 0; i--) {
+      Job dir = dirs.get(i);
+      try {
+        Files.setLastModifiedTime(dir.target, FileTime.from(dir.mtime, TimeUnit.SECONDS));
+      } catch (IOException e) {
+        errors.add(dir.target + " : " + e.getMessage());
+      }
+    }
+    summary.files = files.get();
+    summary.bytes = bytes.get();
+    summary.errors = Collections.unmodifiableList(new ArrayList<>(errors));
+    summary.elapsedNanos = System.nanoTime() - begin;
+    return summary;
+  }
+
+  private void plan(Inode inode, Path target, List<Job> jobs, List<Job> dirs, Summary summary,
+      LongBitMap visited) throws IOException {
+    char type = inode.getType();
+    if (type == 'd') {
+      Files.createDirectories(target);
+      walk(inode, target, jobs, dirs, summary, visited);
+    } else if (type == '-') {
+      List<Extent> extents = new ArrayList<>();
+      fs.extentItr(inode).forEachRemaining(extents::add);
+      jobs.add(new Job(target, inode.getIsize(), inode.getImtime(), extents));
+    } else {
+      summary.skipped++;
+    }
+  }
+
+  // 已经进入过的目录不再进入，避免目录成环
+  private void walk(Inode dir, Path target, List<Job> jobs, List<Job> dirs, Summary summary,
+      LongBitMap visited) throws IOException {
+    if (visited.get(dir.getInum())) {
+      return;
+    }
+    visited.set(dir.getInum(), dir.getInum() + 1);
+    summary.dirs++;
+    dirs.add(new Job(target, 0, dir.getImtime(), Collections.emptyList()));
+    DirEntryIterator itr = fs.iterate(dir);
+    while (itr.hasNext()) {
+      DirEntry entry = itr.next();
+      String name = entry.getName();
+      if (name.equals(".") || name.equals("..")) {
+        continue;
+      }
+      plan(fs.readInode(entry.getInode()), target.resolve(name), jobs, dirs, summary, visited);
+    }
+  }
+
+  private void copy(List<Job> jobs, AtomicLong bytes, AtomicInteger files,
+      ConcurrentLinkedQueue<String> errors) {
+    // 额度以 KiB 计数
+    int budget = (int) Math.min(Integer.MAX_VALUE, maxInFlightBytes / 1024);
+    Semaphore inFlight = new Semaphore(budget);
+    AtomicInteger counter = new AtomicInteger();
+    ExecutorService executor = Executors.newFixedThreadPool(threads, r -> {
+      Thread thread = new Thread(r, "fs-extract-" + counter.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+    try {
+      List<Future<?>> futures = new ArrayList<>(jobs.size());
+      for (Job job : jobs) {
+        // 超过上限的大文件独占全部额度
+        int permits = (int) Math.min(budget, job.size / 1024 + 1);
+        inFlight.acquireUninterruptibly(permits);
+        futures.add(executor.submit(() -> {
+          try {
+            write(job);
+            bytes.addAndGet(job.size);
+            files.incrementAndGet();
+          } catch (IOException | RuntimeException e) {
+            errors.add(job.target + " : " + e.getMessage());
+          } finally {
+            inFlight.release(permits);
+          }
+        }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new CommandExecuteException("extract interrupted");
+    } catch (ExecutionException e) {
+      throw new IllegalStateException(e.getCause());
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  private void write(Job job) throws IOException {
+    try (FileChannel channel = FileChannel.open(job.target, StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      fs.writeTo(job.extents.iterator(), channel);
+      // 末尾没有分配块的部分补成空洞
+      if (channel.size() < job.size) {
+        channel.write(ByteBuffer.wrap(new byte[1]), job.size - 1);
+      }
+    }
+    Files.setLastModifiedTime(job.target, FileTime.from(job.mtime, TimeUnit.SECONDS));
+  }
+}
@@ -0,0 +1,121 @@
+package com.lonicera.fs;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 使用 FileChannel 的定位读取，不共享文件指针，多个线程可以同时读取
+ */
+public class FileChannelBlockDevice implements BlockDevice {
+
+  private final FileChannel channel;
+  private final long size;
+  private final boolean writable;
+
+  public FileChannelBlockDevice(FileChannel channel) throws IOException {
+    this(channel, false);
+  }
+
+  public FileChannelBlockDevice(FileChannel channel, boolean writable) throws IOException {
+    this.channel = channel;
+    this.size = channel.size();
+    this.writable = writable;
+  }
+
+  public static FileChannelBlockDevice open(File file) {
+    return open(file, false);
+  }
+
+  public static FileChannelBlockDevice open(File file, boolean writable) {
+    try {
+      FileChannel channel = writable
+          ? FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)
+          : FileChannel.open(file.toPath(), StandardOpenOption.READ);
+      return new FileChannelBlockDevice(channel, writable);
+    } catch (IOException e) {
+      throw new FileSystemParseException(e);
+    }
+  }
+
+  @Override
+  public long size() {
+    return size;
+  }
+
+  @Override
+  public ByteBuffer read(long offset, int length) {
+    if (offset < 0 || length < 0 || offset + length > size) {
+      throw new IllegalStateException("unexpect end");
+    }
+    ByteBuffer bytes = ByteBuffer.allocate(length);
+    try {
+      while (bytes.hasRemaining()) {
+        if (channel.read(bytes, offset + bytes.position()) < 0) {
+          throw new IllegalStateException("unexpect end");
+        }
+      }
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+    bytes.flip();
+    return bytes.asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  @Override
+  public long transferTo(long offset, long count, WritableByteChannel target) throws IOException {
+    if (offset < 0 || count < 0 || offset + count > size) {
+      throw new IllegalStateException("unexpect end");
+    }
+    long transferred = 0;
+    while (transferred < count) {
+      long length = channel.transferTo(offset + transferred, count - transferred, target);
+      if (length <= 0) {
+        throw new IllegalStateException("unexpect end");
+      }
+      transferred += length;
+    }
+    return transferred;
+  }
+
+  @Override
+  public boolean isWritable() {
+    return writable;
+  }
+
+  @Override
+  public void write(long offset, ByteBuffer src) {
+    if (!writable) {
+      throw new IllegalStateException("read-only device");
+    }
+    if (offset < 0 || offset + src.remaining() > size) {
+      throw new IllegalStateException("unexpect end");
+    }
+    try {
+      long position = offset;
+      while (src.hasRemaining()) {
+        position += channel.write(src, position);
+      }
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  @Override
+  public void force() {
+    try {
+      channel.force(false);
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+}
@@ -0,0 +1,329 @@
+package com.lonicera.fs;
+
+import com.lonicera.fs.SuperBlock.BitMap;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import lombok.Getter;
+
+/**
+ * 只读的一致性检查：超级块的几何参数，inode 表，每个文件的直接、一次间接、二次间接 zone，目录项引用的 inode，
+ * 以及 inode 位图和 zone 位图。inode 表按块分段在 fork/join 线程池中并行扫描。
+ */
+public class Fsck {
+
+  // 每个任务至少处理的 inode 表块数
+  private static final int SPLIT_BLOCKS = 8;
+  // 报告中保留的错误信息条数
+  private static final int MAX_MESSAGES = 100;
+
+  @Getter
+  public static class Report {
+
+    private int inodes;
+    private int files;
+    private int dirs;
+    private long zones;
+    private long errors;
+    private List<String> messages;
+    private long elapsedNanos;
+
+    public boolean isClean() {
+      return errors == 0;
+    }
+
+    public double getInodesPerSecond() {
+      return elapsedNanos == 0 ? 0 : inodes * 1e9 / elapsedNanos;
+    }
+
+    public double getZonesPerSecond() {
+      return elapsedNanos == 0 ? 0 : zones * 1e9 / elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder sb = new StringBuilder();
+      for (String message : messages) {
+        sb.append(message).append("\r\n");
+      }
+      if (errors > messages.size()) {
+        sb.append("... ").append(errors - messages.size()).append(" more\r\n");
+      }
+      sb.append(String.format("%d inodes used (%d files, %d dirs), %d zones used, %d errors\r\n",
+          inodes, files, dirs, zones, errors));
+      sb.append(String.format("checked in %d ms, %.0f inodes/s, %.0f zones/s",
+          elapsedNanos / 1_000_000, getInodesPerSecond(), getZonesPerSecond()));
+      return sb.toString();
+    }
+  }
+
+  private final MinixFileSystem fs;
+  private final SuperBlock superBlock;
+  private final Layout layout;
+  private final int ninodes;
+  private final int firstDatazone;
+  private final int nzones;
+  private final int inodeStartBlock;
+  // 每个 zone 的所有者 inode 号，0 表示没有被引用
+  private final AtomicIntegerArray zoneOwners;
+  // 每个 inode 被目录项引用的次数
+  private final AtomicIntegerArray references;
+  private final boolean[] used;
+  private final boolean[] dirs;
+  private final int[] nlinks;
+  private final ConcurrentLinkedQueue<String> messages = new ConcurrentLinkedQueue<>();
+  private final AtomicLong errors = new AtomicLong();
+  private final LongAdder zones = new LongAdder();
+
+  public Fsck(MinixFileSystem fs) {
+    this.fs = fs;
+    this.superBlock = fs.getSuperBlock();
+    this.ninodes = superBlock.getNinodes();
+    this.firstDatazone = superBlock.getFirstDatazone();
+    this.nzones = superBlock.getNzones();
+    this.layout = fs.getLayout();
+    this.inodeStartBlock = 2 + superBlock.getImapBlocks() + superBlock.getZmapBlocks();
+    this.zoneOwners = new AtomicIntegerArray(Math.max(0, nzones - firstDatazone));
+    this.references = new AtomicIntegerArray(ninodes + 1);
+    this.used = new boolean[ninodes + 1];
+    this.dirs = new boolean[ninodes + 1];
+    this.nlinks = new int[ninodes + 1];
+  }
+
+  public Report check() {
+    return check(ForkJoinPool.commonPool());
+  }
+
+  public Report check(ForkJoinPool pool) {
+    long start = System.nanoTime();
+    if (checkSuperBlock()) {
+      int perBlock = layout.getInodesPerBlock();
+      int tableBlocks = (ninodes + perBlock - 1) / perBlock;
+      pool.invoke(new ScanTask(0, tableBlocks));
+      checkLinks();
+      checkInodeMap();
+      checkZoneMap();
+    }
+    Report report = new Report();
+    for (int inum = 1; inum <= ninodes; inum++) {
+      if (used[inum]) {
+        report.inodes++;
+        if (dirs[inum]) {
+          report.dirs++;
+        } else {
+          report.files++;
+        }
+      }
+    }
+    report.zones = zones.sum();
+    report.errors = errors.get();
+    report.messages = Collections.unmodifiableList(new ArrayList<>(messages));
+    report.elapsedNanos = System.nanoTime() - start;
+    return report;
+  }
+
+  private void error(String message) {
+    if (errors.incrementAndGet() <= MAX_MESSAGES) {
+      messages.add(message);
+    }
+  }
+
+  // 几何参数不合理时不再继续检查，magic 在挂载时已经检查过
+  private boolean checkSuperBlock() {
+    boolean ok = true;
+    int blockSize = layout.getBlockSize();
+    int inodeBlocks = (int) (((long) ninodes * layout.getInodeSize() + blockSize - 1) / blockSize);
+    if (firstDatazone < inodeStartBlock + inodeBlocks) {
+      error("firstDatazone " + firstDatazone + " overlaps inode table ending at block "
+          + (inodeStartBlock + inodeBlocks));
+      ok = false;
+    }
+    if (nzones <= firstDatazone) {
+      error("nzones " + nzones + " is not larger than firstDatazone " + firstDatazone);
+      ok = false;
+    }
+    long imapBits = (long) superBlock.getImapBlocks() * layout.getBitsPerBlock();
+    if (imapBits < ninodes + 1) {
+      error("inode map too small for " + ninodes + " inodes");
+      ok = false;
+    }
+    long zmapBits = (long) superBlock.getZmapBlocks() * layout.getBitsPerBlock();
+    if (zmapBits < nzones - firstDatazone + 1) {
+      error("zone map too small for " + nzones + " zones");
+      ok = false;
+    }
+    return ok;
+  }
+
+  private class ScanTask extends RecursiveAction {
+
+    private final int fromBlock;
+    private final int toBlock;
+
+    private ScanTask(int fromBlock, int toBlock) {
+      this.fromBlock = fromBlock;
+      this.toBlock = toBlock;
+    }
+
+    @Override
+    protected void compute() {
+      if (toBlock - fromBlock > SPLIT_BLOCKS) {
+        int middle = (fromBlock + toBlock) >>> 1;
+        invokeAll(new ScanTask(fromBlock, middle), new ScanTask(middle, toBlock));
+        return;
+      }
+      for (int block = fromBlock; block < toBlock; block++) {
+        ByteBuffer bytes = fs.readBlock(inodeStartBlock + block);
+        for (int slot = 0; slot < layout.getInodesPerBlock(); slot++) {
+          int inum = block * layout.getInodesPerBlock() + slot + 1;
+          if (inum > ninodes) {
+            return;
+          }
+          Inode inode = new Inode(layout, inum, bytes, slot * layout.getInodeSize());
+          if (inode.getImode() != 0 && inode.getInlinks() != 0) {
+            checkInode(inode);
+          }
+        }
+      }
+    }
+  }
+
+  private void checkInode(Inode inode) {
+    int inum = inode.getInum();
+    if (!Inode.isValidMode(inode.getImode())) {
+      error("inode " + inum + " has bad mode " + Integer.toOctalString(inode.getImode()));
+      return;
+    }
+    used[inum] = true;
+    nlinks[inum] = inode.getInlinks();
+    if (!inode.hasZones()) {
+      return;
+    }
+    for (int i = 0; i < Layout.DIRECT_ZONES; i++) {
+      claim(inum, inode.getZone(i));
+    }
+    for (int level = 1; level <= layout.getIndexLevels(); level++) {
+      int indexZone = inode.getZone(Layout.DIRECT_ZONES + level - 1);
+      if (claim(inum, indexZone)) {
+        claimIndex(inum, indexZone, level);
+      }
+    }
+    if (inode.isDir()) {
+      dirs[inum] = true;
+      try {
+        checkDir(inode);
+      } catch (RuntimeException e) {
+        error("dir " + inum + " is unreadable : " + e.getMessage());
+      }
+    }
+  }
+
+  // level 级索引块引用的 zone，下一级的索引块递归登记
+  private void claimIndex(int inum, int indexZone, int level) {
+    for (int zone : IndexBlock.map(layout, fs.readBlock(indexZone)).indexes()) {
+      if (claim(inum, zone) && level > 1) {
+        claimIndex(inum, zone, level - 1);
+      }
+    }
+  }
+
+  /**
+   * 登记 inum 引用了 zone
+   *
+   * @return zone 有效且第一次被引用时返回 true，此时可以继续读取它的内容
+   */
+  private boolean claim(int inum, int zone) {
+    if (zone == 0) {
+      return false;
+    }
+    if (zone < firstDatazone || zone >= nzones) {
+      error("inode " + inum + " references zone " + zone + " outside data area");
+      return false;
+    }
+    if (zoneOwners.compareAndSet(zone - firstDatazone, 0, inum)) {
+      zones.increment();
+      return true;
+    }
+    error("zone " + zone + " is used by inode " + zoneOwners.get(zone - firstDatazone)
+        + " and inode " + inum);
+    return false;
+  }
+
+  private void checkDir(Inode dir) {
+    int inum = dir.getInum();
+    boolean dot = false;
+    boolean dotDot = false;
+    for (DirEntry entry : fs.list(dir)) {
+      int child = entry.getInode();
+      if (child > ninodes) {
+        error("dir " + inum + " entry " + entry.getName() + " references bad inode " + child);
+        continue;
+      }
+      references.incrementAndGet(child);
+      if (entry.getName().equals(".")) {
+        dot = true;
+        if (child != inum) {
+          error("dir " + inum + " has . pointing to inode " + child);
+        }
+      } else if (entry.getName().equals("..")) {
+        dotDot = true;
+      }
+    }
+    if (!dot || !dotDot) {
+      error("dir " + inum + " is missing . or ..");
+    }
+  }
+
+  // 目录项的引用数应等于 inode 中记录的链接数
+  private void checkLinks() {
+    if (!used[MinixFileSystem.ROOT_INODE] || !dirs[MinixFileSystem.ROOT_INODE]) {
+      error("root inode is not a directory");
+    }
+    for (int inum = 1; inum <= ninodes; inum++) {
+      int refs = references.get(inum);
+      if (used[inum]) {
+        if (refs == 0) {
+          error("inode " + inum + " is not referenced by any directory");
+        } else if (refs != nlinks[inum]) {
+          error("inode " + inum + " has " + nlinks[inum] + " links but " + refs + " references");
+        }
+      } else if (refs > 0) {
+        error("free inode " + inum + " is referenced " + refs + " times");
+      }
+    }
+  }
+
+  private void checkInodeMap() {
+    BitMap inodeMap = fs.getInodeMap();
+    for (int inum = 1; inum <= ninodes; inum++) {
+      boolean marked = inodeMap.get(inum);
+      if (used[inum] && !marked) {
+        error("inode " + inum + " is used but not marked in inode map");
+      } else if (!used[inum] && marked) {
+        error("inode " + inum + " is marked in inode map but not used");
+      }
+    }
+  }
+
+  // 位图第 i 位对应 firstDatazone + i - 1 号 zone
+  private void checkZoneMap() {
+    BitMap zoneMap = fs.getZoneMap();
+    for (int bit = 1; bit < zoneMap.size(); bit++) {
+      int zone = firstDatazone + bit - 1;
+      boolean referenced = zoneOwners.get(zone - firstDatazone) != 0;
+      boolean marked = zoneMap.get(bit);
+      if (referenced && !marked) {
+        error("zone " + zone + " is used but not marked in zone map");
+      } else if (!referenced && marked) {
+        error("zone " + zone + " is marked in zone map but not used");
+      }
+    }
+  }
+}
@@ -0,0 +1,457 @@
+package com.lonicera.fs;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import lombok.Getter;
+
+/**
+ * 在子树的普通文件中查找内容，相当于 grep -r。
+ * <p>
+ * 先用 TreeWalker 列出文件，再按文件拆分成 fork/join 任务并发查找。字面量直接在读出的块上用 Boyer-Moore-Horspool 查找，
+ * 保留上一块末尾 m - 1 个字节处理跨块的匹配，只为匹配的行另外读取行内容。正则表达式逐行匹配，
+ * 行的字节直接作为 CharSequence 交给 Matcher，不为每块建立 String。模式按 UTF-8 编码后逐字节匹配
+ */
+public class Grep {
+
+  // 输出的一行至多包含的字节数，正则表达式按行匹配时也是行长的上限
+  private static final int MAX_LINE = Integer.getInteger("fs.grep.line", 64 * 1024);
+  // 每个任务至多查找的文件数
+  private static final int SPLIT_FILES = 4;
+  // 按字节的大小写折叠表
+  private static final byte[] IDENTITY = new byte[256];
+  private static final byte[] LOWER = new byte[256];
+
+  static {
+    for (int i = 0; i < 256; i++) {
+      IDENTITY[i] = (byte) i;
+      LOWER[i] = (byte) (i >= 'A' && i <= 'Z' ? i + 32 : i);
+    }
+  }
+
+  /**
+   * 一个匹配的行，lineNumber 从 1 开始，没有要求行号时为 0
+   */
+  @Getter
+  public static class Match {
+
+    private final String path;
+    private final long lineNumber;
+    private final long offset;
+    private final byte[] line;
+
+    private Match(String path, long lineNumber, long offset, byte[] line) {
+      this.path = path;
+      this.lineNumber = lineNumber;
+      this.offset = offset;
+      this.line = line;
+    }
+
+    public String getText() {
+      return new String(line, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public String toString() {
+      return path + ":" + (lineNumber > 0 ? lineNumber + ":" : "") + getText();
+    }
+  }
+
+  /**
+   * files 是有匹配的文件，filesOnly 时不收集 matches
+   */
+  @Getter
+  public static class Result {
+
+    private List<Match> matches;
+    private List<String> files;
+    private int searched;
+    private long bytes;
+    private long elapsedNanos;
+    private List<String> warnings;
+
+    public double getBytesPerSecond() {
+      return elapsedNanos == 0 ? 0 : bytes * 1e9 / elapsedNanos;
+    }
+  }
+
+  private static final class FileHits {
+
+    private final List<Match> matches = new ArrayList<>();
+    private boolean matched;
+  }
+
+  private final MinixFileSystem fs;
+  private final ForkJoinPool pool;
+  private boolean regex;
+  private boolean ignoreCase;
+  private boolean lineNumbers;
+  private boolean filesOnly;
+
+  public Grep(MinixFileSystem fs) {
+    this(fs, ForkJoinPool.commonPool());
+  }
+
+  public Grep(MinixFileSystem fs, ForkJoinPool pool) {
+    this.fs = fs;
+    this.pool = pool;
+  }
+
+  public Grep regex(boolean regex) {
+    this.regex = regex;
+    return this;
+  }
+
+  // 只忽略 ASCII 字母的大小写
+  public Grep ignoreCase(boolean ignoreCase) {
+    this.ignoreCase = ignoreCase;
+    return this;
+  }
+
+  public Grep lineNumbers(boolean lineNumbers) {
+    this.lineNumbers = lineNumbers;
+    return this;
+  }
+
+  // 只找出有匹配的文件，每个文件找到第一个匹配就停止
+  public Grep filesOnly(boolean filesOnly) {
+    this.filesOnly = filesOnly;
+    return this;
+  }
+
+  public Result search(String pattern, Inode start, String path) {
+    long begin = System.nanoTime();
+    Searcher searcher = newSearcher(pattern);
+    TreeWalker walker = new TreeWalker(fs, pool);
+    List<String> paths = walker.find(start, path, new TreeWalker.Query().type('f'));
+    FileHits[] hits = new FileHits[paths.size()];
+    AtomicLong bytes = new AtomicLong();
+    ConcurrentLinkedQueue<String> warnings = new ConcurrentLinkedQueue<>(walker.getWarnings());
+    pool.invoke(new SearchTask(searcher, start, path, paths, hits, 0, hits.length, bytes,
+        warnings));
+    Result result = new Result();
+    List<Match> matches = new ArrayList<>();
+    List<String> files = new ArrayList<>();
+    for (int i = 0; i < hits.length; i++) {
+      if (hits[i] == null) {
+        continue;
+      }
+      result.searched++;
+      if (hits[i].matched) {
+        files.add(paths.get(i));
+        matches.addAll(hits[i].matches);
+      }
+    }
+    result.matches = matches;
+    result.files = files;
+    result.bytes = bytes.get();
+    result.warnings = Collections.unmodifiableList(new ArrayList<>(warnings));
+    result.elapsedNanos = System.nanoTime() - begin;
+    return result;
+  }
+
+  private Searcher newSearcher(String pattern) {
+    byte[] needle = pattern.getBytes(StandardCharsets.UTF_8);
+    if (!regex && needle.length > 0) {
+      return new LiteralSearcher(needle);
+    }
+    // 模式的 UTF-8 字节按 ISO-8859-1 解释为字符，与按字节解释的内容对应
+    String latin1 = new String(needle, StandardCharsets.ISO_8859_1);
+    try {
+      return new LineSearcher(Pattern.compile(regex ? latin1 : Pattern.quote(latin1),
+          ignoreCase ? Pattern.CASE_INSENSITIVE : 0));
+    } catch (PatternSyntaxException e) {
+      throw new CommandExecuteException("bad pattern : " + e.getDescription());
+    }
+  }
+
+  private class SearchTask extends RecursiveAction {
+
+    private final Searcher searcher;
+    private final Inode start;
+    private final String base;
+    private final List<String> paths;
+    private final FileHits[] hits;
+    private final int from;
+    private final int to;
+    private final AtomicLong bytes;
+    private final ConcurrentLinkedQueue<String> warnings;
+
+    private SearchTask(Searcher searcher, Inode start, String base, List<String> paths,
+        FileHits[] hits, int from, int to, AtomicLong bytes,
+        ConcurrentLinkedQueue<String> warnings) {
+      this.searcher = searcher;
+      this.start = start;
+      this.base = base;
+      this.paths = paths;
+      this.hits = hits;
+      this.from = from;
+      this.to = to;
+      this.bytes = bytes;
+      this.warnings = warnings;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from > SPLIT_FILES) {
+        int middle = (from + to) >>> 1;
+        invokeAll(
+            new SearchTask(searcher, start, base, paths, hits, from, middle, bytes, warnings),
+            new SearchTask(searcher, start, base, paths, hits, middle, to, bytes, warnings));
+        return;
+      }
+      for (int i = from; i < to; i++) {
+        String path = paths.get(i);
+        try {
+          Inode inode = resolve(path);
+          if (inode.getType() != '-') {
+            continue;
+          }
+          FileHits fileHits = new FileHits();
+          searcher.search(path, inode, fileHits);
+          bytes.addAndGet(inode.getIsize());
+          hits[i] = fileHits;
+        } catch (RuntimeException e) {
+          warnings.add(path + " : " + e.getMessage());
+        }
+      }
+    }
+
+    // 找到的路径以 base 开头，其余部分相对 start 解析，base 可以是相对路径
+    private Inode resolve(String path) {
+      String rest = path.substring(base.length());
+      while (rest.startsWith("/")) {
+        rest = rest.substring(1);
+      }
+      return rest.isEmpty() ? start : fs.lookup(start, rest);
+    }
+  }
+
+  private interface Searcher {
+
+    void search(String path, Inode inode, FileHits hits);
+  }
+
+  private class LiteralSearcher implements Searcher {
+
+    private final byte[] fold;
+    private final byte[] needle;
+    private final int[] shift = new int[256];
+
+    private LiteralSearcher(byte[] pattern) {
+      this.fold = ignoreCase ? LOWER : IDENTITY;
+      this.needle = new byte[pattern.length];
+      for (int i = 0; i < pattern.length; i++) {
+        needle[i] = fold[pattern[i] & 0xff];
+      }
+      int m = needle.length;
+      Arrays.fill(shift, m);
+      for (int j = 0; j < m - 1; j++) {
+        shift[needle[j] & 0xff] = m - 1 - j;
+      }
+    }
+
+    /**
+     * 在窗口上查找，窗口开头是之前内容的最后 m - 1 个字节，后面是当前块。只记录行首和行号，
+     * 查找结束后再读取匹配的行
+     */
+    @Override
+    public void search(String path, Inode inode, FileHits hits) {
+      int m = needle.length;
+      byte[] window = new byte[m - 1 + fs.getLayout().getBlockSize()];
+      int carryLength = 0;
+      // 当前块在文件中的位置，当前块之前最后一个换行之后的位置和换行数
+      long offset = 0;
+      long lineStart = 0;
+      long newlines = 0;
+      long lastStart = -1;
+      List<long[]> lines = new ArrayList<>();
+      Iterator<ByteBuffer> itr = fs.readZoneBlockIterator(inode);
+      while (itr.hasNext()) {
+        ByteBuffer block = itr.next();
+        int length = block.remaining();
+        int n = carryLength + length;
+        if (n > window.length) {
+          window = Arrays.copyOf(window, n);
+        }
+        block.duplicate().get(window, carryLength, length);
+        int i = 0;
+        while (i <= n - m) {
+          int j = m - 1;
+          while (j >= 0 && fold[window[i + j] & 0xff] == needle[j]) {
+            j--;
+          }
+          if (j >= 0) {
+            i += shift[fold[window[i + m - 1] & 0xff] & 0xff];
+            continue;
+          }
+          hits.matched = true;
+          if (filesOnly) {
+            return;
+          }
+          // 匹配之前的最后一个换行，不在当前块中时是之前的块中的
+          int k = i - 1;
+          while (k >= carryLength && window[k] != '\n') {
+            k--;
+          }
+          long start = k >= carryLength ? offset + k - carryLength + 1 : lineStart;
+          if (start != lastStart) {
+            long number = lineNumbers
+                ? newlines + count(window, carryLength, Math.max(carryLength, k + 1)) + 1 : 0;
+            lines.add(new long[]{start, number});
+            lastStart = start;
+          }
+          i += m;
+        }
+        if (!filesOnly) {
+          for (int k = n - 1; k >= carryLength; k--) {
+            if (window[k] == '\n') {
+              lineStart = offset + k - carryLength + 1;
+              break;
+            }
+          }
+          if (lineNumbers) {
+            newlines += count(window, carryLength, n);
+          }
+        }
+        offset += length;
+        carryLength = Math.min(m - 1, n);
+        System.arraycopy(window, n - carryLength, window, 0, carryLength);
+      }
+      for (long[] line : lines) {
+        hits.matches.add(new Match(path, line[1], line[0], readLine(inode, line[0])));
+      }
+    }
+
+    private long count(byte[] bytes, int from, int to) {
+      long count = 0;
+      for (int i = from; i < to; i++) {
+        if (bytes[i] == '\n') {
+          count++;
+        }
+      }
+      return count;
+    }
+
+    private byte[] readLine(Inode inode, long start) {
+      ByteBuffer bytes = fs.read(inode, start, MAX_LINE);
+      int end = bytes.position();
+      while (end < bytes.limit() && bytes.get(end) != '\n') {
+        end++;
+      }
+      return Arrays.copyOfRange(bytes.array(), bytes.position(), end);
+    }
+  }
+
+  private class LineSearcher implements Searcher {
+
+    private final Pattern pattern;
+
+    private LineSearcher(Pattern pattern) {
+      this.pattern = pattern;
+    }
+
+    // 把块中的字节拼成行，每行交给同一个 Matcher。超过 MAX_LINE 的行被截成多行
+    @Override
+    public void search(String path, Inode inode, FileHits hits) {
+      ByteChars line = new ByteChars();
+      Matcher matcher = pattern.matcher(line);
+      long offset = 0;
+      long lineStart = 0;
+      long lineNumber = 1;
+      Iterator<ByteBuffer> itr = fs.readZoneBlockIterator(inode);
+      while (itr.hasNext()) {
+        ByteBuffer block = itr.next();
+        int base = block.position();
+        int length = block.remaining();
+        int segment = 0;
+        for (int i = 0; i <= length; i++) {
+          boolean newline = i < length && block.get(base + i) == '\n';
+          boolean full = line.length + i - segment >= MAX_LINE;
+          if (i < length && !newline && !full) {
+            continue;
+          }
+          line.append(block, base + segment, i - segment);
+          if (i == length) {
+            break;
+          }
+          if (match(matcher, line, path, lineNumber, lineStart, hits) && filesOnly) {
+            return;
+          }
+          segment = newline ? i + 1 : i;
+          lineStart = offset + segment;
+          if (newline) {
+            lineNumber++;
+          }
+          line.length = 0;
+        }
+        offset += length;
+      }
+      if (line.length > 0) {
+        match(matcher, line, path, lineNumber, lineStart, hits);
+      }
+    }
+
+    private boolean match(Matcher matcher, ByteChars line, String path, long lineNumber,
+        long lineStart, FileHits hits) {
+      matcher.reset(line);
+      if (!matcher.find()) {
+        return false;
+      }
+      hits.matched = true;
+      if (!filesOnly) {
+        hits.matches.add(new Match(path, lineNumbers ? lineNumber : 0, lineStart,
+            Arrays.copyOf(line.bytes, line.length)));
+      }
+      return true;
+    }
+  }
+
+  // 字节按 ISO-8859-1 解释为字符的 CharSequence，可以重复使用
+  private static final class ByteChars implements CharSequence {
+
+    private byte[] bytes = new byte[256];
+    private int length;
+
+    private void append(ByteBuffer block, int from, int count) {
+      if (length + count > bytes.length) {
+        bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + count));
+      }
+      ByteBuffer view = block.duplicate();
+      view.position(from);
+      view.get(bytes, length, count);
+      length += count;
+    }
+
+    @Override
+    public int length() {
+      return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+      return (char) (bytes[index] & 0xff);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+      return new String(bytes, start, end - start, StandardCharsets.ISO_8859_1);
+    }
+
+    @Override
+    public String toString() {
+      return new String(bytes, 0, length, StandardCharsets.ISO_8859_1);
+    }
+  }
+}
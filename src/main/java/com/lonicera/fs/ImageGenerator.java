@@ -0,0 +1,650 @@
+package com.lonicera.fs;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import lombok.Getter;
+
+/**
+ * 直接写出 minix 磁盘映像：分区表，每个分区的引导块、超级块、inode 位图、zone 位图、inode 表、目录和数据区。
+ * <p>
+ * 先规划整棵目录树的 inode 号和 zone 号，再按 zone 号顺序把数据区一次写出，元数据区在内存中生成后一次写入。
+ * 每个文件的索引块排在数据块之前，数据块连续分配。每个分区按同样的参数生成一棵目录树，
+ * 默认是 v1 格式，v1 的 zone 号只有 16 位，单个分区最多 64MiB，更大的分区用 v2 或 v3。
+ */
+public class ImageGenerator {
+
+  public enum SizeDistribution {
+    FIXED, UNIFORM, EXPONENTIAL
+  }
+
+  public static final int MAGIC_V1 = Layout.MAGIC_V1;
+  public static final int SYS_IND_MINIX = 0x81;
+  // v1 超过 7 个直接块和一次间接块的 512 块后进入二次间接块
+  public static final long DOUBLE_INDIRECT_START = doubleIndirectStart(Layout.V1);
+
+  private static final int MAX_U16 = 65535;
+  private static final int FIRST_PARTITION_SECT = 2;
+
+  private int files = 1000;
+  private int fanOut = 8;
+  private int depth = 2;
+  private SizeDistribution distribution = SizeDistribution.EXPONENTIAL;
+  private long minSize = 0;
+  private long meanSize = 4 * 1024;
+  private long maxSize = 64 * 1024;
+  private int largeFiles = 0;
+  private long largeFileSize = 1024 * 1024;
+  private int partitions = 1;
+  private double freeRatio = 0.05;
+  private int freeZones = 0;
+  private long mtime = 1_600_000_000L;
+  private long seed = 1;
+  private int batchSize = 4 * 1024 * 1024;
+  private Layout layout = Layout.V1;
+
+  @Getter
+  public static class Summary {
+
+    private int partitions;
+    private int files;
+    private int dirs;
+    private long dataBytes;
+    private long imageBytes;
+    private long elapsedNanos;
+    private String largestFile;
+    private long largestFileSize = -1;
+    private String deepestFile;
+
+    @Override
+    public String toString() {
+      return String.format("%d partition(s), %d files, %d dirs, %d data bytes, %d image bytes in %d ms",
+          partitions, files, dirs, dataBytes, imageBytes, elapsedNanos / 1_000_000);
+    }
+  }
+
+  private static class Node {
+
+    private final String name;
+    private final Node parent;
+    private final boolean dir;
+    private final List<Node> children = new ArrayList<>();
+    private long size;
+    private int inum;
+    private int uid;
+    private long mtime;
+    private int nlinks;
+    private int depth;
+    // 分配给该节点的第一个 zone，之后依次是索引块和数据块
+    private int firstZone;
+
+    private Node(String name, Node parent, boolean dir) {
+      this.name = name;
+      this.parent = parent;
+      this.dir = dir;
+      this.depth = parent == null ? 0 : parent.depth + 1;
+    }
+
+    private String path() {
+      if (parent == null) {
+        return "";
+      }
+      return parent.path() + "/" + name;
+    }
+  }
+
+  public ImageGenerator files(int files) {
+    this.files = files;
+    return this;
+  }
+
+  public ImageGenerator fanOut(int fanOut) {
+    this.fanOut = fanOut;
+    return this;
+  }
+
+  public ImageGenerator depth(int depth) {
+    this.depth = depth;
+    return this;
+  }
+
+  public ImageGenerator fileSize(SizeDistribution distribution, long minSize, long meanSize,
+      long maxSize) {
+    this.distribution = distribution;
+    this.minSize = minSize;
+    this.meanSize = meanSize;
+    this.maxSize = maxSize;
+    return this;
+  }
+
+  /**
+   * 前 count 个文件的大小取在 (DOUBLE_INDIRECT_START, size]，保证用到二次间接块
+   */
+  public ImageGenerator largeFiles(int count, long size) {
+    this.largeFiles = count;
+    this.largeFileSize = size;
+    return this;
+  }
+
+  public ImageGenerator partitions(int partitions) {
+    this.partitions = partitions;
+    return this;
+  }
+
+  public ImageGenerator freeRatio(double freeRatio) {
+    this.freeRatio = freeRatio;
+    return this;
+  }
+
+  /**
+   * 每个分区至少保留的空闲 zone 数，给写入测试留出空间
+   */
+  public ImageGenerator freeZones(int freeZones) {
+    this.freeZones = freeZones;
+    return this;
+  }
+
+  public ImageGenerator mtime(long mtime) {
+    this.mtime = mtime;
+    return this;
+  }
+
+  public ImageGenerator seed(long seed) {
+    this.seed = seed;
+    return this;
+  }
+
+  public ImageGenerator batchSize(int batchSize) {
+    this.batchSize = batchSize;
+    return this;
+  }
+
+  public ImageGenerator layout(Layout layout) {
+    this.layout = layout;
+    return this;
+  }
+
+  private static long doubleIndirectStart(Layout layout) {
+    return (Layout.DIRECT_ZONES + layout.span(1)) * layout.getBlockSize();
+  }
+
+  // 超级块的 maxSize 和 inode 的大小都是 32 位
+  private long maxFileSize() {
+    return Math.min((long) layout.getMaxFileBlocks() * layout.getBlockSize(), Integer.MAX_VALUE);
+  }
+
+  /**
+   * 文件内容按 inode 号和偏移生成，读取方可以据此校验
+   */
+  public static byte contentByte(int inum, long offset) {
+    return (byte) ('a' + (offset + inum) % 26);
+  }
+
+  public Summary generate(File image) {
+    validate();
+    long start = System.nanoTime();
+    Summary summary = new Summary();
+    summary.partitions = partitions;
+    try (FileChannel channel = FileChannel.open(image.toPath(), StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      ByteBuffer bootSector = ByteBuffer.allocate(Sector.SECTOR_SIZE * FIRST_PARTITION_SECT)
+          .order(ByteOrder.LITTLE_ENDIAN);
+      long startSect = FIRST_PARTITION_SECT;
+      for (int p = 0; p < partitions; p++) {
+        Node root = plan(new Random(seed + p), summary);
+        int nzones = writePartition(channel, startSect * Sector.SECTOR_SIZE, root, summary);
+        int entry = 0x1be + p * BootSector.Partition.PARTITION_SIZE;
+        bootSector.put(entry, (byte) (p == 0 ? 0x80 : 0));
+        bootSector.put(entry + 4, (byte) SYS_IND_MINIX);
+        bootSector.putInt(entry + 8, (int) startSect);
+        int sects = nzones * (layout.getBlockSize() / Sector.SECTOR_SIZE);
+        bootSector.putInt(entry + 12, sects);
+        startSect += sects & 0xffffffffL;
+      }
+      bootSector.put(510, (byte) 0x55);
+      bootSector.put(511, (byte) 0xaa);
+      writeFully(channel, bootSector, 0);
+      summary.imageBytes = startSect * Sector.SECTOR_SIZE;
+    } catch (IOException e) {
+      throw new FileSystemParseException(e);
+    }
+    summary.elapsedNanos = System.nanoTime() - start;
+    return summary;
+  }
+
+  private void validate() {
+    if (files < 0 || fanOut < 1 || depth < 0 || partitions < 1 || partitions > 4) {
+      throw new IllegalArgumentException("bad tree shape");
+    }
+    if (minSize < 0 || maxSize < minSize || largeFileSize > maxFileSize()
+        || (largeFiles > 0 && largeFileSize <= doubleIndirectStart(layout))) {
+      throw new IllegalArgumentException("bad file size");
+    }
+  }
+
+  // 规划目录树：目录按深度和扇出建立，文件轮流放入各个目录
+  private Node plan(Random random, Summary summary) {
+    Node root = new Node("", null, true);
+    List<Node> dirs = new ArrayList<>();
+    dirs.add(root);
+    for (int i = 0; i < dirs.size(); i++) {
+      Node dir = dirs.get(i);
+      if (dir.depth < depth) {
+        for (int j = 0; j < fanOut; j++) {
+          Node child = new Node("d" + j, dir, true);
+          dir.children.add(child);
+          dirs.add(child);
+        }
+      }
+    }
+    int[] fileCounts = new int[dirs.size()];
+    for (int i = 0; i < files; i++) {
+      Node dir = dirs.get(i % dirs.size());
+      Node file = new Node("f" + fileCounts[i % dirs.size()]++, dir, false);
+      file.size = i < largeFiles ? largeSize(random) : nextSize(random);
+      file.uid = random.nextInt(4);
+      file.mtime = mtime + random.nextInt(365 * 24 * 3600);
+      dir.children.add(file);
+      summary.dataBytes += file.size;
+      if (file.size > summary.largestFileSize) {
+        summary.largestFileSize = file.size;
+        summary.largestFile = file.path();
+      }
+      if (summary.deepestFile == null || file.depth > depthOf(summary.deepestFile)) {
+        summary.deepestFile = file.path();
+      }
+    }
+    for (Node dir : dirs) {
+      dir.size = (dir.children.size() + 2L) * layout.getDirEntrySize();
+      dir.mtime = mtime;
+      dir.nlinks = 2;
+      for (Node child : dir.children) {
+        if (child.dir) {
+          dir.nlinks++;
+        }
+      }
+    }
+    summary.files += files;
+    summary.dirs += dirs.size();
+    return root;
+  }
+
+  private static int depthOf(String path) {
+    int count = 0;
+    for (int i = 0; i < path.length(); i++) {
+      if (path.charAt(i) == '/') {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  private long largeSize(Random random) {
+    long start = doubleIndirectStart(layout);
+    return start + 1 + (long) (random.nextDouble() * (largeFileSize - start));
+  }
+
+  private long nextSize(Random random) {
+    long size;
+    switch (distribution) {
+      case FIXED:
+        size = meanSize;
+        break;
+      case UNIFORM:
+        size = minSize + (long) (random.nextDouble() * (maxSize - minSize + 1));
+        break;
+      default:
+        size = minSize + (long) (-Math.log(1 - random.nextDouble()) * (meanSize - minSize));
+        break;
+    }
+    return Math.max(minSize, Math.min(maxSize, size));
+  }
+
+  // 按深度优先的顺序分配 inode 号和 zone 号：目录，目录下的文件，再是子目录
+  private void assign(Node dir, int[] next) {
+    dir.inum = next[0]++;
+    dir.firstZone = next[1];
+    int dirBlocks = layout.blocks(dir.size);
+    next[1] += layout.indexBlocks(dirBlocks) + dirBlocks;
+    for (Node child : dir.children) {
+      if (!child.dir) {
+        child.inum = next[0]++;
+        child.firstZone = next[1];
+        int blocks = layout.blocks(child.size);
+        next[1] += layout.indexBlocks(blocks) + blocks;
+      }
+    }
+    for (Node child : dir.children) {
+      if (child.dir) {
+        assign(child, next);
+      }
+    }
+  }
+
+  private int writePartition(FileChannel channel, long partitionOffset, Node root,
+      Summary summary) throws IOException {
+    int blockSize = layout.getBlockSize();
+    int bitsPerBlock = layout.getBitsPerBlock();
+    // v3 之前 inode 数是 16 位，只有 v1 的 zone 数是 16 位
+    int maxInodes = layout.getVersion() == 3 ? Integer.MAX_VALUE : MAX_U16;
+    int maxZones = layout.getVersion() == 1 ? MAX_U16 : Integer.MAX_VALUE;
+    int nodes = countNodes(root);
+    int ninodes = (int) Math.min(maxInodes, Math.ceil(nodes * (1 + freeRatio)));
+    if (nodes > ninodes) {
+      throw new IllegalArgumentException("too many files for a minix v" + layout.getVersion()
+          + " partition");
+    }
+    int imapBlocks = (ninodes + 1 + bitsPerBlock - 1) / bitsPerBlock;
+    int inodeBlocks = (ninodes + layout.getInodesPerBlock() - 1) / layout.getInodesPerBlock();
+    int[] next = {1, 0};
+    assign(root, next);
+    int usedZones = next[1];
+    // zone 位图的大小依赖 nzones，先按上限估算再收敛
+    int zmapBlocks = 1;
+    int firstDataZone;
+    int nzones;
+    while (true) {
+      firstDataZone = 2 + imapBlocks + zmapBlocks + inodeBlocks;
+      nzones = Math.max((int) Math.ceil((firstDataZone + usedZones) * (1 + freeRatio)),
+          firstDataZone + usedZones + freeZones);
+      int required = (nzones - firstDataZone + 1 + bitsPerBlock - 1) / bitsPerBlock;
+      if (required <= zmapBlocks) {
+        break;
+      }
+      zmapBlocks = required;
+    }
+    if (nzones > maxZones || firstDataZone > MAX_U16) {
+      throw new IllegalArgumentException("partition needs " + nzones + " zones, minix v"
+          + layout.getVersion() + " allows " + maxZones);
+    }
+
+    ByteBuffer meta = ByteBuffer.allocate(firstDataZone * blockSize)
+        .order(ByteOrder.LITTLE_ENDIAN);
+    writeSuperBlock(meta, ninodes, nzones, imapBlocks, zmapBlocks, firstDataZone);
+
+    int imap = 2 * blockSize;
+    for (int bit = 0; bit < imapBlocks * bitsPerBlock; bit++) {
+      if (bit < next[0] || bit > ninodes) {
+        setBit(meta, imap, bit);
+      }
+    }
+    int zmap = (2 + imapBlocks) * blockSize;
+    for (int bit = 0; bit < zmapBlocks * bitsPerBlock; bit++) {
+      if (bit <= usedZones || bit > nzones - firstDataZone) {
+        setBit(meta, zmap, bit);
+      }
+    }
+
+    BatchWriter writer = new BatchWriter(channel, partitionOffset
+        + (long) firstDataZone * blockSize, batchSize, blockSize);
+    writeTree(root, meta, (2 + imapBlocks + zmapBlocks) * blockSize, firstDataZone, writer);
+    writer.flush();
+    // 数据区末尾未使用的 zone 也占据映像空间
+    long end = partitionOffset + (long) nzones * blockSize;
+    if (channel.size() < end) {
+      writeFully(channel, ByteBuffer.allocate(1), end - 1);
+    }
+    writeFully(channel, meta, partitionOffset);
+    return nzones;
+  }
+
+  // 超级块总在分区的第 1024 字节，v3 的字段整体后移
+  private void writeSuperBlock(ByteBuffer meta, int ninodes, int nzones, int imapBlocks,
+      int zmapBlocks, int firstDataZone) {
+    int superBlock = Block.BLOCK_SIZE;
+    if (layout.getVersion() == 3) {
+      meta.putInt(superBlock, ninodes);
+      meta.putShort(superBlock + 6, (short) imapBlocks);
+      meta.putShort(superBlock + 8, (short) zmapBlocks);
+      meta.putShort(superBlock + 10, (short) firstDataZone);
+      meta.putInt(superBlock + 16, (int) maxFileSize());
+      meta.putInt(superBlock + 20, nzones);
+      meta.putShort(superBlock + 24, (short) Layout.MAGIC_V3);
+      meta.putShort(superBlock + 28, (short) layout.getBlockSize());
+      return;
+    }
+    meta.putShort(superBlock, (short) ninodes);
+    meta.putShort(superBlock + 2, (short) (layout.getVersion() == 1 ? nzones : 0));
+    meta.putShort(superBlock + 4, (short) imapBlocks);
+    meta.putShort(superBlock + 6, (short) zmapBlocks);
+    meta.putShort(superBlock + 8, (short) firstDataZone);
+    meta.putShort(superBlock + 10, (short) 0);
+    meta.putInt(superBlock + 12, (int) maxFileSize());
+    meta.putShort(superBlock + 16, (short) layout.getMagic());
+    meta.putShort(superBlock + 18, (short) 1);
+    if (layout.getVersion() == 2) {
+      meta.putInt(superBlock + 20, nzones);
+    }
+  }
+
+  private static int countNodes(Node dir) {
+    int count = 1;
+    for (Node child : dir.children) {
+      count += child.dir ? countNodes(child) : 1;
+    }
+    return count;
+  }
+
+  private static void setBit(ByteBuffer bytes, int base, int bit) {
+    int index = base + bit / 8;
+    bytes.put(index, (byte) (bytes.get(index) | (1 << (bit % 8))));
+  }
+
+  // 按分配顺序写出，与 assign 的遍历顺序一致，因此数据区是顺序写
+  private void writeTree(Node dir, ByteBuffer meta, int inodeTable, int firstDataZone,
+      BatchWriter writer) throws IOException {
+    writeInode(dir, meta, inodeTable, writeDir(dir, firstDataZone, writer));
+    for (Node child : dir.children) {
+      if (!child.dir) {
+        writeInode(child, meta, inodeTable, writeFile(child, firstDataZone, writer));
+      }
+    }
+    for (Node child : dir.children) {
+      if (child.dir) {
+        writeTree(child, meta, inodeTable, firstDataZone, writer);
+      }
+    }
+  }
+
+  private void writeInode(Node node, ByteBuffer meta, int inodeTable, int[] slots) {
+    Inode inode = new Inode(layout, node.inum, meta,
+        inodeTable + (node.inum - 1) * layout.getInodeSize());
+    inode.setImode(node.dir ? 0_040755 : 0_100644);
+    inode.setIuid(node.uid);
+    inode.setIsize(node.size);
+    inode.setTimes(node.mtime);
+    inode.setInlinks(node.dir ? node.nlinks : 1);
+    for (int i = 0; i < slots.length; i++) {
+      inode.setZone(i, slots[i]);
+    }
+  }
+
+  // 目录项多于 7 块时和普通文件一样需要索引块
+  private int[] writeDir(Node dir, int firstDataZone, BatchWriter writer) throws IOException {
+    int[] slots = writeIndex(dir, firstDataZone, writer);
+    int parent = dir.parent == null ? dir.inum : dir.parent.inum;
+    int entrySize = layout.getDirEntrySize();
+    ByteBuffer content = ByteBuffer.allocate(layout.blocks(dir.size) * layout.getBlockSize());
+    DirEntry.write(layout, content, 0, dir.inum, ".");
+    DirEntry.write(layout, content, entrySize, parent, "..");
+    for (int i = 0; i < dir.children.size(); i++) {
+      Node child = dir.children.get(i);
+      DirEntry.write(layout, content, (i + 2) * entrySize, child.inum, child.name);
+    }
+    writer.write(content);
+    return slots;
+  }
+
+  private int[] writeFile(Node file, int firstDataZone, BatchWriter writer)
+      throws IOException {
+    int[] slots = writeIndex(file, firstDataZone, writer);
+    writer.writeContent(file.inum, file.size);
+    return slots;
+  }
+
+  // 写出排在数据块之前的索引块，返回 inode 的 zone 槽位
+  private int[] writeIndex(Node node, int firstDataZone, BatchWriter writer)
+      throws IOException {
+    int blocks = layout.blocks(node.size);
+    int indexBlocks = layout.indexBlocks(blocks);
+    int first = firstDataZone + node.firstZone;
+    int[] zones = new int[indexBlocks + blocks];
+    for (int i = 0; i < zones.length; i++) {
+      zones[i] = first + i;
+    }
+    int blockSize = layout.getBlockSize();
+    ByteBuffer index = ByteBuffer.allocate(indexBlocks * blockSize);
+    int[] slots = new int[layout.getZoneCount()];
+    layout.buildIndex(zones, 0, blocks, slots, zone -> {
+      ByteBuffer block = index.duplicate();
+      block.position((zone - first) * blockSize).limit((zone - first + 1) * blockSize);
+      return block.slice();
+    });
+    if (indexBlocks > 0) {
+      writer.write(index);
+    }
+    return slots;
+  }
+
+  private static void writeFully(FileChannel channel, ByteBuffer bytes, long position)
+      throws IOException {
+    bytes.clear();
+    while (bytes.hasRemaining()) {
+      position += channel.write(bytes, position);
+    }
+  }
+
+  /**
+   * 顺序写出数据区，攒满一批后一次写入
+   */
+  private static class BatchWriter {
+
+    private final FileChannel channel;
+    private final ByteBuffer batch;
+    private final int blockSize;
+    private final byte[] pattern;
+    private long position;
+
+    private BatchWriter(FileChannel channel, long position, int batchSize, int blockSize) {
+      this.channel = channel;
+      this.position = position;
+      this.blockSize = blockSize;
+      this.batch = ByteBuffer.allocateDirect(
+          Math.max(blockSize, batchSize / blockSize * blockSize));
+      this.pattern = new byte[blockSize + 26];
+      for (int i = 0; i < pattern.length; i++) {
+        pattern[i] = (byte) ('a' + i % 26);
+      }
+    }
+
+    private void write(ByteBuffer bytes) throws IOException {
+      while (bytes.hasRemaining()) {
+        if (!batch.hasRemaining()) {
+          flush();
+        }
+        int length = Math.min(bytes.remaining(), batch.remaining());
+        ByteBuffer slice = bytes.duplicate();
+        slice.limit(slice.position() + length);
+        batch.put(slice);
+        bytes.position(bytes.position() + length);
+      }
+    }
+
+    // 写出 contentByte 规定的内容，末块不足一块的部分补 0
+    private void writeContent(int inum, long size) throws IOException {
+      for (long offset = 0; offset < size; offset += blockSize) {
+        if (!batch.hasRemaining()) {
+          flush();
+        }
+        int length = (int) Math.min(blockSize, size - offset);
+        batch.put(pattern, (int) ((offset + inum) % 26), length);
+        for (int i = length; i < blockSize; i++) {
+          batch.put((byte) 0);
+        }
+      }
+    }
+
+    private void flush() throws IOException {
+      batch.flip();
+      while (batch.hasRemaining()) {
+        position += channel.write(batch, position);
+      }
+      batch.clear();
+    }
+  }
+
+  public static void main(String[] args) {
+    if (args.length < 1) {
+      System.err.println("usage : ImageGenerator <image> [--files n] [--fanout n] [--depth n]"
+          + " [--distribution fixed|uniform|exponential] [--min-size n] [--mean-size n]"
+          + " [--max-size n] [--large-files n] [--large-size n] [--partitions n] [--seed n]"
+          + " [--version 1|2|3] [--block-size n]");
+      System.exit(1);
+    }
+    ImageGenerator generator = new ImageGenerator();
+    SizeDistribution distribution = generator.distribution;
+    long minSize = generator.minSize;
+    long meanSize = generator.meanSize;
+    long maxSize = generator.maxSize;
+    int largeFiles = generator.largeFiles;
+    long largeSize = generator.largeFileSize;
+    int version = 1;
+    int blockSize = Block.BLOCK_SIZE;
+    for (int i = 1; i + 1 < args.length; i += 2) {
+      String value = args[i + 1];
+      switch (args[i]) {
+        case "--files":
+          generator.files(Integer.parseInt(value));
+          break;
+        case "--fanout":
+          generator.fanOut(Integer.parseInt(value));
+          break;
+        case "--depth":
+          generator.depth(Integer.parseInt(value));
+          break;
+        case "--distribution":
+          distribution = SizeDistribution.valueOf(value.toUpperCase());
+          break;
+        case "--min-size":
+          minSize = Long.parseLong(value);
+          break;
+        case "--mean-size":
+          meanSize = Long.parseLong(value);
+          break;
+        case "--max-size":
+          maxSize = Long.parseLong(value);
+          break;
+        case "--large-files":
+          largeFiles = Integer.parseInt(value);
+          break;
+        case "--large-size":
+          largeSize = Long.parseLong(value);
+          break;
+        case "--partitions":
+          generator.partitions(Integer.parseInt(value));
+          break;
+        case "--seed":
+          generator.seed(Long.parseLong(value));
+          break;
+        case "--version":
+          version = Integer.parseInt(value);
+          break;
+        case "--block-size":
+          blockSize = Integer.parseInt(value);
+          break;
+        default:
+          throw new IllegalArgumentException("unknown option " + args[i]);
+      }
+    }
+    generator.fileSize(distribution, minSize, meanSize, maxSize).largeFiles(largeFiles, largeSize)
+        .layout(Layout.of(version, blockSize, version == 3 ? 60 : 14));
+    System.out.println(generator.generate(new File(args[0])));
+  }
+}
@@ -0,0 +1,402 @@
+package com.lonicera.fs;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import lombok.Getter;
+
+/**
+ * 把宿主文件系统中的一棵目录树复制到映像中，相当于 cp -r。
+ * <p>
+ * 先遍历宿主目录树作出完整的计划，空间不够时在写入任何内容之前失败。inode 按读取的顺序分配：
+ * 目录的所有子项编号相邻，然后才是下一层目录。zone 一次分配为一段连续区域，目录块在其中的文件之前，
+ * 每个文件的索引块紧挨在数据块之前，数据块连续。文件内容不经过缓冲区，按 zone 顺序攒成大块直接写到设备
+ */
+public class Importer {
+
+  // 每次写到设备的字节数上限
+  private static final int BATCH_BYTES = Integer.getInteger("fs.import.batch", 1 << 20);
+
+  @Getter
+  public static class Summary {
+
+    private int files;
+    private int dirs;
+    private int skipped;
+    private long bytes;
+    private int zones;
+    // 分配到的 zone 组成的连续区段数
+    private int runs;
+    private int writes;
+    private long elapsedNanos;
+
+    public double getBytesPerSecond() {
+      return elapsedNanos == 0 ? 0 : bytes * 1e9 / elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder sb = new StringBuilder();
+      sb.append(String.format("%d files, %d dirs, %d bytes imported in %d ms (%.1f MiB/s)",
+          files, dirs, bytes, elapsedNanos / 1_000_000, getBytesPerSecond() / (1 << 20)));
+      sb.append(String.format(", %d zones in %d runs, %d writes", zones, runs, writes));
+      if (skipped > 0) {
+        sb.append(", ").append(skipped).append(" special files skipped");
+      }
+      return sb.toString();
+    }
+  }
+
+  // 计划中的一个文件或目录，first 是它在分配到的 zone 数组中的起始下标，索引块在前，数据块在后
+  private static class Node {
+
+    private final Path source;
+    private final String name;
+    private final boolean dir;
+    private final long size;
+    private final long mtime;
+    private final List<Node> children = new ArrayList<>();
+    private int subdirs;
+    private int inum;
+    private int parent;
+    private int first;
+    private int dataBlocks;
+    private int indexBlocks;
+
+    private Node(Path source, String name, boolean dir, long size, long mtime) {
+      this.source = source;
+      this.name = name;
+      this.dir = dir;
+      this.size = size;
+      this.mtime = mtime;
+    }
+  }
+
+  private final MinixFileSystem fs;
+  private int batchBytes = BATCH_BYTES;
+  private ByteBuffer batch;
+  private int batchZone;
+
+  public Importer(MinixFileSystem fs) {
+    this.fs = fs;
+  }
+
+  public Importer batchBytes(int batchBytes) {
+    if (batchBytes < Block.BLOCK_SIZE) {
+      throw new IllegalArgumentException("batchBytes");
+    }
+    this.batchBytes = batchBytes;
+    return this;
+  }
+
+  /**
+   * 把 source 复制为目录 target 下的同名文件或目录，修改时间与宿主一致
+   */
+  public Summary importFrom(File source, Inode target) {
+    long begin = System.nanoTime();
+    Summary summary = new Summary();
+    synchronized (fs) {
+      fs.checkWritable();
+      Path path = source.toPath().toAbsolutePath().normalize();
+      if (path.getFileName() == null) {
+        throw new CommandExecuteException("invalid argument");
+      }
+      Node top = plan(path, summary);
+      if (top == null) {
+        throw new CommandExecuteException("not a regular file or dir : " + source);
+      }
+      if (fs.childEntryOrNull(target, top.name) != null) {
+        throw new CommandExecuteException("file exists");
+      }
+      List<Node> order = new ArrayList<>();
+      int zoneCount = layout(top, 0, order);
+      if (order.size() > fs.freeInodes()) {
+        throw new CommandExecuteException("no free inodes");
+      }
+      if (zoneCount > fs.freeZones()) {
+        throw new CommandExecuteException("no space left on device");
+      }
+      int[] inums = new int[order.size()];
+      int[] zones = new int[0];
+      try {
+        top.parent = target.getInum();
+        allocInodes(top, inums);
+        zones = fs.allocZones(zoneCount);
+        copy(order, zones, summary);
+        for (Node node : order) {
+          writeNode(node, zones);
+          fs.writeBackIfNeeded();
+        }
+        fs.addEntry(target.getInum(), top.name, top.inum);
+        if (top.dir) {
+          Inode parent = fs.writableInode(target.getInum());
+          parent.setInlinks(parent.getInlinks() + 1);
+        }
+      } catch (IOException | RuntimeException e) {
+        release(inums, zones);
+        if (e instanceof IOException) {
+          throw new CommandExecuteException("cannot read " + e.getMessage());
+        }
+        throw (RuntimeException) e;
+      }
+      fs.sync();
+      summary.zones = zones.length;
+      summary.runs = runs(zones);
+    }
+    summary.elapsedNanos = System.nanoTime() - begin;
+    return summary;
+  }
+
+  private Node plan(Path path, Summary summary) {
+    String name = path.getFileName().toString();
+    try {
+      if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+        check(() -> fs.checkName(name), path);
+        Node dir = new Node(path, name, true, 0, mtime(path));
+        List<Path> children;
+        try (Stream<Path> stream = Files.list(path)) {
+          children = stream.sorted().collect(Collectors.toList());
+        }
+        for (Path child : children) {
+          Node node = plan(child, summary);
+          if (node == null) {
+            continue;
+          }
+          dir.children.add(node);
+          if (node.dir) {
+            dir.subdirs++;
+          }
+        }
+        // 链接数只有一个字节
+        if (dir.subdirs + 2 > 0xff) {
+          throw new CommandExecuteException("too many links : " + path);
+        }
+        check(() -> fs.checkFileSize(dirSize(dir)), path);
+        summary.dirs++;
+        return dir;
+      }
+      if (Files.isRegularFile(path, LinkOption.NOFOLLOW_LINKS)) {
+        check(() -> fs.checkName(name), path);
+        long size = Files.size(path);
+        check(() -> fs.checkFileSize(size), path);
+        summary.files++;
+        return new Node(path, name, false, size, mtime(path));
+      }
+    } catch (IOException e) {
+      throw new CommandExecuteException("cannot read " + e.getMessage());
+    }
+    summary.skipped++;
+    return null;
+  }
+
+  // 错误信息带上宿主路径
+  private static void check(Runnable check, Path path) {
+    try {
+      check.run();
+    } catch (CommandExecuteException e) {
+      throw new CommandExecuteException(e.getMessage() + " : " + path);
+    }
+  }
+
+  private static long mtime(Path path) throws IOException {
+    return Files.getLastModifiedTime(path, LinkOption.NOFOLLOW_LINKS).toMillis() / 1000;
+  }
+
+  private long dirSize(Node dir) {
+    return (long) (dir.children.size() + 2) * fs.getLayout().getDirEntrySize();
+  }
+
+  // 目录的块在前，接着是其中的文件，最后依次是子目录，返回下一个空闲下标
+  private int layout(Node node, int first, List<Node> order) {
+    node.dataBlocks = fs.getLayout().blocks(node.dir ? dirSize(node) : node.size);
+    node.indexBlocks = fs.getLayout().indexBlocks(node.dataBlocks);
+    node.first = first;
+    order.add(node);
+    int next = first + node.indexBlocks + node.dataBlocks;
+    for (Node child : node.children) {
+      if (!child.dir) {
+        next = layout(child, next, order);
+      }
+    }
+    for (Node child : node.children) {
+      if (child.dir) {
+        next = layout(child, next, order);
+      }
+    }
+    return next;
+  }
+
+  // 列目录时读取的 inode 编号相邻
+  private void allocInodes(Node top, int[] inums) {
+    int[] count = new int[1];
+    top.inum = allocInode(inums, count);
+    if (top.dir) {
+      allocChildren(top, inums, count);
+    }
+  }
+
+  private void allocChildren(Node dir, int[] inums, int[] count) {
+    for (Node child : dir.children) {
+      child.inum = allocInode(inums, count);
+      child.parent = dir.inum;
+    }
+    for (Node child : dir.children) {
+      if (child.dir) {
+        allocChildren(child, inums, count);
+      }
+    }
+  }
+
+  private int allocInode(int[] inums, int[] count) {
+    int from = count[0] == 0 ? 1 : inums[count[0] - 1] + 1;
+    int inum = fs.allocInode(from);
+    inums[count[0]++] = inum;
+    return inum;
+  }
+
+  private void release(int[] inums, int[] zones) {
+    for (int inum : inums) {
+      if (inum != 0) {
+        fs.freeInode(inum);
+      }
+    }
+    for (int zone : zones) {
+      fs.freeZone(zone);
+    }
+  }
+
+  // 按 zone 顺序复制文件内容，相邻的块合并到同一次写入
+  private void copy(List<Node> order, int[] zones, Summary summary) throws IOException {
+    int blockSize = fs.getLayout().getBlockSize();
+    batch = ByteBuffer.allocate(Math.max(1, batchBytes / blockSize) * blockSize);
+    try {
+      for (Node node : order) {
+        if (!node.dir && node.dataBlocks > 0) {
+          summary.bytes += copy(node, zones, summary);
+        }
+      }
+      flushBatch(summary);
+    } finally {
+      batch = null;
+    }
+  }
+
+  private long copy(Node file, int[] zones, Summary summary) throws IOException {
+    int data = file.first + file.indexBlocks;
+    long remaining = file.size;
+    int blockSize = fs.getLayout().getBlockSize();
+    try (FileChannel channel = FileChannel.open(file.source, StandardOpenOption.READ)) {
+      int block = 0;
+      while (block < file.dataBlocks) {
+        int zone = zones[data + block];
+        if (batch.position() > 0
+            && (!batch.hasRemaining() || zone != batchZone + batch.position() / blockSize)) {
+          flushBatch(summary);
+        }
+        if (batch.position() == 0) {
+          batchZone = zone;
+        }
+        int run = 1;
+        while (block + run < file.dataBlocks && zones[data + block + run] == zone + run) {
+          run++;
+        }
+        run = Math.min(run, batch.remaining() / blockSize);
+        int start = batch.position();
+        int length = run * blockSize;
+        batch.limit(start + (int) Math.min(remaining, length));
+        while (batch.hasRemaining() && channel.read(batch) >= 0) {
+          // 读满或者到达文件末尾
+        }
+        int read = batch.position() - start;
+        batch.limit(batch.capacity());
+        // 宿主文件在计划之后变短时补 0
+        Arrays.fill(batch.array(), start + read, start + length, (byte) 0);
+        batch.position(start + length);
+        remaining -= read;
+        block += run;
+      }
+    }
+    return file.size - remaining;
+  }
+
+  private void flushBatch(Summary summary) {
+    if (batch.position() == 0) {
+      return;
+    }
+    batch.flip();
+    fs.writeZones(batchZone, batch);
+    batch.clear();
+    summary.writes++;
+  }
+
+  // inode、索引块和目录块经过缓冲区，写回时相邻的块合并写出
+  private void writeNode(Node node, int[] zones) {
+    Inode inode = fs.writableInode(node.inum);
+    inode.clear();
+    inode.setImode(node.dir ? MinixFileSystem.DIR_MODE : MinixFileSystem.REGULAR_MODE);
+    inode.setTimes(node.mtime);
+    if (node.dir) {
+      inode.setIsize(dirSize(node));
+      inode.setInlinks(2 + node.subdirs);
+    } else {
+      inode.setIsize(node.size);
+      inode.setInlinks(1);
+    }
+    map(inode, node, zones);
+    if (node.dir) {
+      writeEntries(node, zones);
+    }
+  }
+
+  private void map(Inode inode, Node node, int[] zones) {
+    Layout layout = fs.getLayout();
+    int[] slots = new int[layout.getZoneCount()];
+    layout.buildIndex(zones, node.first, node.dataBlocks, slots,
+        zone -> fs.getBufferCache().create(zone));
+    for (int i = 0; i < slots.length; i++) {
+      inode.setZone(i, slots[i]);
+    }
+  }
+
+  private void writeEntries(Node dir, int[] zones) {
+    int data = dir.first + dir.indexBlocks;
+    ByteBuffer block = null;
+    Layout layout = fs.getLayout();
+    int perBlock = layout.getEntriesPerBlock();
+    int entries = dir.children.size() + 2;
+    for (int i = 0; i < entries; i++) {
+      if (i % perBlock == 0) {
+        block = fs.getBufferCache().create(zones[data + i / perBlock]);
+      }
+      int offset = i % perBlock * layout.getDirEntrySize();
+      if (i == 0) {
+        DirEntry.write(layout, block, offset, dir.inum, ".");
+      } else if (i == 1) {
+        DirEntry.write(layout, block, offset, dir.parent, "..");
+      } else {
+        Node child = dir.children.get(i - 2);
+        DirEntry.write(layout, block, offset, child.inum, child.name);
+      }
+    }
+  }
+
+  private static int runs(int[] zones) {
+    int runs = 0;
+    for (int i = 0; i < zones.length; i++) {
+      if (i == 0 || zones[i] != zones[i - 1] + 1) {
+        runs++;
+      }
+    }
+    return runs;
+  }
+}
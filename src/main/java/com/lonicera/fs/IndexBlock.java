@@ -1,41 +1,38 @@
 package com.lonicera.fs;
 
 
-import org.joou.UShort;
+import java.nio.ByteBuffer;
 
-public class IndexBlock extends Abstract2SectorBlock implements Block {
+/**
+ * 间接块，v1 是 512 个 16 位的 zone 号，v2 和 v3 是块大小 / 4 个 32 位的 zone 号
+ */
+public class IndexBlock implements Block {
 
-  private int[] indexes;
+  private final Layout layout;
+  private final ByteBuffer bytes;
 
-  private IndexBlock(byte[] bytes) {
-    super(bytes);
-    indexes = mapIndex(bytes);
+  private IndexBlock(Layout layout, ByteBuffer bytes) {
+    if (bytes == null || bytes.remaining() != layout.getBlockSize()) {
+      throw new IllegalArgumentException("bytes");
+    }
+    this.layout = layout;
+    this.bytes = bytes;
   }
 
-  private int[] mapIndex(byte[] bytes) {
-    int[] indexes = new int[512];
-    for (int i = 0; i < indexes.length; i += 2) {
-      int index = concatShort(bytes, i).intValue();
-      indexes[i] = index;
-    }
-    return indexes;
+  public int index(int i) {
+    return layout.zone(bytes, 0, i);
   }
 
   public int[] indexes(){
+    int[] indexes = new int[layout.getIndexCount()];
+    for (int i = 0; i < indexes.length; i++) {
+      indexes[i] = index(i);
+    }
     return indexes;
   }
 
-  private UShort concatShort(byte[] bytes, int start) {
-    return UShort.valueOf(unsignByte(bytes[start]) | (unsignByte(bytes[start + 1]) << 8));
-  }
-
-  private short unsignByte(byte b) {
-    return (short) (b & 0xff);
-  }
-
-
-  public static IndexBlock map(byte[] bytes) {
-    return new IndexBlock(bytes);
+  public static IndexBlock map(Layout layout, ByteBuffer bytes) {
+    return new IndexBlock(layout, bytes);
   }
 
 }
@@ -0,0 +1,146 @@
+package com.lonicera.fs;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+import java.util.function.IntConsumer;
+
+/**
+ * 为一个文件并发读取它的一次间接块、二次间接块以及二次间接块指向的全部索引块。
+ * 使用方开始消费某个索引块时，异步预取下一个索引块指向的数据块。三次间接块下面的索引块不预取，用到时再读取。
+ * <p>
+ * 线程池中的任务之间只用 future 串联，从不等待另一个任务，否则所有线程都可能在等待排在自己后面的任务
+ */
+public class IndexPrefetcher {
+
+  private final Layout layout;
+  private final IntFunction<ByteBuffer> blockReader;
+  private final IntConsumer dataPrefetcher;
+  private final Executor executor;
+  private final Map<Integer, CompletableFuture<IndexBlock>> indexBlocks = new ConcurrentHashMap<>();
+
+  private final int indirect;
+  private final int doubleIndirect;
+
+  /**
+   * @param blockReader 读取索引块，需要线程安全
+   * @param dataPrefetcher 预取一个数据块
+   */
+  public IndexPrefetcher(Layout layout, IntFunction<ByteBuffer> blockReader,
+      IntConsumer dataPrefetcher, Executor executor, int indirect, int doubleIndirect) {
+    this.layout = layout;
+    this.blockReader = blockReader;
+    this.dataPrefetcher = dataPrefetcher;
+    this.executor = executor;
+    this.indirect = indirect;
+    this.doubleIndirect = doubleIndirect;
+  }
+
+  public static ExecutorService newExecutor(int threads) {
+    AtomicInteger counter = new AtomicInteger();
+    return Executors.newFixedThreadPool(threads, r -> {
+      Thread thread = new Thread(r, "fs-prefetch-" + counter.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  public void start() {
+    if (indirect != 0) {
+      fetch(indirect);
+    }
+    if (doubleIndirect != 0) {
+      fetch(doubleIndirect).thenAccept(block -> {
+        for (int i = 0; i < layout.getIndexCount(); i++) {
+          int index = block.index(i);
+          if (index != 0) {
+            fetch(index);
+          }
+        }
+      });
+    }
+    prefetchDataAfter(0);
+  }
+
+  /**
+   * 取得索引块，已在预取中的等待其完成，同时开始预取下一个索引块的数据块
+   */
+  public IndexBlock get(int block) {
+    CompletableFuture<IndexBlock> future = indexBlocks.get(block);
+    IndexBlock indexBlock;
+    if (future == null) {
+      indexBlock = IndexBlock.map(layout, blockReader.apply(block));
+    } else {
+      indexBlock = join(future);
+    }
+    if (block != doubleIndirect) {
+      prefetchDataAfter(block);
+    }
+    return indexBlock;
+  }
+
+  private CompletableFuture<IndexBlock> fetch(int block) {
+    return indexBlocks.computeIfAbsent(block, b -> CompletableFuture
+        .supplyAsync(() -> IndexBlock.map(layout, blockReader.apply(b)), executor));
+  }
+
+  private void prefetchDataAfter(int leaf) {
+    nextLeaf(leaf)
+        .thenCompose(next -> next == 0 ? CompletableFuture.completedFuture(null) : fetch(next))
+        .thenAcceptAsync(block -> {
+          if (block == null) {
+            return;
+          }
+          for (int i = 0; i < layout.getIndexCount(); i++) {
+            int zone = block.index(i);
+            if (zone != 0) {
+              dataPrefetcher.accept(zone);
+            }
+          }
+        }, executor);
+  }
+
+  // 叶子索引块的顺序：一次间接块，然后是二次间接块指向的各个索引块，没有下一个时为 0
+  private CompletableFuture<Integer> nextLeaf(int leaf) {
+    if (leaf == 0 && indirect != 0) {
+      return CompletableFuture.completedFuture(indirect);
+    }
+    if (doubleIndirect == 0) {
+      return CompletableFuture.completedFuture(0);
+    }
+    return fetch(doubleIndirect).thenApply(top -> nextLeaf(top, leaf));
+  }
+
+  private int nextLeaf(IndexBlock top, int leaf) {
+    boolean found = leaf == 0 || leaf == indirect;
+    for (int i = 0; i < layout.getIndexCount(); i++) {
+      int index = top.index(i);
+      if (index == 0) {
+        continue;
+      }
+      if (found) {
+        return index;
+      }
+      found = index == leaf;
+    }
+    return 0;
+  }
+
+  private static IndexBlock join(CompletableFuture<IndexBlock> future) {
+    try {
+      return future.join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw e;
+    }
+  }
+}
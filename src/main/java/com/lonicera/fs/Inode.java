@@ -1,59 +1,192 @@
 package com.lonicera.fs;
 
+import java.nio.ByteBuffer;
 import lombok.Getter;
-import org.joou.UShort;
 
-@Getter
+/**
+ * inode 表中一个槽位的视图，字段在访问时直接从缓冲区解码。v1 的槽位 32 字节，zone 号 16 位；
+ * v2 和 v3 的槽位 64 字节，链接数和 gid 是 16 位，另有 atime 和 ctime，zone 号 32 位
+ */
 public class Inode {
   //1110_110_101_000_001
 
-  public static final int INODE_SIZE = 32;
+  private static final int MODE = 0;
+  private static final int UID = 2;
+  private static final int SIZE = 4;
+  private static final int MTIME = 8;
+  private static final int GID = 12;
+  private static final int NLINKS = 13;
+  private static final int ZONE = 14;
 
-  private UShort imode;
-  private UShort iuid;
-  private long isize;
-  private long imtime;
-  private short igid;
-  private short inlinks;
-  private int[] izone;
+  private static final int V2_NLINKS = 2;
+  private static final int V2_UID = 4;
+  private static final int V2_GID = 6;
+  private static final int V2_SIZE = 8;
+  private static final int V2_ATIME = 12;
+  private static final int V2_MTIME = 16;
+  private static final int V2_CTIME = 20;
+  private static final int V2_ZONE = 24;
 
-  public Inode(byte[] bytes){
-    imode = concatShort(bytes, 0);
-    iuid = concatShort(bytes, 2);
-    isize = concatLong(bytes, 4);
-    imtime = concatLong(bytes, 8);
-    igid = unsignByte(bytes[12]);
-    inlinks = unsignByte(bytes[13]);
-    izone = mapIzone(bytes, 14);
+  @Getter
+  private final int inum;
+  private final Layout layout;
+  private final ByteBuffer bytes;
+  private final int offset;
+  private final boolean v1;
+
+  public Inode(Layout layout, int inum, ByteBuffer bytes, int offset){
+    if(bytes.limit() < offset + layout.getInodeSize()){
+      throw new IllegalArgumentException("bytes");
+    }
+    this.inum = inum;
+    this.layout = layout;
+    this.bytes = bytes;
+    this.offset = offset;
+    this.v1 = layout.getVersion() == 1;
+  }
+
+  public int getImode(){
+    return Bytes.u16(bytes, offset + MODE);
   }
 
-  private int[] mapIzone(byte[] bytes, int start){
-    int[] izones = new int[9];
+  public int getIuid(){
+    return Bytes.u16(bytes, offset + (v1 ? UID : V2_UID));
+  }
+
+  public long getIsize(){
+    return Bytes.u32(bytes, offset + (v1 ? SIZE : V2_SIZE));
+  }
+
+  public long getImtime(){
+    return Bytes.u32(bytes, offset + (v1 ? MTIME : V2_MTIME));
+  }
+
+  public short getIgid(){
+    return (short) (v1 ? Bytes.u8(bytes, offset + GID) : Bytes.u16(bytes, offset + V2_GID));
+  }
+
+  public short getInlinks(){
+    return (short) (v1 ? Bytes.u8(bytes, offset + NLINKS) : Bytes.u16(bytes, offset + V2_NLINKS));
+  }
+
+  public int getZone(int i){
+    checkZone(i);
+    return layout.zone(bytes, offset + (v1 ? ZONE : V2_ZONE), i);
+  }
+
+  public int[] getIzone(){
+    int[] izones = new int[layout.getZoneCount()];
     for(int i = 0; i < izones.length; i++){
-      izones[i] = concatShort(bytes, start).intValue();
-      start += 2;
+      izones[i] = getZone(i);
     }
     return izones;
   }
 
-  private UShort concatShort(byte[] bytes, int start){
-    return UShort.valueOf(unsignByte(bytes[start]) | (unsignByte(bytes[start + 1]) << 8));
+  void setImode(int mode){
+    Bytes.putU16(bytes, offset + MODE, mode);
+  }
+
+  void setIuid(int uid){
+    Bytes.putU16(bytes, offset + (v1 ? UID : V2_UID), uid);
+  }
+
+  void setIsize(long size){
+    Bytes.putU32(bytes, offset + (v1 ? SIZE : V2_SIZE), size);
+  }
+
+  // v2 的 ctime 随 mtime 一起修改，atime 不维护
+  void setImtime(long mtime){
+    if (v1) {
+      Bytes.putU32(bytes, offset + MTIME, mtime);
+    } else {
+      Bytes.putU32(bytes, offset + V2_MTIME, mtime);
+      Bytes.putU32(bytes, offset + V2_CTIME, mtime);
+    }
   }
 
-  private short unsignByte(byte b){
-    return (short) (b & 0xff);
+  // 新建的 inode 三个时间相同
+  void setTimes(long time){
+    setImtime(time);
+    if (!v1) {
+      Bytes.putU32(bytes, offset + V2_ATIME, time);
+    }
   }
 
-  private long concatLong(byte[] bytes, int start){
-    long value = 0;
-    for(int step = 0; step < 4; step ++){
-      value |= ((unsignByte(bytes[start])) << (step * 8));
-      start++;
+  void setIgid(int gid){
+    if (v1) {
+      Bytes.putU8(bytes, offset + GID, gid);
+    } else {
+      Bytes.putU16(bytes, offset + V2_GID, gid);
+    }
+  }
+
+  void setInlinks(int nlinks){
+    if (v1) {
+      Bytes.putU8(bytes, offset + NLINKS, nlinks);
+    } else {
+      Bytes.putU16(bytes, offset + V2_NLINKS, nlinks);
+    }
+  }
+
+  void setZone(int i, int zone){
+    checkZone(i);
+    layout.putZone(bytes, offset + (v1 ? ZONE : V2_ZONE), i, zone);
+  }
+
+  private void checkZone(int i){
+    if(i < 0 || i >= layout.getZoneCount()){
+      throw new IndexOutOfBoundsException("zone " + i);
+    }
+  }
+
+  // 清空整个槽位，释放 inode 时使用
+  void clear(){
+    for(int i = 0; i < layout.getInodeSize(); i++){
+      bytes.put(offset + i, (byte) 0);
     }
-    return value;
   }
 
   public boolean isDir(){
-    return (imode.longValue() & 0b1111_0000_0000_0000) == 0b0100_0000_0000_0000;
+    return (getImode() & 0b1111_0000_0000_0000) == 0b0100_0000_0000_0000;
+  }
+
+  // 普通文件、目录和符号链接的 zone 槽位是 zone 号，设备文件的 i_zone[0] 是设备号
+  public boolean hasZones(){
+    int value = (getImode() & 0_170000) >> 12;
+    return value == 4 || value == 8 || value == 10;
+  }
+
+  public char getType(){
+    return type(getImode());
+  }
+
+  // 文件类型是否是 type 能识别的取值
+  public static boolean isValidMode(int mode) {
+    int value = (mode & 0_170000) >> 12;
+    return value == 1 || value == 2 || value == 4 || value == 6 || value == 8 || value == 10;
+  }
+
+  // 无法识别的类型返回 '?'，与 ls 一致，损坏的 inode 不会中断列目录等命令
+  public static char type(int mode) {
+    int value = (mode & 0_170000) >> 12;
+    if (value == 1) {
+      return 'p';
+    }
+    if (value == 2) {
+      return 'c';
+    }
+    if (value == 4) {
+      return 'd';
+    }
+    if (value == 6) {
+      return 'b';
+    }
+    if (value == 8) {
+      return '-';
+    }
+    if (value == 10) {
+      return '-';
+    }
+    return '?';
   }
 }
@@ -0,0 +1,189 @@
+package com.lonicera.fs;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.IntFunction;
+
+/**
+ * 以 inode 号为 key 的缓存，按 inode 表所在的块整体装载，一块包含的 inode 数由 Layout 决定
+ * <p>
+ * 装载在锁外进行，同一块的并发装载共用一次读取
+ */
+public class InodeCache {
+
+  private static class TableBlock {
+
+    private final ByteBuffer bytes;
+    private final Inode[] inodes;
+
+    private TableBlock(ByteBuffer bytes, int inodesPerBlock) {
+      this.bytes = bytes;
+      this.inodes = new Inode[inodesPerBlock];
+    }
+  }
+
+  private final Layout layout;
+  private final int inodesPerBlock;
+  private final IntFunction<ByteBuffer> blockReader;
+  private final int inodeStartBlock;
+  private final int ninodes;
+  private final int capacity;
+  private final LinkedHashMap<Integer, TableBlock> tableBlocks;
+  private final Map<Integer, CompletableFuture<TableBlock>> loading = new HashMap<>();
+
+  private long hits;
+  private long misses;
+
+  public InodeCache(Layout layout, IntFunction<ByteBuffer> blockReader, int inodeStartBlock,
+      int ninodes, int capacity) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("capacity");
+    }
+    this.layout = layout;
+    this.inodesPerBlock = layout.getInodesPerBlock();
+    this.blockReader = blockReader;
+    this.inodeStartBlock = inodeStartBlock;
+    this.ninodes = ninodes;
+    this.capacity = capacity;
+    this.tableBlocks = new LinkedHashMap<Integer, TableBlock>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Integer, TableBlock> eldest) {
+        return size() > InodeCache.this.capacity;
+      }
+    };
+  }
+
+  public Inode get(int inum) {
+    checkRange(inum);
+    TableBlock tableBlock = tableBlock(blockIndex(inum));
+    synchronized (this) {
+      return inode(tableBlock, inum);
+    }
+  }
+
+  /**
+   * 批量读取，按 inode 号排序后每个 inode 表块只读一次，结果顺序与参数一致
+   */
+  public Inode[] getAll(int[] inums) {
+    int[] sorted = inums.clone();
+    Arrays.sort(sorted);
+    for (int inum : sorted) {
+      checkRange(inum);
+    }
+    Map<Integer, TableBlock> loaded = new LinkedHashMap<>();
+    for (int inum : sorted) {
+      int index = blockIndex(inum);
+      if (!loaded.containsKey(index)) {
+        loaded.put(index, tableBlock(index));
+      }
+    }
+    Inode[] result = new Inode[inums.length];
+    synchronized (this) {
+      for (int i = 0; i < inums.length; i++) {
+        result[i] = inode(loaded.get(blockIndex(inums[i])), inums[i]);
+      }
+    }
+    return result;
+  }
+
+  public synchronized void invalidate(int inum) {
+    loading.remove(blockIndex(inum));
+    tableBlocks.remove(blockIndex(inum));
+  }
+
+  // 装载期间块被 invalidate 时，读到的内容只返回给本次调用，不放入缓存
+  private TableBlock tableBlock(int index) {
+    CompletableFuture<TableBlock> future;
+    boolean reading = false;
+    synchronized (this) {
+      TableBlock tableBlock = tableBlocks.get(index);
+      if (tableBlock != null) {
+        hits++;
+        return tableBlock;
+      }
+      future = loading.get(index);
+      if (future == null) {
+        misses++;
+        future = new CompletableFuture<>();
+        loading.put(index, future);
+        reading = true;
+      } else {
+        hits++;
+      }
+    }
+    if (!reading) {
+      return join(future);
+    }
+    TableBlock tableBlock;
+    try {
+      tableBlock = new TableBlock(blockReader.apply(inodeStartBlock + index), inodesPerBlock);
+    } catch (RuntimeException e) {
+      synchronized (this) {
+        loading.remove(index, future);
+      }
+      future.completeExceptionally(e);
+      throw e;
+    }
+    synchronized (this) {
+      if (loading.remove(index, future)) {
+        tableBlocks.put(index, tableBlock);
+      }
+    }
+    future.complete(tableBlock);
+    return tableBlock;
+  }
+
+  private static TableBlock join(CompletableFuture<TableBlock> future) {
+    try {
+      return future.join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw e;
+    }
+  }
+
+  private Inode inode(TableBlock tableBlock, int inum) {
+    int slot = (inum - 1) % inodesPerBlock;
+    Inode inode = tableBlock.inodes[slot];
+    if (inode == null) {
+      inode = new Inode(layout, inum, tableBlock.bytes, slot * layout.getInodeSize());
+      tableBlock.inodes[slot] = inode;
+    }
+    return inode;
+  }
+
+  private int blockIndex(int inum) {
+    return (inum - 1) / inodesPerBlock;
+  }
+
+  private void checkRange(int inum) {
+    if (inum < 1 || inum > ninodes) {
+      throw new IllegalArgumentException("inode " + inum + " out of range");
+    }
+  }
+
+  public synchronized long getHits() {
+    return hits;
+  }
+
+  public synchronized long getMisses() {
+    return misses;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "InodeCache{" +
+        "capacity=" + capacity +
+        ", cached=" + tableBlocks.size() +
+        ", hits=" + hits +
+        ", misses=" + misses +
+        '}';
+  }
+}
@@ -0,0 +1,360 @@
+package com.lonicera.fs;
+
+import com.lonicera.fs.SuperBlock.BitMap;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import lombok.Getter;
+
+/**
+ * inode 表的列式快照：一次顺序扫描整个 inode 表，只保留 inode 位图中已分配的 inode，
+ * 每个字段存为一个基本类型数组。查询在列上逐个过滤，不需要遍历目录树，只为匹配的 inode 解析路径。
+ */
+public class InodeTable {
+
+  // 每次从设备读取的 inode 表块数
+  private static final int SCAN_BLOCKS = Integer.getInteger("fs.inode.scan.blocks", 64);
+
+  private final MinixFileSystem fs;
+  @Getter
+  private int count;
+  @Getter
+  private long elapsedNanos;
+  private int[] inums;
+  private char[] modes;
+  private char[] uids;
+  // size 和 mtime 是无符号 32 位数
+  private int[] sizes;
+  private int[] mtimes;
+  // v1 的链接数是 8 位，v2 和 v3 是 16 位
+  private char[] nlinks;
+
+  private InodeTable(MinixFileSystem fs) {
+    this.fs = fs;
+  }
+
+  public static InodeTable scan(MinixFileSystem fs) {
+    InodeTable table = new InodeTable(fs);
+    table.load();
+    return table;
+  }
+
+  private void load() {
+    long start = System.nanoTime();
+    int ninodes = fs.getSuperBlock().getNinodes();
+    BitMap inodeMap = fs.getInodeMap();
+    int capacity = Math.max(0, inodeMap.cardinality() - 1);
+    inums = new int[capacity];
+    modes = new char[capacity];
+    uids = new char[capacity];
+    sizes = new int[capacity];
+    mtimes = new int[capacity];
+    nlinks = new char[capacity];
+    Layout layout = fs.getLayout();
+    int perBlock = layout.getInodesPerBlock();
+    int tableBlocks = (ninodes + perBlock - 1) / perBlock;
+    for (int block = 0; block < tableBlocks; block += SCAN_BLOCKS) {
+      int blocks = Math.min(SCAN_BLOCKS, tableBlocks - block);
+      ByteBuffer bytes = fs.readInodeTable(block, blocks);
+      int firstInum = block * perBlock + 1;
+      int lastInum = Math.min(ninodes, firstInum + blocks * perBlock - 1);
+      for (int inum = inodeMap.nextSet(firstInum); inum != -1 && inum <= lastInum;
+          inum = inodeMap.nextSet(inum + 1)) {
+        Inode inode = new Inode(layout, inum, bytes, (inum - firstInum) * layout.getInodeSize());
+        if (inode.getImode() == 0) {
+          continue;
+        }
+        append(inode);
+      }
+    }
+    elapsedNanos = System.nanoTime() - start;
+  }
+
+  // 位图与 inode 表不一致时容量可能不够
+  private void append(Inode inode) {
+    if (count == inums.length) {
+      int capacity = Math.max(16, count * 2);
+      inums = Arrays.copyOf(inums, capacity);
+      modes = Arrays.copyOf(modes, capacity);
+      uids = Arrays.copyOf(uids, capacity);
+      sizes = Arrays.copyOf(sizes, capacity);
+      mtimes = Arrays.copyOf(mtimes, capacity);
+      nlinks = Arrays.copyOf(nlinks, capacity);
+    }
+    inums[count] = inode.getInum();
+    modes[count] = (char) inode.getImode();
+    uids[count] = (char) inode.getIuid();
+    sizes[count] = (int) inode.getIsize();
+    mtimes[count] = (int) inode.getImtime();
+    nlinks[count] = (char) inode.getInlinks();
+    count++;
+  }
+
+  public Query query() {
+    return new Query();
+  }
+
+  /**
+   * 查询条件，没有设置的条件不参与过滤。select 依次用每个条件收缩行号数组
+   */
+  public class Query {
+
+    private char type;
+    private long minSize = -1;
+    private long maxSize = -1;
+    private long modifiedAfter = -1;
+    private long modifiedBefore = -1;
+    private int uid = -1;
+    private int minLinks = -1;
+
+    // f 普通文件，d 目录，其它取值与 Inode.type 相同
+    public Query type(char type) {
+      this.type = type;
+      return this;
+    }
+
+    public Query minSize(long minSize) {
+      this.minSize = minSize;
+      return this;
+    }
+
+    public Query maxSize(long maxSize) {
+      this.maxSize = maxSize;
+      return this;
+    }
+
+    // 修改时间不早于 seconds
+    public Query modifiedAfter(long seconds) {
+      this.modifiedAfter = seconds;
+      return this;
+    }
+
+    // 修改时间早于 seconds
+    public Query modifiedBefore(long seconds) {
+      this.modifiedBefore = seconds;
+      return this;
+    }
+
+    public Query uid(int uid) {
+      this.uid = uid;
+      return this;
+    }
+
+    public Query minLinks(int minLinks) {
+      this.minLinks = minLinks;
+      return this;
+    }
+
+    /**
+     * @return 匹配的 inode 号，按 inode 号升序
+     */
+    public int[] select() {
+      int[] rows = new int[count];
+      for (int i = 0; i < count; i++) {
+        rows[i] = i;
+      }
+      int n = count;
+      if (type != 0) {
+        n = filterType(rows, n);
+      }
+      if (minSize >= 0 || maxSize >= 0) {
+        n = filterRange(sizes, rows, n, minSize, maxSize < 0 ? Long.MAX_VALUE : maxSize);
+      }
+      if (modifiedAfter >= 0 || modifiedBefore >= 0) {
+        n = filterRange(mtimes, rows, n, modifiedAfter,
+            modifiedBefore < 0 ? Long.MAX_VALUE : modifiedBefore - 1);
+      }
+      if (uid >= 0) {
+        n = filterUid(rows, n);
+      }
+      if (minLinks >= 0) {
+        n = filterLinks(rows, n);
+      }
+      int[] result = new int[n];
+      for (int i = 0; i < n; i++) {
+        result[i] = inums[rows[i]];
+      }
+      return result;
+    }
+
+    private int filterType(int[] rows, int n) {
+      // f 包括目录以外的所有类型，与 find -type f 一致
+      int dirMode = 0_040000;
+      boolean file = type == 'f';
+      int mode = file ? dirMode : typeMode(type);
+      int matched = 0;
+      for (int i = 0; i < n; i++) {
+        int row = rows[i];
+        if (((modes[row] & 0_170000) == mode) != file) {
+          rows[matched++] = row;
+        }
+      }
+      return matched;
+    }
+
+    private int filterRange(int[] column, int[] rows, int n, long min, long max) {
+      int matched = 0;
+      for (int i = 0; i < n; i++) {
+        int row = rows[i];
+        long value = column[row] & 0xffff_ffffL;
+        if (value >= min && value <= max) {
+          rows[matched++] = row;
+        }
+      }
+      return matched;
+    }
+
+    private int filterUid(int[] rows, int n) {
+      int matched = 0;
+      for (int i = 0; i < n; i++) {
+        int row = rows[i];
+        if (uids[row] == uid) {
+          rows[matched++] = row;
+        }
+      }
+      return matched;
+    }
+
+    private int filterLinks(int[] rows, int n) {
+      int matched = 0;
+      for (int i = 0; i < n; i++) {
+        int row = rows[i];
+        if (nlinks[row] >= minLinks) {
+          rows[matched++] = row;
+        }
+      }
+      return matched;
+    }
+  }
+
+  private static int typeMode(char type) {
+    switch (type) {
+      case 'p':
+        return 0_010000;
+      case 'c':
+        return 0_020000;
+      case 'd':
+        return 0_040000;
+      case 'b':
+        return 0_060000;
+      default:
+        throw new CommandExecuteException("unknown type " + type);
+    }
+  }
+
+  /**
+   * 为 inode 解析一个路径。扫描目录的目录项，只记录目录和目标 inode 的名字，再沿父目录向上拼接。
+   * 目标和它们的祖先目录都有了名字后停止扫描。有多个链接的文件取第一个找到的名字，不可达的 inode 返回 null
+   *
+   * @return 与 targets 一一对应的路径
+   */
+  public String[] paths(int[] targets) {
+    if (targets.length == 0) {
+      return new String[0];
+    }
+    int ninodes = fs.getSuperBlock().getNinodes();
+    LongBitMap dirs = new LongBitMap(ninodes + 1);
+    int dirCount = 0;
+    for (int row = 0; row < count; row++) {
+      if ((modes[row] & 0_170000) == 0_040000) {
+        dirs.set(inums[row], inums[row] + 1);
+        dirCount++;
+      }
+    }
+    LongBitMap wanted = new LongBitMap(ninodes + 1);
+    for (int inum : targets) {
+      wanted.set(inum, inum + 1);
+    }
+    int[] dirInums = new int[dirCount];
+    for (int inum = dirs.nextSet(0), i = 0; inum != -1; inum = dirs.nextSet(inum + 1)) {
+      dirInums[i++] = inum;
+    }
+    int[] parents = new int[ninodes + 1];
+    String[] names = new String[ninodes + 1];
+    // needed 是目标和已知的祖先目录，pending 是其中还没有名字的个数
+    LongBitMap needed = new LongBitMap(ninodes + 1);
+    int pending = 0;
+    for (int inum : targets) {
+      pending += need(inum, needed, parents, names);
+    }
+    for (Inode dir : fs.readInodes(dirInums)) {
+      if (pending == 0) {
+        break;
+      }
+      for (DirEntry entry : fs.list(dir)) {
+        int child = entry.getInode();
+        String name = entry.getName();
+        if (child == 0 || child > ninodes || name.equals(".") || name.equals("..")) {
+          continue;
+        }
+        if (names[child] == null && (dirs.get(child) || wanted.get(child))) {
+          names[child] = name;
+          parents[child] = dir.getInum();
+          if (needed.get(child)) {
+            pending += need(dir.getInum(), needed, parents, names) - 1;
+          }
+        }
+      }
+    }
+    String[] paths = new String[targets.length];
+    for (int i = 0; i < targets.length; i++) {
+      paths[i] = path(targets[i], parents, names, dirCount);
+    }
+    return paths;
+  }
+
+  // 沿已知的父目录向上标记，直到根目录、已标记的目录或者还没有名字的目录，返回新增的无名目录数
+  private static int need(int inum, LongBitMap needed, int[] parents, String[] names) {
+    while (inum > 0 && inum != MinixFileSystem.ROOT_INODE && inum < names.length
+        && !needed.get(inum)) {
+      needed.set(inum, inum + 1);
+      if (names[inum] == null) {
+        return 1;
+      }
+      inum = parents[inum];
+    }
+    return 0;
+  }
+
+  // 向上的步数不超过目录数，防止目录成环
+  private static String path(int inum, int[] parents, String[] names, int maxDepth) {
+    if (inum == MinixFileSystem.ROOT_INODE) {
+      return "/";
+    }
+    StringBuilder sb = new StringBuilder();
+    int current = inum;
+    for (int depth = 0; depth <= maxDepth; depth++) {
+      if (current == MinixFileSystem.ROOT_INODE) {
+        return sb.toString();
+      }
+      if (names[current] == null) {
+        return null;
+      }
+      sb.insert(0, names[current]).insert(0, '/');
+      current = parents[current];
+    }
+    return null;
+  }
+
+  /**
+   * inode 号对应的行，不存在时返回 -1
+   */
+  private int row(int inum) {
+    int row = Arrays.binarySearch(inums, 0, count, inum);
+    return row < 0 ? -1 : row;
+  }
+
+  public long size(int inum) {
+    int row = row(inum);
+    return row < 0 ? -1 : sizes[row] & 0xffff_ffffL;
+  }
+
+  public long mtime(int inum) {
+    int row = row(inum);
+    return row < 0 ? -1 : mtimes[row] & 0xffff_ffffL;
+  }
+
+  public char type(int inum) {
+    int row = row(inum);
+    return row < 0 ? 0 : Inode.type(modes[row]);
+  }
+}
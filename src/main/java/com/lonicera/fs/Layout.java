@@ -0,0 +1,220 @@
+package com.lonicera.fs;
+
+import java.nio.ByteBuffer;
+import lombok.AccessLevel;
+import lombok.Getter;
+
+/**
+ * 由超级块 magic 决定的磁盘格式。
+ * <p>
+ * v1 是 32 字节的 inode 和 16 位的 zone 号，9 个 zone 槽位到二次间接块为止；v2 和 v3 是 64 字节的 inode 和
+ * 32 位的 zone 号，10 个 zone 槽位到三次间接块为止。v3 的目录项的 inode 号也是 32 位，块大小由超级块给出，
+ * v1 和 v2 的块固定为 1KiB。zone 号在索引块、inode 和目录项中都按 int 处理，超过 2^31 的 zone 不支持
+ */
+@Getter
+public final class Layout {
+
+  public static final int MAGIC_V1 = 0x137f;
+  public static final int MAGIC_V1_30 = 0x138f;
+  public static final int MAGIC_V2 = 0x2468;
+  public static final int MAGIC_V2_30 = 0x2478;
+  public static final int MAGIC_V3 = 0x4d5a;
+  public static final int DIRECT_ZONES = 7;
+
+  public static final Layout V1 = new Layout(1, Block.BLOCK_SIZE, 14);
+
+  private final int version;
+  private final int blockSize;
+  private final int nameLength;
+  private final int inodeSize;
+  private final int inodesPerBlock;
+  private final int dirEntrySize;
+  private final int entriesPerBlock;
+  // 索引块中 zone 号的字节数和个数
+  private final int zoneBytes;
+  private final int indexCount;
+  // 间接的级数，zone 槽位共 DIRECT_ZONES + indexLevels 个
+  private final int indexLevels;
+  // 索引能覆盖的块数，超过 int 时取 Integer.MAX_VALUE
+  private final int maxFileBlocks;
+  @Getter(AccessLevel.NONE)
+  private final long[] spans;
+
+  private Layout(int version, int blockSize, int nameLength) {
+    this.version = version;
+    this.blockSize = blockSize;
+    this.nameLength = nameLength;
+    this.inodeSize = version == 1 ? 32 : 64;
+    this.inodesPerBlock = blockSize / inodeSize;
+    this.dirEntrySize = (version == 3 ? 4 : 2) + nameLength;
+    this.entriesPerBlock = blockSize / dirEntrySize;
+    this.zoneBytes = version == 1 ? 2 : 4;
+    this.indexCount = blockSize / zoneBytes;
+    this.indexLevels = version == 1 ? 2 : 3;
+    this.spans = new long[indexLevels + 1];
+    long blocks = DIRECT_ZONES;
+    for (int level = 0; level <= indexLevels; level++) {
+      spans[level] = level == 0 ? 1 : spans[level - 1] * indexCount;
+      blocks += level == 0 ? 0 : spans[level];
+    }
+    this.maxFileBlocks = (int) Math.min(Integer.MAX_VALUE, blocks);
+  }
+
+  /**
+   * @param blockSize 只对 v3 有意义，1024 的 2 的幂倍
+   */
+  public static Layout of(int version, int blockSize, int nameLength) {
+    boolean names = version == 3 ? nameLength == 60 : nameLength == 14 || nameLength == 30;
+    if (version < 1 || version > 3 || !names) {
+      throw new IllegalArgumentException("no minix v" + version + " with " + nameLength
+          + "-char names");
+    }
+    boolean v3Size = blockSize >= Block.BLOCK_SIZE && blockSize <= 64 * 1024
+        && Integer.bitCount(blockSize) == 1;
+    if (version < 3 ? blockSize != Block.BLOCK_SIZE : !v3Size) {
+      throw new IllegalArgumentException("bad block size " + blockSize);
+    }
+    return version == 1 && nameLength == 14 ? V1 : new Layout(version, blockSize, nameLength);
+  }
+
+  public static Layout ofMagic(int magic, int blockSize) {
+    switch (magic) {
+      case MAGIC_V1:
+        return V1;
+      case MAGIC_V1_30:
+        return of(1, Block.BLOCK_SIZE, 30);
+      case MAGIC_V2:
+        return of(2, Block.BLOCK_SIZE, 14);
+      case MAGIC_V2_30:
+        return of(2, Block.BLOCK_SIZE, 30);
+      case MAGIC_V3:
+        return of(3, blockSize, 60);
+      default:
+        throw new CommandExecuteException("unknown magic " + Integer.toHexString(magic));
+    }
+  }
+
+  public int getMagic() {
+    if (version == 3) {
+      return MAGIC_V3;
+    }
+    if (version == 2) {
+      return nameLength == 14 ? MAGIC_V2 : MAGIC_V2_30;
+    }
+    return nameLength == 14 ? MAGIC_V1 : MAGIC_V1_30;
+  }
+
+  public int getZoneCount() {
+    return DIRECT_ZONES + indexLevels;
+  }
+
+  public int getBitsPerBlock() {
+    return blockSize * 8;
+  }
+
+  // level 级间接块覆盖的块数
+  public long span(int level) {
+    return spans[level];
+  }
+
+  public int blocks(long size) {
+    return (int) ((size + blockSize - 1) / blockSize);
+  }
+
+  // 索引块或者 inode 的 zone 槽位中第 slot 个 zone 号
+  int zone(ByteBuffer bytes, int offset, int slot) {
+    return zoneBytes == 2 ? Bytes.u16(bytes, offset + slot * 2)
+        : (int) Bytes.u32(bytes, offset + slot * 4);
+  }
+
+  void putZone(ByteBuffer bytes, int offset, int slot, int zone) {
+    if (zoneBytes == 2) {
+      Bytes.putU16(bytes, offset + slot * 2, zone);
+    } else {
+      Bytes.putU32(bytes, offset + slot * 4, zone & 0xffffffffL);
+    }
+  }
+
+  // 目录项开头的 inode 号
+  int entryInode(ByteBuffer bytes, int offset) {
+    return version == 3 ? (int) Bytes.u32(bytes, offset) : Bytes.u16(bytes, offset);
+  }
+
+  void putEntryInode(ByteBuffer bytes, int offset, int inode) {
+    if (version == 3) {
+      Bytes.putU32(bytes, offset, inode & 0xffffffffL);
+    } else {
+      Bytes.putU16(bytes, offset, inode);
+    }
+  }
+
+  /**
+   * 有 dataBlocks 个数据块的文件需要的索引块数
+   */
+  public int indexBlocks(int dataBlocks) {
+    long rest = dataBlocks - DIRECT_ZONES;
+    int count = 0;
+    for (int level = 1; level <= indexLevels && rest > 0; level++) {
+      long covered = Math.min(rest, span(level));
+      count += indexBlocks(covered, level);
+      rest -= covered;
+    }
+    return count;
+  }
+
+  // level 级间接块覆盖 blocks 个数据块时，它自己和它下面的索引块数
+  private int indexBlocks(long blocks, int level) {
+    if (level == 1) {
+      return 1;
+    }
+    long childSpan = span(level - 1);
+    int count = 1;
+    for (long covered = 0; covered < blocks; covered += childSpan) {
+      count += indexBlocks(Math.min(childSpan, blocks - covered), level - 1);
+    }
+    return count;
+  }
+
+  public interface IndexWriter {
+
+    // 返回 zone 号为 indexZone 的索引块的可写缓冲区
+    ByteBuffer indexBlock(int indexZone);
+  }
+
+  /**
+   * 给顺序排列的 zone 建立索引。zones 从 from 开始先是 indexBlocks(dataBlocks) 个索引块，
+   * 然后是 dataBlocks 个数据块。索引块按一次、二次、三次间接的顺序，每一级先是顶层索引块，再深度优先排列
+   *
+   * @param slots 写入 inode 的 zone 槽位，长度为 getZoneCount()
+   */
+  public void buildIndex(int[] zones, int from, int dataBlocks, int[] slots, IndexWriter writer) {
+    int[] next = {from, from + indexBlocks(dataBlocks)};
+    for (int i = 0; i < Math.min(DIRECT_ZONES, dataBlocks); i++) {
+      slots[i] = zones[next[1]++];
+    }
+    long rest = dataBlocks - DIRECT_ZONES;
+    for (int level = 1; level <= indexLevels && rest > 0; level++) {
+      long covered = Math.min(rest, span(level));
+      slots[DIRECT_ZONES + level - 1] = fillIndex(zones, next, covered, level, writer);
+      rest -= covered;
+    }
+  }
+
+  private int fillIndex(int[] zones, int[] next, long blocks, int level, IndexWriter writer) {
+    int indexZone = zones[next[0]++];
+    ByteBuffer block = writer.indexBlock(indexZone);
+    long childSpan = span(level - 1);
+    int slot = 0;
+    for (long covered = 0; covered < blocks; covered += childSpan) {
+      int zone = level == 1 ? zones[next[1]++]
+          : fillIndex(zones, next, Math.min(childSpan, blocks - covered), level - 1, writer);
+      putZone(block, 0, slot++, zone);
+    }
+    return indexZone;
+  }
+
+  @Override
+  public String toString() {
+    return "minix v" + version + ", " + blockSize + "-byte blocks, " + nameLength + "-char names";
+  }
+}
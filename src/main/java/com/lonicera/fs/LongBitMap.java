@@ -0,0 +1,166 @@
+package com.lonicera.fs;
+
+import com.lonicera.fs.SuperBlock.BitMap;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.function.IntConsumer;
+
+/**
+ * 以 long 为单位处理的位图。磁盘上第 i 位在第 i / 8 字节的第 i % 8 位，按小端读成 long 后正好是第 i / 64 个字的第 i % 64 位。
+ */
+public class LongBitMap implements BitMap {
+
+  private static final int WORD_SHIFT = 6;
+  private static final long WORD_MASK = -1L;
+
+  private final long[] words;
+  private final int size;
+
+  public LongBitMap(int size) {
+    if (size < 0) {
+      throw new IllegalArgumentException("size : " + size);
+    }
+    this.size = size;
+    this.words = new long[(size + 63) >>> WORD_SHIFT];
+  }
+
+  /**
+   * @param size 有效位数，超出部分即使磁盘上置位也忽略
+   */
+  public static LongBitMap map(int size, ByteBuffer... blocks) {
+    LongBitMap bitMap = new LongBitMap(size);
+    int word = 0;
+    for (ByteBuffer block : blocks) {
+      ByteBuffer bytes = block.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+      for (int i = 0; i + 8 <= bytes.limit() && word < bitMap.words.length; i += 8) {
+        bitMap.words[word++] = bytes.getLong(i);
+      }
+    }
+    if ((size & 63) != 0) {
+      bitMap.words[bitMap.words.length - 1] &= WORD_MASK >>> -size;
+    }
+    return bitMap;
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public boolean get(int bit) {
+    checkIndex(bit);
+    return (words[bit >>> WORD_SHIFT] & (1L << bit)) != 0;
+  }
+
+  @Override
+  public int nextClear(int from) {
+    if (from < 0 || from >= size) {
+      return -1;
+    }
+    int u = from >>> WORD_SHIFT;
+    long word = ~words[u] & (WORD_MASK << from);
+    while (true) {
+      if (word != 0) {
+        int bit = (u << WORD_SHIFT) + Long.numberOfTrailingZeros(word);
+        return bit < size ? bit : -1;
+      }
+      if (++u == words.length) {
+        return -1;
+      }
+      word = ~words[u];
+    }
+  }
+
+  @Override
+  public int nextSet(int from) {
+    if (from < 0 || from >= size) {
+      return -1;
+    }
+    int u = from >>> WORD_SHIFT;
+    long word = words[u] & (WORD_MASK << from);
+    while (true) {
+      if (word != 0) {
+        return (u << WORD_SHIFT) + Long.numberOfTrailingZeros(word);
+      }
+      if (++u == words.length) {
+        return -1;
+      }
+      word = words[u];
+    }
+  }
+
+  @Override
+  public int cardinality() {
+    int count = 0;
+    for (long word : words) {
+      count += Long.bitCount(word);
+    }
+    return count;
+  }
+
+  @Override
+  public void set(int from, int to) {
+    checkRange(from, to);
+    if (from == to) {
+      return;
+    }
+    int first = from >>> WORD_SHIFT;
+    int last = (to - 1) >>> WORD_SHIFT;
+    long firstMask = WORD_MASK << from;
+    long lastMask = WORD_MASK >>> -to;
+    if (first == last) {
+      words[first] |= firstMask & lastMask;
+      return;
+    }
+    words[first] |= firstMask;
+    for (int i = first + 1; i < last; i++) {
+      words[i] = WORD_MASK;
+    }
+    words[last] |= lastMask;
+  }
+
+  @Override
+  public void clear(int from, int to) {
+    checkRange(from, to);
+    if (from == to) {
+      return;
+    }
+    int first = from >>> WORD_SHIFT;
+    int last = (to - 1) >>> WORD_SHIFT;
+    long firstMask = WORD_MASK << from;
+    long lastMask = WORD_MASK >>> -to;
+    if (first == last) {
+      words[first] &= ~(firstMask & lastMask);
+      return;
+    }
+    words[first] &= ~firstMask;
+    for (int i = first + 1; i < last; i++) {
+      words[i] = 0;
+    }
+    words[last] &= ~lastMask;
+  }
+
+  @Override
+  public void forEachSet(IntConsumer consumer) {
+    for (int u = 0; u < words.length; u++) {
+      long word = words[u];
+      while (word != 0) {
+        consumer.accept((u << WORD_SHIFT) + Long.numberOfTrailingZeros(word));
+        word &= word - 1;
+      }
+    }
+  }
+
+  private void checkIndex(int bit) {
+    if (bit < 0 || bit >= size) {
+      throw new IndexOutOfBoundsException("bit : " + bit + ", size : " + size);
+    }
+  }
+
+  private void checkRange(int from, int to) {
+    if (from < 0 || to > size || from > to) {
+      throw new IndexOutOfBoundsException("from : " + from + ", to : " + to + ", size : " + size);
+    }
+  }
+}
@@ -0,0 +1,155 @@
+package com.lonicera.fs;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+
+public class MappedBlockDevice implements BlockDevice {
+
+  // 单个映射区 1GiB，超过 2GiB 的映像按区分段映射
+  private static final int CHUNK_SHIFT = 30;
+  private static final long CHUNK_SIZE = 1L << CHUNK_SHIFT;
+  private static final int PAGE_SIZE = 4096;
+
+  private final FileChannel channel;
+  private final long size;
+  private final boolean writable;
+  private final MappedByteBuffer[] chunks;
+
+  public MappedBlockDevice(FileChannel channel) throws IOException {
+    this(channel, false);
+  }
+
+  public MappedBlockDevice(FileChannel channel, boolean writable) throws IOException {
+    this.channel = channel;
+    this.size = channel.size();
+    this.writable = writable;
+    int chunkCount = (int) ((size + CHUNK_SIZE - 1) >>> CHUNK_SHIFT);
+    this.chunks = new MappedByteBuffer[chunkCount];
+    for (int i = 0; i < chunkCount; i++) {
+      long start = (long) i << CHUNK_SHIFT;
+      long length = Math.min(CHUNK_SIZE, size - start);
+      chunks[i] = channel.map(MapMode.READ_ONLY, start, length);
+    }
+  }
+
+  public static MappedBlockDevice open(File file) {
+    return open(file, false);
+  }
+
+  public static MappedBlockDevice open(File file, boolean writable) {
+    try {
+      FileChannel channel = writable
+          ? FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)
+          : FileChannel.open(file.toPath(), StandardOpenOption.READ);
+      return new MappedBlockDevice(channel, writable);
+    } catch (IOException e) {
+      throw new FileSystemParseException(e);
+    }
+  }
+
+  @Override
+  public long size() {
+    return size;
+  }
+
+  @Override
+  public ByteBuffer read(long offset, int length) {
+    if (offset < 0 || length < 0 || offset + length > size) {
+      throw new IllegalStateException("unexpect end");
+    }
+    int index = (int) (offset >>> CHUNK_SHIFT);
+    int position = (int) (offset & (CHUNK_SIZE - 1));
+    MappedByteBuffer chunk = chunks[index];
+    if (position + length <= chunk.capacity()) {
+      return view(chunk, position, length);
+    }
+    // 跨越两个映射区，只有这种情况需要复制
+    ByteBuffer joined = ByteBuffer.allocate(length);
+    while (joined.hasRemaining()) {
+      chunk = chunks[index];
+      int count = Math.min(joined.remaining(), chunk.capacity() - position);
+      joined.put(view(chunk, position, count));
+      index++;
+      position = 0;
+    }
+    joined.flip();
+    return joined.asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  private static ByteBuffer view(MappedByteBuffer chunk, int position, int length) {
+    ByteBuffer view = chunk.duplicate();
+    view.position(position);
+    view.limit(position + length);
+    return view.slice().asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  // 逐页访问一个字节，让缺页发生在预取线程而不是读取线程
+  @Override
+  public void prefetch(long offset, long length) {
+    long end = Math.min(size, offset + length);
+    for (long position = Math.max(0, offset); position < end; position += PAGE_SIZE) {
+      chunks[(int) (position >>> CHUNK_SHIFT)].get((int) (position & (CHUNK_SIZE - 1)));
+    }
+  }
+
+  @Override
+  public long transferTo(long offset, long count, WritableByteChannel target) throws IOException {
+    if (offset < 0 || count < 0 || offset + count > size) {
+      throw new IllegalStateException("unexpect end");
+    }
+    long transferred = 0;
+    while (transferred < count) {
+      long length = channel.transferTo(offset + transferred, count - transferred, target);
+      if (length <= 0) {
+        throw new IllegalStateException("unexpect end");
+      }
+      transferred += length;
+    }
+    return transferred;
+  }
+
+  @Override
+  public boolean isWritable() {
+    return writable;
+  }
+
+  // 映射区是只读共享映射，通过通道写入后映射区能看到同一份页缓存
+  @Override
+  public void write(long offset, ByteBuffer src) {
+    if (!writable) {
+      throw new IllegalStateException("read-only device");
+    }
+    if (offset < 0 || offset + src.remaining() > size) {
+      throw new IllegalStateException("unexpect end");
+    }
+    try {
+      long position = offset;
+      while (src.hasRemaining()) {
+        position += channel.write(src, position);
+      }
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  @Override
+  public void force() {
+    try {
+      channel.force(false);
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+}
@@ -0,0 +1,81 @@
+package com.lonicera.fs;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * 统计设备读写的装饰器。读取的起点不是同一线程上一次读取的终点时计为一次寻道
+ */
+class MeteredBlockDevice implements BlockDevice {
+
+  private final BlockDevice device;
+  private final Metrics metrics;
+  // 每个线程上一次读取的终点，并发读取时互不干扰，也不在线程间共享写入
+  private final ThreadLocal<long[]> position = ThreadLocal.withInitial(() -> new long[]{-1});
+
+  MeteredBlockDevice(BlockDevice device, Metrics metrics) {
+    this.device = device;
+    this.metrics = metrics;
+  }
+
+  private void onRead(long offset, long length) {
+    metrics.deviceReads.increment();
+    metrics.bytesRead.add(length);
+    long[] last = position.get();
+    if (offset != last[0]) {
+      metrics.seeks.increment();
+    }
+    last[0] = offset + length;
+  }
+
+  @Override
+  public long size() {
+    return device.size();
+  }
+
+  @Override
+  public ByteBuffer read(long offset, int length) {
+    onRead(offset, length);
+    return device.read(offset, length);
+  }
+
+  @Override
+  public ByteBuffer readSector(long startSector, int sectorCount) {
+    metrics.sectorReads.add(sectorCount);
+    return read(startSector * Sector.SECTOR_SIZE, sectorCount * Sector.SECTOR_SIZE);
+  }
+
+  @Override
+  public boolean isWritable() {
+    return device.isWritable();
+  }
+
+  @Override
+  public void write(long offset, ByteBuffer src) {
+    metrics.deviceWrites.increment();
+    metrics.bytesWritten.add(src.remaining());
+    device.write(offset, src);
+  }
+
+  @Override
+  public void force() {
+    device.force();
+  }
+
+  @Override
+  public void prefetch(long offset, long length) {
+    device.prefetch(offset, length);
+  }
+
+  @Override
+  public long transferTo(long offset, long count, WritableByteChannel target) throws IOException {
+    onRead(offset, count);
+    return device.transferTo(offset, count, target);
+  }
+
+  @Override
+  public void close() throws IOException {
+    device.close();
+  }
+}
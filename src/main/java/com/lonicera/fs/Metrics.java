@@ -0,0 +1,225 @@
+package com.lonicera.fs;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 文件系统的读写计数和命令耗时。计数器是 LongAdder，多个线程同时累加时不会争用同一个变量，可以一直开启。
+ * 缓存命中数直接取自各个缓存，reset 之后减去 reset 时的值
+ */
+public class Metrics implements MetricsMXBean {
+
+  public static final String OBJECT_NAME = "com.lonicera.fs:type=Metrics";
+
+  final LongAdder deviceReads = new LongAdder();
+  final LongAdder bytesRead = new LongAdder();
+  final LongAdder sectorReads = new LongAdder();
+  final LongAdder seeks = new LongAdder();
+  final LongAdder deviceWrites = new LongAdder();
+  final LongAdder bytesWritten = new LongAdder();
+  final LongAdder blockReads = new LongAdder();
+  final LongAdder inodeReads = new LongAdder();
+
+  private final MinixFileSystem fs;
+  private final Map<String, Histogram> commands = new ConcurrentHashMap<>();
+  // 缓存计数在 reset 时的值
+  private volatile long[] cacheBase = new long[6];
+
+  Metrics(MinixFileSystem fs) {
+    this.fs = fs;
+  }
+
+  /**
+   * 按 2 的幂分桶的耗时直方图，分位数取所在桶的上界
+   */
+  public static class Histogram {
+
+    private final LongAdder[] buckets = new LongAdder[64];
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    private Histogram() {
+      for (int i = 0; i < buckets.length; i++) {
+        buckets[i] = new LongAdder();
+      }
+    }
+
+    public void record(long nanos) {
+      long value = Math.max(0, nanos);
+      buckets[63 - Long.numberOfLeadingZeros(value | 1)].increment();
+      count.increment();
+      sum.add(value);
+      max.accumulate(value);
+    }
+
+    public long getCount() {
+      return count.sum();
+    }
+
+    public long getMeanNanos() {
+      long n = count.sum();
+      return n == 0 ? 0 : sum.sum() / n;
+    }
+
+    public long getMaxNanos() {
+      return max.get();
+    }
+
+    public long percentileNanos(double percentile) {
+      long n = count.sum();
+      long rank = (long) Math.ceil(n * percentile / 100);
+      long seen = 0;
+      for (int i = 0; i < buckets.length; i++) {
+        seen += buckets[i].sum();
+        if (seen >= rank && seen > 0) {
+          long upper = i == 62 ? Long.MAX_VALUE : (2L << i) - 1;
+          return Math.min(upper, max.get());
+        }
+      }
+      return 0;
+    }
+  }
+
+  public void recordCommand(String command, long nanos) {
+    commands.computeIfAbsent(command, key -> new Histogram()).record(nanos);
+  }
+
+  public Histogram command(String command) {
+    return commands.get(command);
+  }
+
+  @Override
+  public long getDeviceReads() {
+    return deviceReads.sum();
+  }
+
+  @Override
+  public long getBytesRead() {
+    return bytesRead.sum();
+  }
+
+  @Override
+  public long getSectorReads() {
+    return sectorReads.sum();
+  }
+
+  @Override
+  public long getSeeks() {
+    return seeks.sum();
+  }
+
+  @Override
+  public long getDeviceWrites() {
+    return deviceWrites.sum();
+  }
+
+  @Override
+  public long getBytesWritten() {
+    return bytesWritten.sum();
+  }
+
+  @Override
+  public long getBlockReads() {
+    return blockReads.sum();
+  }
+
+  @Override
+  public long getInodeReads() {
+    return inodeReads.sum();
+  }
+
+  @Override
+  public long getBufferCacheHits() {
+    return cacheCounters()[0] - cacheBase[0];
+  }
+
+  @Override
+  public long getBufferCacheMisses() {
+    return cacheCounters()[1] - cacheBase[1];
+  }
+
+  @Override
+  public long getInodeCacheHits() {
+    return cacheCounters()[2] - cacheBase[2];
+  }
+
+  @Override
+  public long getInodeCacheMisses() {
+    return cacheCounters()[3] - cacheBase[3];
+  }
+
+  @Override
+  public long getDentryCacheHits() {
+    return cacheCounters()[4] - cacheBase[4];
+  }
+
+  @Override
+  public long getDentryCacheMisses() {
+    return cacheCounters()[5] - cacheBase[5];
+  }
+
+  // 挂载之前缓存还没有创建
+  private long[] cacheCounters() {
+    if (!fs.isMounted()) {
+      return new long[6];
+    }
+    BufferCache bufferCache = fs.getBufferCache();
+    InodeCache inodeCache = fs.getInodeCache();
+    DentryCache dentryCache = fs.getDentryCache();
+    return new long[]{bufferCache.getHits(), bufferCache.getMisses(), inodeCache.getHits(),
+        inodeCache.getMisses(), dentryCache.getHits(), dentryCache.getMisses()};
+  }
+
+  @Override
+  public String[] getCommandLatencies() {
+    Map<String, Histogram> sorted = new TreeMap<>(commands);
+    String[] lines = new String[sorted.size()];
+    int i = 0;
+    for (Map.Entry<String, Histogram> entry : sorted.entrySet()) {
+      Histogram histogram = entry.getValue();
+      lines[i++] = String.format("%-8s %8d %10d %10d %10d %10d", entry.getKey(),
+          histogram.getCount(), histogram.getMeanNanos() / 1000,
+          histogram.percentileNanos(50) / 1000, histogram.percentileNanos(99) / 1000,
+          histogram.getMaxNanos() / 1000);
+    }
+    return lines;
+  }
+
+  @Override
+  public void reset() {
+    deviceReads.reset();
+    bytesRead.reset();
+    sectorReads.reset();
+    seeks.reset();
+    deviceWrites.reset();
+    bytesWritten.reset();
+    blockReads.reset();
+    inodeReads.reset();
+    commands.clear();
+    cacheBase = cacheCounters();
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    sb.append(String.format("device   reads %d, bytes %d, sectors %d, seeks %d\r\n",
+        getDeviceReads(), getBytesRead(), getSectorReads(), getSeeks()));
+    sb.append(String.format("device   writes %d, bytes %d\r\n", getDeviceWrites(),
+        getBytesWritten()));
+    sb.append(String.format("fs       block reads %d, inode reads %d\r\n", getBlockReads(),
+        getInodeReads()));
+    sb.append(String.format("cache    buffer %d/%d, inode %d/%d, dentry %d/%d (hits/misses)\r\n",
+        getBufferCacheHits(), getBufferCacheMisses(), getInodeCacheHits(),
+        getInodeCacheMisses(), getDentryCacheHits(), getDentryCacheMisses()));
+    sb.append(String.format("%-8s %8s %10s %10s %10s %10s", "command", "count", "mean(us)",
+        "p50(us)", "p99(us)", "max(us)"));
+    for (String line : getCommandLatencies()) {
+      sb.append("\r\n").append(line);
+    }
+    return sb.toString();
+  }
+}
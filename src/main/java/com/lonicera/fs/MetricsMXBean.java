@@ -0,0 +1,42 @@
+package com.lonicera.fs;
+
+/**
+ * 通过 JMX 暴露的读写统计，名称为 com.lonicera.fs:type=Metrics
+ */
+public interface MetricsMXBean {
+
+  long getDeviceReads();
+
+  long getBytesRead();
+
+  long getSectorReads();
+
+  long getSeeks();
+
+  long getDeviceWrites();
+
+  long getBytesWritten();
+
+  long getBlockReads();
+
+  long getInodeReads();
+
+  long getBufferCacheHits();
+
+  long getBufferCacheMisses();
+
+  long getInodeCacheHits();
+
+  long getInodeCacheMisses();
+
+  long getDentryCacheHits();
+
+  long getDentryCacheMisses();
+
+  /**
+   * 每个命令一行：次数，平均、p50、p99 和最大耗时（微秒）
+   */
+  String[] getCommandLatencies();
+
+  void reset();
+}
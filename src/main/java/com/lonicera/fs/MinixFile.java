@@ -0,0 +1,74 @@
+package com.lonicera.fs;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import lombok.Getter;
+
+/**
+ * 已打开的普通文件，读取只修改加锁的预读窗口，可以被多个线程同时使用。只保存 inode 号，每次操作取最新的 inode
+ */
+public class MinixFile {
+
+  private final MinixFileSystem fs;
+  @Getter
+  private final int inum;
+  // 按本文件的读取位置调整，顺序读取时逐步扩大预读，随机读取时退回初始大小
+  private final ReadaheadWindow readahead;
+
+  MinixFile(MinixFileSystem fs, Inode inode) {
+    this.fs = fs;
+    this.inum = inode.getInum();
+    this.readahead = fs.newReadaheadWindow();
+  }
+
+  public Inode getInode() {
+    return fs.readInode(inum);
+  }
+
+  public long size() {
+    return getInode().getIsize();
+  }
+
+  /**
+   * @return 读取的字节数，position 不小于文件大小时返回 -1
+   */
+  public int read(ByteBuffer dst, long position) {
+    if (position < 0) {
+      throw new IllegalArgumentException("position");
+    }
+    Inode inode = getInode();
+    int read = fs.read(inode, dst, position);
+    fs.readahead(inode, readahead, position, read);
+    return read;
+  }
+
+  /**
+   * @return 写入的字节数
+   */
+  public int write(ByteBuffer src, long position) {
+    if (position < 0) {
+      throw new IllegalArgumentException("position");
+    }
+    return fs.write(getInode(), src, position);
+  }
+
+  // 写操作以文件系统为锁，取大小和写入之间不会插入其他写操作
+  public int append(ByteBuffer src) {
+    synchronized (fs) {
+      return fs.write(getInode(), src, size());
+    }
+  }
+
+  public void truncate(long size) {
+    fs.truncate(getInode(), size);
+  }
+
+  public void writeTo(WritableByteChannel target) {
+    fs.writeTo(getInode(), target);
+  }
+
+  public void writeTo(OutputStream target) {
+    fs.writeTo(getInode(), target);
+  }
+}
@@ -0,0 +1,1266 @@
+package com.lonicera.fs;
+
+import com.lonicera.fs.BootSector.Partition;
+import com.lonicera.fs.SuperBlock.BitMap;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+import lombok.Getter;
+
+/**
+ * 一个已打开的磁盘映像。挂载分区后可以被多个线程同时使用，每个线程的当前目录保存在各自的 {@link Session} 中。
+ * <p>
+ * 以读写方式打开时支持创建、写入、截断、建目录和删除。写操作之间互斥，修改只进入缓冲区，
+ * 脏块超过上限、sync 或 close 时按块号顺序批量写回。
+ */
+public class MinixFileSystem implements Closeable {
+
+  public static final int ROOT_INODE = 1;
+
+  // 缓冲区容量（块数），默认 1024 块即 1MiB
+  private static final int BUFFER_CACHE_BLOCKS = Integer.getInteger("fs.cache.blocks", 1024);
+  // inode 缓存容量（inode 表块数），默认 256 块即 8192 个 inode
+  private static final int INODE_CACHE_BLOCKS = Integer.getInteger("fs.inode.cache.blocks", 256);
+  // 目录项缓存容量，以及建立了 hash 索引的目录数量
+  private static final int DENTRY_CACHE_ENTRIES = Integer.getInteger("fs.dcache.entries", 4096);
+  private static final int DENTRY_CACHE_DIRS = Integer.getInteger("fs.dcache.dirs", 128);
+  private static final int COPY_BUFFER_SIZE = 64 * 1024;
+  // 顺序读取时预读窗口的上限（块数）
+  private static final int READAHEAD_MAX_BLOCKS = Integer.getInteger("fs.readahead.blocks", 64);
+  // 并发预取间接索引块的线程数，0 表示关闭预取
+  private static final int PREFETCH_THREADS = Integer.getInteger("fs.prefetch.threads", 4);
+  // 脏块数量达到上限时写回
+  private static final int DIRTY_LIMIT_BLOCKS = Integer.getInteger("fs.cache.dirty.blocks", 4096);
+
+  private static final int DIRECT_ZONES = Layout.DIRECT_ZONES;
+  static final int REGULAR_MODE = 0_100644;
+  static final int DIR_MODE = 0_040755;
+
+  private final BlockDevice device;
+  private final Partition[] partitions;
+  @Getter
+  private final Metrics metrics;
+
+  private int partitionStartSect;
+  // 挂载前按 v1 的 1KiB 块读取超级块
+  private Layout layout = Layout.V1;
+  private int inodeStartBlock;
+  private BitMap inodeMap;
+  private BitMap zoneMap;
+  // 分配 zone 时从这里开始查找空闲位，让连续写入的块尽量连续
+  private int zoneHint = 1;
+  private BufferCache bufferCache;
+  private InodeCache inodeCache;
+  private DentryCache dentryCache;
+  // 目录中这个位置之前没有空闲目录项，新增目录项时从这里开始查找
+  private final Map<Integer, Long> freeEntryHints =
+      new LinkedHashMap<Integer, Long>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Long> eldest) {
+          return size() > DENTRY_CACHE_DIRS;
+        }
+      };
+  private ExecutorService prefetchExecutor;
+  // 挂载时最后写入，读到非空即可看到挂载时设置的全部状态
+  private volatile SuperBlock superBlock;
+  // 位图、inode 或者直接写入的块被修改时加一，缓存的派生索引据此判断是否过期
+  private final AtomicLong modifications = new AtomicLong();
+
+  private MinixFileSystem(BlockDevice device) {
+    this.metrics = new Metrics(this);
+    this.device = new MeteredBlockDevice(device, metrics);
+    this.partitions = fdisk(this.device);
+  }
+
+  public static MinixFileSystem open(File image) {
+    return open(image, false);
+  }
+
+  /**
+   * 默认使用内存映射读取映像，-Dfs.device=channel 时改用 FileChannel 定位读取
+   */
+  public static MinixFileSystem open(File image, boolean writable) {
+    if ("channel".equals(System.getProperty("fs.device"))) {
+      return open(FileChannelBlockDevice.open(image, writable));
+    }
+    return open(MappedBlockDevice.open(image, writable));
+  }
+
+  public static MinixFileSystem open(BlockDevice device) {
+    return new MinixFileSystem(device);
+  }
+
+  private static Partition[] fdisk(BlockDevice device) {
+    BootSector bootSector = BootSector.map(device.readSector(0, 1));
+    return new Partition[]{bootSector.getP1(), bootSector.getP2(), bootSector.getP3(),
+        bootSector.getP4()};
+  }
+
+  public Partition[] partitions() {
+    return partitions.clone();
+  }
+
+  // 引导块 + 超级块 + inode Map + zone Map + blocks
+  public synchronized void mount(int index) {
+    if (superBlock != null) {
+      throw new IllegalStateException("already mounted");
+    }
+    if (index < 0 || index >= partitions.length) {
+      throw new CommandExecuteException("index overflow.");
+    }
+    Partition partition = partitions[index];
+    // 扇区 sector : 512 byte  块 block : 1024byte
+    // 1. 两个扇区为一个逻辑块
+    // 2. 文件系统的基本单位是块
+    // 3. boot分区的 0 扇区是cpu启动时需要校验的块，510 511 byte需要校验
+    partitionStartSect = partition.getStartSect();
+    bufferCache = new BufferCache(this::readDiskBlock, BUFFER_CACHE_BLOCKS);
+
+    // 4. 读取分区的超级块，超级块是分区的 1 号块（0 号是引导块），常驻缓冲区。
+    // magic 决定磁盘格式，v3 的块大于 1KiB 时超级块位于 0 号块的第 1024 字节处，按新的块大小重新读取
+    SuperBlock superBlock = SuperBlock.map(bufferCache.pin(1));
+    Layout layout = superBlock.getLayout();
+    if (layout.getBlockSize() != Block.BLOCK_SIZE) {
+      this.layout = layout;
+      bufferCache = new BufferCache(this::readDiskBlock, BUFFER_CACHE_BLOCKS,
+          layout.getBlockSize());
+      ByteBuffer bytes = bufferCache.pin(0);
+      bytes.position(Block.BLOCK_SIZE);
+      bytes.limit(2 * Block.BLOCK_SIZE);
+      superBlock = SuperBlock.map(bytes.slice());
+    }
+    this.layout = layout;
+    prefetchExecutor = PREFETCH_THREADS > 0 ? IndexPrefetcher.newExecutor(PREFETCH_THREADS) : null;
+
+    // 5. 从超级块中读取 inode 位图和 zone 位图的块数量
+    int imapBlocks = superBlock.getImapBlocks();
+    int zmapBlocks = superBlock.getZmapBlocks();
+
+    // 6. inode 表的开始块 = 引导块 + 超级块 + 块位图 + 区位图
+    inodeStartBlock = 2 + imapBlocks + zmapBlocks;
+
+    inodeCache = new InodeCache(layout, this::readBlock, inodeStartBlock,
+        superBlock.getNinodes(), INODE_CACHE_BLOCKS);
+    dentryCache = new DentryCache(this::list, DENTRY_CACHE_ENTRIES, DENTRY_CACHE_DIRS);
+    // 位图第 0 位保留，inode 位图第 i 位对应 i 号 inode，zone 位图第 i 位对应 firstDatazone + i - 1 号 zone
+    inodeMap = readBitMap(2, imapBlocks, superBlock.getNinodes() + 1);
+    zoneMap = readBitMap(2 + imapBlocks, zmapBlocks,
+        superBlock.getNzones() - superBlock.getFirstDatazone() + 1);
+    this.superBlock = superBlock;
+  }
+
+  private BitMap readBitMap(int startBlock, int blockCount, int size) {
+    ByteBuffer[] blocks = new ByteBuffer[blockCount];
+    for (int i = 0; i < blockCount; i++) {
+      blocks[i] = readDiskBlock(startBlock + i);
+    }
+    return LongBitMap.map(size, blocks);
+  }
+
+  public Session newSession() {
+    checkMounted();
+    return new Session(this);
+  }
+
+  // 根目录在写操作后会变化，每次从 inode 缓存中取
+  public Inode root() {
+    checkMounted();
+    return inodeCache.get(ROOT_INODE);
+  }
+
+  /**
+   * @param path 绝对路径，相对路径也从根目录开始解析
+   */
+  public Inode stat(String path) {
+    return lookup(root(), path);
+  }
+
+  public List<DirEntry> list(String path) {
+    return list(stat(path));
+  }
+
+  public MinixFile open(String path) {
+    return open(stat(path));
+  }
+
+  public MinixFile open(Inode inode) {
+    if (inode.isDir()) {
+      throw new CommandExecuteException("target is a dir");
+    }
+    return new MinixFile(this, inode);
+  }
+
+  /**
+   * 从 base 开始解析路径，以 / 开头时从根目录开始
+   */
+  public Inode lookup(Inode base, String path) {
+    Inode parent = path.startsWith("/") ? root() : base;
+    for (String seg : path.split("/")) {
+      if (!seg.isEmpty()) {
+        parent = childInode(parent, seg);
+      }
+    }
+    return parent;
+  }
+
+  DirEntry childEntry(Inode parent, String name) {
+    if (!parent.isDir()) {
+      throw new CommandExecuteException("path is not a dir");
+    }
+    DirEntry entry = dentryCache.lookup(parent, name);
+    if (entry == null) {
+      throw new CommandExecuteException("path not exists");
+    }
+    return entry;
+  }
+
+  private Inode childInode(Inode parent, String name) {
+    return readInode(childEntry(parent, name).getInode());
+  }
+
+  public List<DirEntry> list(Inode inode) {
+    List<DirEntry> dirList = new ArrayList<>();
+    iterate(inode).forEachRemaining(dirList::add);
+    return dirList;
+  }
+
+  /**
+   * 第 offset 个目录项开始的至多 limit 个目录项
+   */
+  public List<DirEntry> list(Inode inode, long offset, int limit) {
+    DirEntryIterator itr = iterate(inode);
+    itr.skip(offset);
+    List<DirEntry> dirList = new ArrayList<>();
+    while (dirList.size() < limit && itr.hasNext()) {
+      dirList.add(itr.next());
+    }
+    return dirList;
+  }
+
+  /**
+   * 逐块读取目录项，适合很大的目录
+   */
+  public DirEntryIterator iterate(Inode inode) {
+    if (inode.getType() != 'd') {
+      throw new CommandExecuteException("target is not dir");
+    }
+    return new DirEntryIterator(layout, readZoneBlockIterator(inode));
+  }
+
+  public Inode readInode(int inum) {
+    checkMounted();
+    metrics.inodeReads.increment();
+    return inodeCache.get(inum);
+  }
+
+  public Inode[] readInodes(int[] inums) {
+    checkMounted();
+    metrics.inodeReads.add(inums.length);
+    return inodeCache.getAll(inums);
+  }
+
+  public ByteBuffer readBlock(int block) {
+    metrics.blockReads.increment();
+    return bufferCache.get(block);
+  }
+
+  private ByteBuffer readDiskBlock(int block) {
+    return device.read(blockOffset(block), layout.getBlockSize());
+  }
+
+  private IndexBlock readIndexBlock(int block) {
+    return IndexBlock.map(layout, readBlock(block));
+  }
+
+  long blockOffset(int block) {
+    return (long) partitionStartSect * Sector.SECTOR_SIZE + (long) block * layout.getBlockSize();
+  }
+
+  long deviceSize() {
+    return device.size();
+  }
+
+  BlockIndexItr blockIndexItr(Inode inode) {
+    int[] zones = inode.getIzone();
+    IndexPrefetcher prefetcher = newPrefetcher(zones[7], zones[8]);
+    if (prefetcher == null) {
+      return new BlockIndexItr(layout, zones, this::readIndexBlock);
+    }
+    return new BlockIndexItr(layout, zones, prefetcher::get);
+  }
+
+  private IndexPrefetcher newPrefetcher(int indirect, int doubleIndirect) {
+    if (prefetchExecutor == null || (indirect == 0 && doubleIndirect == 0)) {
+      return null;
+    }
+    IndexPrefetcher prefetcher = new IndexPrefetcher(layout, this::readBlock,
+        zone -> device.prefetch(blockOffset(zone), layout.getBlockSize()), prefetchExecutor,
+        indirect, doubleIndirect);
+    prefetcher.start();
+    return prefetcher;
+  }
+
+  ExtentItr extentItr(Inode inode) {
+    return new ExtentItr(blockIndexItr(inode), inode.getIsize(), layout.getBlockSize());
+  }
+
+  /**
+   * 逐块返回文件内容。相邻的区号合并为区段，区段内按预读窗口一次读取多个块
+   */
+  Iterator<ByteBuffer> readZoneBlockIterator(Inode inode) {
+    ExtentItr extentItr = extentItr(inode);
+    ReadaheadWindow window = new ReadaheadWindow(1, READAHEAD_MAX_BLOCKS);
+    return new Iterator<ByteBuffer>() {
+
+      private Extent extent;
+      private int extentBlock;
+      private long extentRemaining;
+      private ByteBuffer chunk;
+      private long logicalBlock;
+
+      @Override
+      public boolean hasNext() {
+        return (chunk != null && chunk.hasRemaining())
+            || (extent != null && extentRemaining > 0)
+            || extentItr.hasNext();
+      }
+
+      @Override
+      public ByteBuffer next() {
+        if (chunk == null || !chunk.hasRemaining()) {
+          chunk = readChunk();
+        }
+        ByteBuffer bytes = chunk.duplicate();
+        bytes.limit(Math.min(chunk.limit(), chunk.position() + layout.getBlockSize()));
+        chunk.position(bytes.limit());
+        logicalBlock++;
+        return bytes.slice();
+      }
+
+      private ByteBuffer readChunk() {
+        if (extent == null || extentRemaining == 0) {
+          extent = extentItr.next();
+          extentBlock = 0;
+          extentRemaining = extent.getLength();
+        }
+        int count = window.next(logicalBlock, extent.getBlocks() - extentBlock);
+        int length = (int) Math.min(extentRemaining, (long) count * layout.getBlockSize());
+        ByteBuffer bytes;
+        if (extent.isHole()) {
+          bytes = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        } else if (count == 1) {
+          bytes = readBlock(extent.getZone() + extentBlock);
+        } else {
+          bytes = readZones(extent.getZone() + extentBlock, 0, length);
+        }
+        bytes.limit(length);
+        extentBlock += count;
+        extentRemaining -= length;
+        return bytes;
+      }
+    };
+  }
+
+  /**
+   * 从文件的 position 处读取内容到 dst。用 bmap 直接定位 position 所在的块，不读取之前的索引块，
+   * 物理上相邻的块一次读取，空洞读出 0
+   *
+   * @return 读取的字节数，position 不小于文件大小时返回 -1
+   */
+  int read(Inode inode, ByteBuffer dst, long position) {
+    long size = inode.getIsize();
+    if (position >= size) {
+      return -1;
+    }
+    int read = 0;
+    int blockSize = layout.getBlockSize();
+    while (dst.hasRemaining() && position < size) {
+      int block = (int) (position / blockSize);
+      int skip = (int) (position % blockSize);
+      long wanted = Math.min(dst.remaining(), size - position);
+      int maxBlocks = layout.blocks(skip + wanted);
+      int zone = bmap(inode, block);
+      int blocks = 1;
+      while (blocks < maxBlocks
+          && bmap(inode, block + blocks) == (zone == 0 ? 0 : zone + blocks)) {
+        blocks++;
+      }
+      int length = (int) Math.min(wanted, (long) blocks * blockSize - skip);
+      if (zone == 0) {
+        putZeros(dst, length);
+      } else {
+        dst.put(readZones(zone, skip, length));
+      }
+      position += length;
+      read += length;
+    }
+    return read;
+  }
+
+  ReadaheadWindow newReadaheadWindow() {
+    return new ReadaheadWindow(1, READAHEAD_MAX_BLOCKS);
+  }
+
+  /**
+   * 读取 [position, position + length) 之后，按 window 提示设备预读后面的块。物理相邻的块合并为一次提示，
+   * 设备预读在预取线程中进行，关闭预取时不预读
+   */
+  void readahead(Inode inode, ReadaheadWindow window, long position, int length) {
+    if (prefetchExecutor == null || length <= 0) {
+      return;
+    }
+    int blockSize = layout.getBlockSize();
+    long from;
+    int count;
+    synchronized (window) {
+      count = window.onRead(position / blockSize, layout.blocks(position + length));
+      from = window.getAhead() - count;
+    }
+    long last = Math.min(from + count, layout.blocks(inode.getIsize()));
+    int runZone = 0;
+    int runLength = 0;
+    for (long block = from; block < last; block++) {
+      int zone = bmap(inode, (int) block);
+      if (runLength > 0 && zone == runZone + runLength) {
+        runLength++;
+        continue;
+      }
+      prefetchZones(runZone, runLength);
+      runZone = zone;
+      runLength = zone == 0 ? 0 : 1;
+    }
+    prefetchZones(runZone, runLength);
+  }
+
+  private void prefetchZones(int zone, int count) {
+    if (count > 0) {
+      long offset = blockOffset(zone);
+      long length = (long) count * layout.getBlockSize();
+      prefetchExecutor.execute(() -> device.prefetch(offset, length));
+    }
+  }
+
+  private static void putZeros(ByteBuffer dst, int length) {
+    if (dst.hasArray()) {
+      int from = dst.arrayOffset() + dst.position();
+      Arrays.fill(dst.array(), from, from + length, (byte) 0);
+      dst.position(dst.position() + length);
+    } else {
+      for (int i = 0; i < length; i++) {
+        dst.put((byte) 0);
+      }
+    }
+  }
+
+  /**
+   * 读取文件 [offset, offset + length) 的内容，超过文件末尾的部分不读取
+   */
+  public ByteBuffer read(Inode inode, long offset, int length) {
+    if (offset < 0 || length < 0) {
+      throw new IllegalArgumentException("offset");
+    }
+    if (inode.isDir()) {
+      throw new CommandExecuteException("target is a dir");
+    }
+    long size = inode.getIsize();
+    ByteBuffer bytes = ByteBuffer.allocate((int) Math.max(0, Math.min(length, size - offset)));
+    if (bytes.hasRemaining()) {
+      read(inode, bytes, offset);
+    }
+    bytes.flip();
+    return bytes;
+  }
+
+  public ByteBuffer read(String path, long offset, int length) {
+    return read(stat(path), offset, length);
+  }
+
+  /**
+   * 按字节原样输出文件内容，物理连续的区段由设备一次传输
+   */
+  void writeTo(Inode inode, WritableByteChannel target) {
+    writeTo(extentItr(inode), target);
+  }
+
+  /**
+   * 依次输出各个区段，区段可以事先从 extentItr 取出
+   */
+  void writeTo(Iterator<Extent> itr, WritableByteChannel target) {
+    try {
+      while (itr.hasNext()) {
+        Extent extent = itr.next();
+        if (extent.isHole()) {
+          writeHole(extent.getLength(), target);
+        } else if (hasDirty(extent.getZone(), extent.getBlocks())) {
+          ByteBuffer bytes = readZones(extent.getZone(), 0, (int) extent.getLength());
+          while (bytes.hasRemaining()) {
+            target.write(bytes);
+          }
+        } else {
+          device.transferTo(blockOffset(extent.getZone()), extent.getLength(), target);
+        }
+      }
+    } catch (IOException e) {
+      throw new FileSystemParseException(e);
+    }
+  }
+
+  // 可以定位的通道跳过空洞，其它通道写入 0
+  private static void writeHole(long length, WritableByteChannel target) throws IOException {
+    if (target instanceof SeekableByteChannel) {
+      SeekableByteChannel channel = (SeekableByteChannel) target;
+      channel.position(channel.position() + length);
+      return;
+    }
+    ByteBuffer zeros = ByteBuffer.allocate((int) Math.min(length, COPY_BUFFER_SIZE));
+    long remaining = length;
+    while (remaining > 0) {
+      zeros.clear();
+      zeros.limit((int) Math.min(remaining, zeros.capacity()));
+      remaining -= zeros.remaining();
+      while (zeros.hasRemaining()) {
+        target.write(zeros);
+      }
+    }
+  }
+
+  void writeTo(Inode inode, OutputStream target) {
+    byte[] buffer = new byte[COPY_BUFFER_SIZE];
+    ExtentItr itr = extentItr(inode);
+    try {
+      while (itr.hasNext()) {
+        Extent extent = itr.next();
+        long position = 0;
+        long remaining = extent.getLength();
+        if (extent.isHole()) {
+          Arrays.fill(buffer, (byte) 0);
+        }
+        while (remaining > 0) {
+          int length = (int) Math.min(remaining, buffer.length);
+          if (!extent.isHole()) {
+            readZones(extent.getZone(), position, length).get(buffer, 0, length);
+          }
+          target.write(buffer, 0, length);
+          position += length;
+          remaining -= length;
+        }
+      }
+    } catch (IOException e) {
+      throw new FileSystemParseException(e);
+    }
+  }
+
+  /**
+   * 读取从 zone 开始的连续块中 [skip, skip + length) 的内容。范围内有未写回的脏块时从缓冲区拼接，否则直接读设备
+   */
+  private ByteBuffer readZones(int zone, long skip, int length) {
+    int blockSize = layout.getBlockSize();
+    int first = (int) (skip / blockSize);
+    int last = (int) ((skip + length - 1) / blockSize);
+    if (!hasDirty(zone + first, last - first + 1)) {
+      return device.read(blockOffset(zone) + skip, length);
+    }
+    ByteBuffer bytes = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+    long position = skip;
+    while (bytes.hasRemaining()) {
+      ByteBuffer block = readBlock(zone + (int) (position / blockSize));
+      block.position((int) (position % blockSize));
+      if (block.remaining() > bytes.remaining()) {
+        block.limit(block.position() + bytes.remaining());
+      }
+      position += block.remaining();
+      bytes.put(block);
+    }
+    bytes.flip();
+    return bytes;
+  }
+
+  /**
+   * 顺序读取 inode 表中从第 fromBlock 块开始的 count 块，不经过 inode 缓存
+   */
+  ByteBuffer readInodeTable(int fromBlock, int count) {
+    checkMounted();
+    return readZones(inodeStartBlock, (long) fromBlock * layout.getBlockSize(),
+        count * layout.getBlockSize());
+  }
+
+  private boolean hasDirty(int zone, int blocks) {
+    return device.isWritable() && bufferCache.isDirty(zone, blocks);
+  }
+
+  /**
+   * 文件第 logicalBlock 块所在的 zone，没有分配时返回 0。按块号直接算出在直接块还是哪一级间接块中，
+   * 每一级只读取一个索引块
+   */
+  int bmap(Inode inode, int logicalBlock) {
+    if (logicalBlock < 0 || logicalBlock >= layout.getMaxFileBlocks()) {
+      return 0;
+    }
+    if (logicalBlock < DIRECT_ZONES) {
+      return inode.getZone(logicalBlock);
+    }
+    int[] path = indexPath(logicalBlock);
+    int zone = inode.getZone(path[0]);
+    for (int i = 1; i < path.length && zone != 0; i++) {
+      zone = readIndexBlock(zone).index(path[i]);
+    }
+    return zone;
+  }
+
+  /**
+   * 第 logicalBlock 块（不在直接块中）的查找路径：path[0] 是 inode 的 zone 槽位，之后是从顶层开始各级索引块中的下标
+   */
+  private int[] indexPath(int logicalBlock) {
+    long index = logicalBlock - DIRECT_ZONES;
+    int level = 1;
+    while (index >= layout.span(level)) {
+      index -= layout.span(level);
+      level++;
+    }
+    int[] path = new int[level + 1];
+    path[0] = DIRECT_ZONES + level - 1;
+    for (int depth = level - 1; depth >= 0; depth--) {
+      path[level - depth] = (int) (index / layout.span(depth) % layout.getIndexCount());
+    }
+    return path;
+  }
+
+  /**
+   * 文件占用的 zone 数，包括索引块。设备文件的 i_zone[0] 是设备号，不占用 zone
+   */
+  int countZones(Inode inode) {
+    if (!inode.hasZones()) {
+      return 0;
+    }
+    int count = 0;
+    for (int i = 0; i < DIRECT_ZONES; i++) {
+      if (inode.getZone(i) != 0) {
+        count++;
+      }
+    }
+    for (int level = 1; level <= layout.getIndexLevels(); level++) {
+      int zone = inode.getZone(DIRECT_ZONES + level - 1);
+      if (zone != 0) {
+        count += countIndex(zone, level);
+      }
+    }
+    return count;
+  }
+
+  // level 级索引块自己和它下面的全部 zone
+  private int countIndex(int indexZone, int level) {
+    int count = 1;
+    for (int zone : readIndexBlock(indexZone).indexes()) {
+      if (zone != 0) {
+        count += level == 1 ? 1 : countIndex(zone, level - 1);
+      }
+    }
+    return count;
+  }
+
+  /**
+   * 在 base 下按路径创建空的普通文件
+   */
+  public synchronized Inode create(Inode base, String path) {
+    return createNode(base, path, REGULAR_MODE);
+  }
+
+  public synchronized Inode mkdir(Inode base, String path) {
+    return createNode(base, path, DIR_MODE);
+  }
+
+  private Inode createNode(Inode base, String path, int mode) {
+    checkWritable();
+    String[] parentAndName = splitPath(path);
+    Inode parent = lookup(base, parentAndName[0]);
+    String name = parentAndName[1];
+    checkName(name);
+    if (childEntryOrNull(parent, name) != null) {
+      throw new CommandExecuteException("file exists");
+    }
+    boolean dir = Inode.type(mode) == 'd';
+    int inum = allocInode();
+    try {
+      Inode inode = writableInode(inum);
+      inode.clear();
+      inode.setImode(mode);
+      inode.setTimes(now());
+      inode.setInlinks(1);
+      if (dir) {
+        inode.setInlinks(2);
+        addEntry(inum, ".", inum);
+        addEntry(inum, "..", parent.getInum());
+      }
+      addEntry(parent.getInum(), name, inum);
+    } catch (CommandExecuteException e) {
+      truncateBlocks(writableInode(inum), 0);
+      freeInode(inum);
+      throw e;
+    }
+    if (dir) {
+      Inode writableParent = writableInode(parent.getInum());
+      writableParent.setInlinks(writableParent.getInlinks() + 1);
+    }
+    writeBackIfNeeded();
+    return readInode(inum);
+  }
+
+  /**
+   * 删除目录项，链接数减到 0 时释放 inode 和它的全部 zone。目录必须为空
+   */
+  public synchronized void unlink(Inode base, String path) {
+    checkWritable();
+    String[] parentAndName = splitPath(path);
+    Inode parent = lookup(base, parentAndName[0]);
+    String name = parentAndName[1];
+    if (name.isEmpty() || name.equals(".") || name.equals("..")) {
+      throw new CommandExecuteException("invalid argument");
+    }
+    Inode target = readInode(childEntry(parent, name).getInode());
+    boolean dir = target.isDir();
+    if (dir && list(target).size() > 2) {
+      throw new CommandExecuteException("directory not empty");
+    }
+    removeEntry(parent.getInum(), name);
+    Inode inode = writableInode(target.getInum());
+    int nlinks = inode.getInlinks() - 1;
+    if (dir) {
+      // 目录的 . 指向自己，父目录的 .. 链接随之减少
+      nlinks = 0;
+      Inode writableParent = writableInode(parent.getInum());
+      writableParent.setInlinks(writableParent.getInlinks() - 1);
+      dentryCache.invalidate(target.getInum());
+      freeEntryHints.remove(target.getInum());
+    }
+    if (nlinks > 0) {
+      inode.setInlinks(nlinks);
+    } else {
+      truncateBlocks(inode, 0);
+      freeInode(target.getInum());
+    }
+    writeBackIfNeeded();
+  }
+
+  /**
+   * 把 src 的剩余内容写到文件的 position 处，超过文件末尾时文件变长，中间的空隙填 0
+   *
+   * @return 写入的字节数
+   */
+  synchronized int write(Inode inode, ByteBuffer src, long position) {
+    checkWritable();
+    if (inode.isDir()) {
+      throw new CommandExecuteException("target is a dir");
+    }
+    long end = position + src.remaining();
+    checkFileSize(end);
+    int inum = inode.getInum();
+    Inode writable = writableInode(inum);
+    if (position > writable.getIsize()) {
+      extend(writable, position);
+    }
+    int written = 0;
+    int blockSize = layout.getBlockSize();
+    while (src.hasRemaining()) {
+      int offset = (int) (position % blockSize);
+      int length = Math.min(blockSize - offset, src.remaining());
+      ByteBuffer block = bufferCache.getForWrite(bmapAlloc(writable, (int) (position / blockSize)));
+      ByteBuffer part = src.duplicate();
+      part.limit(part.position() + length);
+      block.position(offset);
+      block.put(part);
+      src.position(src.position() + length);
+      position += length;
+      written += length;
+      if (bufferCache.dirtyCount() >= DIRTY_LIMIT_BLOCKS) {
+        // 写回后 inode 所在的块可能被淘汰，重新取得可写视图
+        flush();
+        writable = writableInode(inum);
+      }
+    }
+    if (end > writable.getIsize()) {
+      writable.setIsize(end);
+    }
+    writable.setImtime(now());
+    writeBackIfNeeded();
+    return written;
+  }
+
+  synchronized void truncate(Inode inode, long size) {
+    checkWritable();
+    if (inode.isDir()) {
+      throw new CommandExecuteException("target is a dir");
+    }
+    checkFileSize(size);
+    Inode writable = writableInode(inode.getInum());
+    long oldSize = writable.getIsize();
+    if (size > oldSize) {
+      extend(writable, size);
+    } else if (size < oldSize) {
+      truncateBlocks(writable, size);
+    }
+    writable.setIsize(size);
+    writable.setImtime(now());
+    writeBackIfNeeded();
+  }
+
+  /**
+   * 把缓冲区中的修改写回映像并刷到存储设备
+   */
+  public synchronized void sync() {
+    checkMounted();
+    if (device.isWritable()) {
+      flush();
+      device.force();
+    }
+  }
+
+  private void flush() {
+    bufferCache.flush((block, bytes) -> device.write(blockOffset(block), bytes));
+  }
+
+  void writeBackIfNeeded() {
+    if (bufferCache.dirtyCount() >= DIRTY_LIMIT_BLOCKS) {
+      flush();
+    }
+  }
+
+  // 文件从当前大小扩展到 size，新增的部分不分配块，作为空洞读出 0；原来末块中文件末尾之后的部分清 0
+  private void extend(Inode inode, long size) {
+    long oldSize = inode.getIsize();
+    int tail = (int) (oldSize % layout.getBlockSize());
+    if (tail != 0) {
+      int zone = bmap(inode, (int) (oldSize / layout.getBlockSize()));
+      if (zone != 0) {
+        zero(bufferCache.getForWrite(zone), tail);
+      }
+    }
+    inode.setIsize(size);
+  }
+
+  // 释放 size 之后的数据块和不再需要的索引块，末块中 size 之后的部分清 0
+  private void truncateBlocks(Inode inode, long size) {
+    int keep = layout.blocks(size);
+    for (int block = keep; block < layout.blocks(inode.getIsize()); block++) {
+      int zone = bmapClear(inode, block);
+      if (zone != 0) {
+        freeZone(zone);
+      }
+    }
+    int tail = (int) (size % layout.getBlockSize());
+    if (tail != 0) {
+      int zone = bmap(inode, keep - 1);
+      if (zone != 0) {
+        zero(bufferCache.getForWrite(zone), tail);
+      }
+    }
+    long first = DIRECT_ZONES;
+    for (int level = 1; level <= layout.getIndexLevels(); level++) {
+      int slot = DIRECT_ZONES + level - 1;
+      int zone = inode.getZone(slot);
+      if (zone != 0 && freeIndex(zone, level, first, keep)) {
+        inode.setZone(slot, 0);
+      }
+      first += layout.span(level);
+    }
+    inode.setIsize(Math.min(size, inode.getIsize()));
+  }
+
+  /**
+   * level 级索引块覆盖从 first 开始的块，释放它下面完全位于 keep 之后的索引块。自己也完全位于 keep 之后时一起释放
+   *
+   * @return 是否释放了自己
+   */
+  private boolean freeIndex(int indexZone, int level, long first, int keep) {
+    if (level > 1) {
+      long childSpan = layout.span(level - 1);
+      int[] children = readIndexBlock(indexZone).indexes();
+      for (int i = 0; i < children.length; i++) {
+        long childFirst = first + i * childSpan;
+        if (children[i] != 0 && childFirst + childSpan > keep
+            && freeIndex(children[i], level - 1, childFirst, keep) && first < keep) {
+          layout.putZone(bufferCache.getForWrite(indexZone), 0, i, 0);
+        }
+      }
+    }
+    if (first >= keep) {
+      freeZone(indexZone);
+      return true;
+    }
+    return false;
+  }
+
+  private void zero(ByteBuffer block, int from) {
+    for (int i = from; i < layout.getBlockSize(); i++) {
+      block.put(i, (byte) 0);
+    }
+  }
+
+  // 与 bmap 相同，但没有分配的块和索引块会被分配
+  private int bmapAlloc(Inode inode, int logicalBlock) {
+    if (logicalBlock < DIRECT_ZONES) {
+      return inodeZoneAlloc(inode, logicalBlock);
+    }
+    int[] path = indexPath(logicalBlock);
+    int zone = inodeZoneAlloc(inode, path[0]);
+    for (int i = 1; i < path.length; i++) {
+      zone = indexEntryAlloc(zone, path[i]);
+    }
+    return zone;
+  }
+
+  private int inodeZoneAlloc(Inode inode, int i) {
+    int zone = inode.getZone(i);
+    if (zone == 0) {
+      zone = allocZone();
+      inode.setZone(i, zone);
+    }
+    return zone;
+  }
+
+  private int indexEntryAlloc(int indexZone, int i) {
+    int zone = readIndexBlock(indexZone).index(i);
+    if (zone == 0) {
+      zone = allocZone();
+      layout.putZone(bufferCache.getForWrite(indexZone), 0, i, zone);
+    }
+    return zone;
+  }
+
+  // 解除文件第 logicalBlock 块的映射，返回原来的 zone
+  private int bmapClear(Inode inode, int logicalBlock) {
+    if (logicalBlock < DIRECT_ZONES) {
+      int zone = inode.getZone(logicalBlock);
+      inode.setZone(logicalBlock, 0);
+      return zone;
+    }
+    int[] path = indexPath(logicalBlock);
+    int indexZone = inode.getZone(path[0]);
+    for (int i = 1; i < path.length - 1 && indexZone != 0; i++) {
+      indexZone = readIndexBlock(indexZone).index(path[i]);
+    }
+    if (indexZone == 0) {
+      return 0;
+    }
+    int index = path[path.length - 1];
+    int zone = readIndexBlock(indexZone).index(index);
+    if (zone != 0) {
+      layout.putZone(bufferCache.getForWrite(indexZone), 0, index, 0);
+    }
+    return zone;
+  }
+
+  void addEntry(int dirInum, String name, int inum) {
+    Inode dir = writableInode(dirInum);
+    long size = dir.getIsize();
+    long position = findEntry(dir, null, freeEntryHints.getOrDefault(dirInum, 0L));
+    if (position < 0) {
+      position = size;
+    }
+    freeEntryHints.put(dirInum, position + layout.getDirEntrySize());
+    int blockSize = layout.getBlockSize();
+    ByteBuffer block = bufferCache.getForWrite(bmapAlloc(dir, (int) (position / blockSize)));
+    DirEntry.write(layout, block, (int) (position % blockSize), inum, name);
+    if (position + layout.getDirEntrySize() > size) {
+      dir.setIsize(position + layout.getDirEntrySize());
+    }
+    dir.setImtime(now());
+    dentryCache.added(dirInum, DirEntry.of(inum, name));
+  }
+
+  private void removeEntry(int dirInum, String name) {
+    Inode dir = writableInode(dirInum);
+    long position = findEntry(dir, name, 0);
+    if (position < 0) {
+      throw new CommandExecuteException("path not exists");
+    }
+    Long hint = freeEntryHints.get(dirInum);
+    if (hint != null && hint > position) {
+      freeEntryHints.put(dirInum, position);
+    }
+    int blockSize = layout.getBlockSize();
+    ByteBuffer block = bufferCache.getForWrite(bmap(dir, (int) (position / blockSize)));
+    layout.putEntryInode(block, (int) (position % blockSize), 0);
+    dir.setImtime(now());
+    dentryCache.removed(dirInum, name);
+  }
+
+  // 从 from 开始查找目录中名为 name 的目录项的位置，name 为 null 时查找第一个空闲目录项，找不到时返回 -1
+  private long findEntry(Inode dir, String name, long from) {
+    long size = dir.getIsize();
+    int blockSize = layout.getBlockSize();
+    ByteBuffer block = null;
+    for (long position = from; position < size; position += layout.getDirEntrySize()) {
+      int offset = (int) (position % blockSize);
+      if (offset == 0 || position == from) {
+        int zone = bmap(dir, (int) (position / blockSize));
+        block = zone == 0 ? null : readBlock(zone);
+      }
+      if (block == null) {
+        continue;
+      }
+      int inum = layout.entryInode(block, offset);
+      if (name == null ? inum == 0
+          : inum != 0 && DirEntry.map(layout, block, offset).getName().equals(name)) {
+        return position;
+      }
+    }
+    return -1;
+  }
+
+  DirEntry childEntryOrNull(Inode parent, String name) {
+    if (!parent.isDir()) {
+      throw new CommandExecuteException("path is not a dir");
+    }
+    return dentryCache.lookup(parent, name);
+  }
+
+  // inode 表中 inum 所在块的可写视图，修改会在写回时落盘
+  Inode writableInode(int inum) {
+    int block = inodeStartBlock + (inum - 1) / layout.getInodesPerBlock();
+    ByteBuffer bytes = bufferCache.getForWrite(block);
+    inodeCache.invalidate(inum);
+    modifications.incrementAndGet();
+    return new Inode(layout, inum, bytes,
+        (inum - 1) % layout.getInodesPerBlock() * layout.getInodeSize());
+  }
+
+  private int allocInode() {
+    return allocInode(1);
+  }
+
+  // 从 from 开始找第一个空闲的 inode
+  int allocInode(int from) {
+    int bit = inodeMap.nextClear(from);
+    if (bit < 1 && from > 1) {
+      bit = inodeMap.nextClear(1);
+    }
+    if (bit < 1) {
+      throw new CommandExecuteException("no free inodes");
+    }
+    inodeMap.set(bit, bit + 1);
+    markBit(2, bit, true);
+    return bit;
+  }
+
+  void freeInode(int inum) {
+    writableInode(inum).clear();
+    inodeMap.clear(inum, inum + 1);
+    markBit(2, inum, false);
+  }
+
+  // 新分配的 zone 在缓冲区中是全 0 的脏块，不读取原有内容
+  private int allocZone() {
+    int bit = zoneMap.nextClear(zoneHint);
+    if (bit < 1) {
+      bit = zoneMap.nextClear(1);
+    }
+    if (bit < 1) {
+      throw new CommandExecuteException("no space left on device");
+    }
+    zoneMap.set(bit, bit + 1);
+    markBit(2 + superBlock.getImapBlocks(), bit, true);
+    zoneHint = bit + 1;
+    int zone = superBlock.getFirstDatazone() + bit - 1;
+    bufferCache.create(zone);
+    return zone;
+  }
+
+  /**
+   * 分配 count 个 zone，优先从 zoneHint 开始找一段连续的空闲 zone，找不到时按顺序收集零散的空闲 zone。
+   * 与 allocZone 不同，不在缓冲区中建立块，调用者负责写入内容
+   */
+  int[] allocZones(int count) {
+    if (freeZones() < count) {
+      throw new CommandExecuteException("no space left on device");
+    }
+    int first = findFreeRun(zoneHint, count);
+    if (first < 0) {
+      first = findFreeRun(1, count);
+    }
+    int[] zones = new int[count];
+    int bit = first < 0 ? zoneMap.nextClear(zoneHint) : first;
+    for (int i = 0; i < count; i++) {
+      if (bit < 1) {
+        bit = zoneMap.nextClear(1);
+      }
+      zoneMap.set(bit, bit + 1);
+      markBit(2 + superBlock.getImapBlocks(), bit, true);
+      zones[i] = superBlock.getFirstDatazone() + bit - 1;
+      zoneHint = bit + 1;
+      bit = zoneMap.nextClear(bit + 1);
+    }
+    return zones;
+  }
+
+  // 从 from 开始第一段长度不小于 count 的连续空闲位，没有时返回 -1
+  private int findFreeRun(int from, int count) {
+    int start = zoneMap.nextClear(Math.max(1, from));
+    while (start > 0) {
+      int end = zoneMap.nextSet(start);
+      if (end < 0) {
+        end = zoneMap.size();
+      }
+      if (end - start >= count) {
+        return start;
+      }
+      start = end < zoneMap.size() ? zoneMap.nextClear(end) : -1;
+    }
+    return -1;
+  }
+
+  /**
+   * 把从 zone 开始的连续块直接写到设备，不经过缓冲区。缓冲区中这些块的旧内容被丢弃
+   */
+  void writeZones(int zone, ByteBuffer bytes) {
+    for (int block = 0; block < layout.blocks(bytes.remaining()); block++) {
+      bufferCache.invalidate(zone + block);
+    }
+    device.write(blockOffset(zone), bytes);
+    modifications.incrementAndGet();
+  }
+
+  void freeZone(int zone) {
+    int bit = zone - superBlock.getFirstDatazone() + 1;
+    zoneMap.clear(bit, bit + 1);
+    markBit(2 + superBlock.getImapBlocks(), bit, false);
+    bufferCache.invalidate(zone);
+    zoneHint = Math.min(zoneHint, bit);
+  }
+
+  // 位图的修改同时写入位图所在的块，同一块的多次修改在缓冲区中合并
+  private void markBit(int startBlock, int bit, boolean value) {
+    int bitsPerBlock = layout.getBitsPerBlock();
+    ByteBuffer block = bufferCache.getForWrite(startBlock + bit / bitsPerBlock);
+    int index = bit % bitsPerBlock / 8;
+    int mask = 1 << (bit % 8);
+    int b = block.get(index);
+    block.put(index, (byte) (value ? b | mask : b & ~mask));
+    modifications.incrementAndGet();
+  }
+
+  long getModifications() {
+    return modifications.get();
+  }
+
+  // 去掉末尾的 /，拆成父目录路径和名字
+  private static String[] splitPath(String path) {
+    while (path.length() > 1 && path.endsWith("/")) {
+      path = path.substring(0, path.length() - 1);
+    }
+    int index = path.lastIndexOf('/');
+    if (index < 0) {
+      return new String[]{"", path};
+    }
+    return new String[]{index == 0 ? "/" : path.substring(0, index), path.substring(index + 1)};
+  }
+
+  void checkName(String name) {
+    if (name.isEmpty() || name.equals(".") || name.equals("..")) {
+      throw new CommandExecuteException("invalid argument");
+    }
+    if (name.getBytes(StandardCharsets.UTF_8).length > layout.getNameLength()) {
+      throw new CommandExecuteException("file name too long");
+    }
+  }
+
+  void checkFileSize(long size) {
+    if (size < 0) {
+      throw new IllegalArgumentException("size");
+    }
+    if (size > Math.min(superBlock.getMaxSize(),
+        (long) layout.getMaxFileBlocks() * layout.getBlockSize())) {
+      throw new CommandExecuteException("file too large");
+    }
+  }
+
+  void checkWritable() {
+    checkMounted();
+    if (!device.isWritable()) {
+      throw new CommandExecuteException("read-only file system");
+    }
+  }
+
+  static long now() {
+    return System.currentTimeMillis() / 1000;
+  }
+
+  public Layout getLayout() {
+    checkMounted();
+    return layout;
+  }
+
+  public SuperBlock getSuperBlock() {
+    checkMounted();
+    return superBlock;
+  }
+
+  public BitMap getInodeMap() {
+    checkMounted();
+    return inodeMap;
+  }
+
+  public BitMap getZoneMap() {
+    checkMounted();
+    return zoneMap;
+  }
+
+  public int freeInodes() {
+    checkMounted();
+    return inodeMap.size() - inodeMap.cardinality();
+  }
+
+  public int freeZones() {
+    checkMounted();
+    return zoneMap.size() - zoneMap.cardinality();
+  }
+
+  public BufferCache getBufferCache() {
+    checkMounted();
+    return bufferCache;
+  }
+
+  public InodeCache getInodeCache() {
+    checkMounted();
+    return inodeCache;
+  }
+
+  public DentryCache getDentryCache() {
+    checkMounted();
+    return dentryCache;
+  }
+
+  boolean isMounted() {
+    return superBlock != null;
+  }
+
+  private void checkMounted() {
+    if (superBlock == null) {
+      throw new IllegalStateException("not mounted");
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (superBlock != null) {
+      sync();
+    }
+    if (prefetchExecutor != null) {
+      prefetchExecutor.shutdownNow();
+    }
+    device.close();
+  }
+}
@@ -0,0 +1,72 @@
+package com.lonicera.fs;
+
+/**
+ * 自适应预读窗口：连续的顺序访问使窗口翻倍直到上限，一旦出现随机访问就退回初始大小。
+ * <p>
+ * next 用于顺序读取时决定一次读取的块数；onRead 用于按位置读取，决定读取之后预读的块数，
+ * 同一个窗口只使用其中一种
+ */
+public class ReadaheadWindow {
+
+  private final int initial;
+  private final int max;
+  private int window;
+  private long next = -1;
+  // 已经预读到的块号，不含
+  private long ahead;
+
+  public ReadaheadWindow(int initial, int max) {
+    if (initial < 1 || max < initial) {
+      throw new IllegalArgumentException("window");
+    }
+    this.initial = initial;
+    this.max = max;
+    this.window = initial;
+  }
+
+  /**
+   * @param block 本次访问的逻辑块号
+   * @param limit 本次最多可以读取的块数
+   * @return 本次应读取的块数
+   */
+  public int next(long block, int limit) {
+    if (block == next) {
+      window = Math.min(window * 2, max);
+    } else {
+      window = initial;
+    }
+    int count = Math.min(window, limit);
+    next = block + count;
+    return count;
+  }
+
+  /**
+   * 记录一次读取的块 [block, end)。从上一次读取的末块或者它之后的块开始时算顺序读取，窗口翻倍，
+   * 否则退回初始大小。预读范围是 [end, end + window)，已经预读过的部分不再重复
+   *
+   * @return 需要预读的块数，从 getAhead() - 返回值 开始
+   */
+  public int onRead(long block, long end) {
+    boolean sequential = block == next || block == next - 1;
+    if (sequential && end == next) {
+      // 仍在上一次读取的末块中
+      return 0;
+    }
+    window = sequential ? Math.min(window * 2, max) : initial;
+    if (!sequential || ahead < end) {
+      ahead = end;
+    }
+    next = end;
+    int count = (int) Math.max(0, end + window - ahead);
+    ahead += count;
+    return count;
+  }
+
+  public int getWindow() {
+    return window;
+  }
+
+  public long getAhead() {
+    return ahead;
+  }
+}
@@ -0,0 +1,101 @@
+package com.lonicera.fs;
+
+import java.util.Deque;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * 一个会话的当前目录，相对路径从当前目录开始解析。会话本身不是线程安全的，每个线程使用自己的会话。
+ */
+public class Session {
+
+  private final MinixFileSystem fs;
+  // 只保存 inode 号，目录被修改后仍能读到最新的 inode
+  private int pwd;
+  private Deque<DirEntry> pwdEntryList = new LinkedList<>();
+
+  Session(MinixFileSystem fs) {
+    this.fs = fs;
+    this.pwd = MinixFileSystem.ROOT_INODE;
+  }
+
+  public void cd(String path) {
+    Inode parent;
+    Deque<DirEntry> entryList;
+    if (path.startsWith("/")) {
+      parent = fs.root();
+      entryList = new LinkedList<>();
+    } else {
+      parent = getPwd();
+      entryList = new LinkedList<>(pwdEntryList);
+    }
+    for (String seg : path.split("/")) {
+      if (seg.isEmpty() || seg.equals(".")) {
+        continue;
+      }
+      DirEntry child = fs.childEntry(parent, seg);
+      if (seg.equals("..")) {
+        if (entryList.size() > 0) {
+          entryList.removeLast();
+        }
+      } else {
+        entryList.add(child);
+      }
+      parent = fs.readInode(child.getInode());
+    }
+    if (!parent.isDir()) {
+      throw new CommandExecuteException("path is not a dir");
+    }
+    pwd = parent.getInum();
+    pwdEntryList = entryList;
+  }
+
+  public String pwd() {
+    StringBuilder sb = new StringBuilder("/");
+    for (DirEntry entry : pwdEntryList) {
+      sb.append(entry.getName());
+      sb.append("/");
+    }
+    if (sb.length() > 1) {
+      sb.deleteCharAt(sb.length() - 1);
+    }
+    return sb.toString();
+  }
+
+  public String dirName() {
+    DirEntry pwdEntry = pwdEntryList.peekLast();
+    return pwdEntry == null ? "/" : pwdEntry.getName();
+  }
+
+  public Inode getPwd() {
+    return fs.readInode(pwd);
+  }
+
+  public Inode stat(String path) {
+    return fs.lookup(getPwd(), path);
+  }
+
+  public List<DirEntry> list(String path) {
+    return fs.list(stat(path));
+  }
+
+  public DirEntryIterator iterate(String path) {
+    return fs.iterate(stat(path));
+  }
+
+  public MinixFile open(String path) {
+    return fs.open(stat(path));
+  }
+
+  public MinixFile create(String path) {
+    return fs.open(fs.create(getPwd(), path));
+  }
+
+  public Inode mkdir(String path) {
+    return fs.mkdir(getPwd(), path);
+  }
+
+  public void unlink(String path) {
+    fs.unlink(getPwd(), path);
+  }
+}
@@ -1,49 +1,43 @@
 package com.lonicera.fs;
 
+import java.nio.ByteBuffer;
+import java.util.function.IntConsumer;
 import lombok.Getter;
-import org.joou.UInteger;
-import org.joou.UShort;
 
 public class SuperBlock extends Abstract2SectorBlock implements Block {
 
-  public interface BitMap{
-    int first0();
-    int first1();
-  }
+  /**
+   * 位图，第 0 位保留不用
+   */
+  public interface BitMap {
 
-  public static class DefaultBitMap implements BitMap {
-    private byte[] bytes;
+    // 有效位数
+    int size();
 
-    public DefaultBitMap(byte[] bytes){
-      this.bytes = bytes;
-    }
+    boolean get(int bit);
 
-    @Override
-    public int first0() {
-      int position = 0;
-      for(int i = 0; i < bytes.length; i++){
-        if(bytes[i] == -1){
-          position += 8;
-        } else {
-          position += Integer.numberOfLeadingZeros(bytes[i]);
-        }
-      }
-      return position;
-    }
+    // 从 from 开始第一个为 0 的位，没有时返回 -1
+    int nextClear(int from);
 
-    @Override
-    public int first1() {
-      int position = 0;
-      for(int i = 0; i < bytes.length; i++){
-        if(bytes[i] == -1){
-          position += 8;
-        } else {
-          position += Integer.numberOfLeadingZeros(~(bytes[i]));
-        }
-      }
-      return position;
+    // 从 from 开始第一个为 1 的位，没有时返回 -1
+    int nextSet(int from);
+
+    // 为 1 的位数
+    int cardinality();
+
+    void set(int from, int to);
+
+    void clear(int from, int to);
+
+    void forEachSet(IntConsumer consumer);
+
+    default int first0() {
+      return nextClear(0);
     }
 
+    default int first1() {
+      return nextSet(0);
+    }
   }
 
   @Getter
@@ -56,48 +50,53 @@ public class SuperBlock extends Abstract2SectorBlock implements Block {
   private int zmapBlocks; //逻辑块位图数量
   @Getter
   private int firstDatazone;//数据区中第一个逻辑块号
-
+  @Getter
   private int logZoneSize; //log2 磁盘块/逻辑块
+  @Getter
+  private long maxSize;//最大文件长度
+  @Getter
+  private int magic; //文件系统 magic 数
+  @Getter
+  private Layout layout; //由 magic 决定的磁盘格式
 
-  private int maxSize;//最大文件长度
-
-  private UShort magic; //文件系统 magic 数
-
-  private SuperBlock(byte[] bytes){
+  private SuperBlock(ByteBuffer bytes){
     super(bytes);
     mapBytes(bytes);
   }
 
-  public static SuperBlock map(byte[] bytes) {
+  public static SuperBlock map(ByteBuffer bytes) {
     return new SuperBlock(bytes);
   }
 
-  private void mapBytes(byte[] bytes){
-    ninodes = concatShort(bytes, 0).intValue();
-    nzones = concatShort(bytes, 2).intValue();
-    imapBlocks = concatShort(bytes, 4).intValue();
-    zmapBlocks = concatShort(bytes, 6).intValue();
-    firstDatazone = concatShort(bytes, 8).intValue();
-    logZoneSize = concatShort(bytes, 10).intValue();
-    maxSize = concatInt(bytes, 12).intValue();
-    magic = concatShort(bytes, 16);
-  }
-
-  private UShort concatShort(byte[] bytes, int start){
-    return UShort.valueOf(unsignByte(bytes[start]) | (unsignByte(bytes[start + 1]) << 8));
-  }
-
-  private short unsignByte(byte b){
-    return (short) (b & 0xff);
-  }
-
-  private UInteger concatInt(byte[] bytes, int start){
-    long value = 0;
-    for(int step = 0; step <= 4; step ++){
-      value |= ((unsignByte(bytes[start])) << (step * 8));
-      start++;
+  // v3 的 inode 数和 zone 数是 32 位，字段整体后移，magic 在 24 字节处；v2 的 zone 数在 20 字节处
+  private void mapBytes(ByteBuffer bytes){
+    if (Bytes.u16(bytes, 24) == Layout.MAGIC_V3) {
+      ninodes = (int) Bytes.u32(bytes, 0);
+      imapBlocks = Bytes.u16(bytes, 6);
+      zmapBlocks = Bytes.u16(bytes, 8);
+      firstDatazone = Bytes.u16(bytes, 10);
+      logZoneSize = Bytes.u16(bytes, 12);
+      maxSize = Bytes.u32(bytes, 16);
+      nzones = (int) Bytes.u32(bytes, 20);
+      magic = Layout.MAGIC_V3;
+      layout = Layout.ofMagic(magic, Bytes.u16(bytes, 28));
+    } else {
+      ninodes = Bytes.u16(bytes, 0);
+      nzones = Bytes.u16(bytes, 2);
+      imapBlocks = Bytes.u16(bytes, 4);
+      zmapBlocks = Bytes.u16(bytes, 6);
+      firstDatazone = Bytes.u16(bytes, 8);
+      logZoneSize = Bytes.u16(bytes, 10);
+      maxSize = Bytes.u32(bytes, 12);
+      magic = Bytes.u16(bytes, 16);
+      layout = Layout.ofMagic(magic, Block.BLOCK_SIZE);
+      if (layout.getVersion() == 2) {
+        nzones = (int) Bytes.u32(bytes, 20);
+      }
+    }
+    if (logZoneSize != 0) {
+      throw new CommandExecuteException("zones larger than blocks are not supported");
     }
-    return UInteger.valueOf(value);
   }
 
 }
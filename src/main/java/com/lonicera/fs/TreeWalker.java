@@ -0,0 +1,331 @@
+package com.lonicera.fs;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.regex.Pattern;
+import lombok.Getter;
+
+/**
+ * 递归遍历目录树，每个子目录是一个 fork/join 任务，由空闲线程窃取执行。
+ * 以 inode 号去重：有多个链接的文件只统计一次，已经访问过的目录不再进入，避免目录成环时无限递归。
+ */
+public class TreeWalker {
+
+  /**
+   * 一棵子树的占用，children 是直接子目录的占用，顺序与目录项一致
+   */
+  @Getter
+  public static class Usage {
+
+    private final String path;
+    private long bytes;
+    private long zones;
+    private int files;
+    private int dirs;
+    private final List<Usage> children = new ArrayList<>();
+
+    private Usage(String path) {
+      this.path = path;
+    }
+
+    private void add(Usage child) {
+      bytes += child.bytes;
+      zones += child.zones;
+      files += child.files;
+      dirs += child.dirs;
+      children.add(child);
+    }
+  }
+
+  /**
+   * find 的查询条件，没有设置的条件不参与过滤
+   */
+  public static class Query {
+
+    private Pattern name;
+    private char type;
+    private long minSize = -1;
+    private long maxSize = -1;
+
+    // 支持 * ? 和 [...]
+    public Query name(String glob) {
+      this.name = Pattern.compile(globToRegex(glob));
+      return this;
+    }
+
+    // f 普通文件，d 目录
+    public Query type(char type) {
+      this.type = type;
+      return this;
+    }
+
+    public Query minSize(long minSize) {
+      this.minSize = minSize;
+      return this;
+    }
+
+    public Query maxSize(long maxSize) {
+      this.maxSize = maxSize;
+      return this;
+    }
+
+    private boolean matches(String entryName, Inode inode) {
+      if (name != null && !name.matcher(entryName).matches()) {
+        return false;
+      }
+      if (type == 'd' && !inode.isDir() || type == 'f' && inode.isDir()) {
+        return false;
+      }
+      long size = inode.getIsize();
+      return (minSize < 0 || size >= minSize) && (maxSize < 0 || size <= maxSize);
+    }
+
+    private static String globToRegex(String glob) {
+      StringBuilder sb = new StringBuilder();
+      boolean inClass = false;
+      for (char c : glob.toCharArray()) {
+        if (inClass) {
+          sb.append(c == '\\' ? "\\\\" : String.valueOf(c));
+          inClass = c != ']';
+        } else if (c == '*') {
+          sb.append(".*");
+        } else if (c == '?') {
+          sb.append('.');
+        } else if (c == '[') {
+          sb.append('[');
+          inClass = true;
+        } else {
+          sb.append(Pattern.quote(String.valueOf(c)));
+        }
+      }
+      return sb.toString();
+    }
+  }
+
+  private static final Object SUBDIR = new Object();
+
+  private final MinixFileSystem fs;
+  private final ForkJoinPool pool;
+  private final ConcurrentLinkedQueue<String> warnings = new ConcurrentLinkedQueue<>();
+
+  public TreeWalker(MinixFileSystem fs) {
+    this(fs, ForkJoinPool.commonPool());
+  }
+
+  public TreeWalker(MinixFileSystem fs, ForkJoinPool pool) {
+    this.fs = fs;
+    this.pool = pool;
+  }
+
+  /**
+   * 统计 start 为根的子树的字节数和 zone 数，zone 包括索引块
+   */
+  public Usage du(Inode start, String path) {
+    Visited visited = new Visited(fs.getSuperBlock().getNinodes());
+    visited.visit(start.getInum());
+    if (!start.isDir()) {
+      Usage usage = new Usage(path);
+      usage.bytes = start.getIsize();
+      usage.zones = fs.countZones(start);
+      usage.files = 1;
+      return usage;
+    }
+    return pool.invoke(new DuTask(start, path, visited));
+  }
+
+  /**
+   * @return 匹配的路径，按目录项的深度优先顺序排列
+   */
+  public List<String> find(Inode start, String path, Query query) {
+    Visited visited = new Visited(fs.getSuperBlock().getNinodes());
+    visited.visit(start.getInum());
+    List<String> result = new ArrayList<>();
+    String name = path;
+    while (name.length() > 1 && name.endsWith("/")) {
+      name = name.substring(0, name.length() - 1);
+    }
+    name = name.substring(name.lastIndexOf('/') + 1);
+    if (query.matches(name, start)) {
+      result.add(path);
+    }
+    if (start.isDir()) {
+      result.addAll(pool.invoke(new FindTask(start, path, query, visited)));
+    }
+    return result;
+  }
+
+  /**
+   * 遍历中发现的问题，例如目录被多次引用
+   */
+  public List<String> getWarnings() {
+    return Collections.unmodifiableList(new ArrayList<>(warnings));
+  }
+
+  // 以 inode 号为下标的并发位图，visit 第一次访问时返回 true
+  private static class Visited {
+
+    private final AtomicLongArray words;
+
+    private Visited(int ninodes) {
+      words = new AtomicLongArray((ninodes >>> 6) + 1);
+    }
+
+    private boolean visit(int inum) {
+      int index = inum >>> 6;
+      long mask = 1L << inum;
+      while (true) {
+        long word = words.get(index);
+        if ((word & mask) != 0) {
+          return false;
+        }
+        if (words.compareAndSet(index, word, word | mask)) {
+          return true;
+        }
+      }
+    }
+  }
+
+  /**
+   * 读取目录的子项。目录只在第一次访问时进入，文件的链接数大于 1 时只有第一次访问返回
+   */
+  private abstract class DirTask<T> extends RecursiveTask<T> {
+
+    protected final Inode dir;
+    protected final String path;
+    protected final Visited visited;
+
+    private DirTask(Inode dir, String path, Visited visited) {
+      this.dir = dir;
+      this.path = path;
+      this.visited = visited;
+    }
+
+    protected String childPath(DirEntry entry) {
+      return path.endsWith("/") ? path + entry.getName() : path + "/" + entry.getName();
+    }
+
+    protected <R> List<R> walk(ChildVisitor<R> visitor) {
+      List<DirEntry> entries = new ArrayList<>();
+      for (DirEntry entry : fs.list(dir)) {
+        if (!entry.getName().equals(".") && !entry.getName().equals("..")) {
+          entries.add(entry);
+        }
+      }
+      int[] inums = new int[entries.size()];
+      for (int i = 0; i < inums.length; i++) {
+        inums[i] = entries.get(i).getInode();
+      }
+      Inode[] inodes = fs.readInodes(inums);
+      List<ForkJoinTask<R>> subtasks = new ArrayList<>();
+      for (int i = 0; i < inodes.length; i++) {
+        Inode inode = inodes[i];
+        DirEntry entry = entries.get(i);
+        boolean first = visited.visit(inode.getInum());
+        if (inode.isDir() && !first) {
+          warnings.add(childPath(entry) + " : directory inode " + inode.getInum()
+              + " already visited, skipped");
+          continue;
+        }
+        visitor.visit(entry, inode, first);
+        if (inode.isDir()) {
+          subtasks.add(visitor.subtask(entry, inode));
+        }
+      }
+      invokeAll(subtasks);
+      List<R> results = new ArrayList<>(subtasks.size());
+      for (ForkJoinTask<R> subtask : subtasks) {
+        results.add(subtask.join());
+      }
+      return results;
+    }
+  }
+
+  private interface ChildVisitor<R> {
+
+    void visit(DirEntry entry, Inode inode, boolean first);
+
+    ForkJoinTask<R> subtask(DirEntry entry, Inode inode);
+  }
+
+  private class DuTask extends DirTask<Usage> {
+
+    private DuTask(Inode dir, String path, Visited visited) {
+      super(dir, path, visited);
+    }
+
+    @Override
+    protected Usage compute() {
+      Usage usage = new Usage(path);
+      usage.bytes = dir.getIsize();
+      usage.zones = fs.countZones(dir);
+      usage.dirs = 1;
+      List<Usage> children = walk(new ChildVisitor<Usage>() {
+        @Override
+        public void visit(DirEntry entry, Inode inode, boolean first) {
+          if (!inode.isDir() && first) {
+            usage.bytes += inode.getIsize();
+            usage.zones += fs.countZones(inode);
+            usage.files++;
+          }
+        }
+
+        @Override
+        public ForkJoinTask<Usage> subtask(DirEntry entry, Inode inode) {
+          return new DuTask(inode, childPath(entry), visited);
+        }
+      });
+      for (Usage child : children) {
+        usage.add(child);
+      }
+      return usage;
+    }
+  }
+
+  private class FindTask extends DirTask<List<String>> {
+
+    private final Query query;
+
+    private FindTask(Inode dir, String path, Query query, Visited visited) {
+      super(dir, path, visited);
+      this.query = query;
+    }
+
+    @Override
+    protected List<String> compute() {
+      // 子目录的结果插在该子目录之后，保持深度优先顺序
+      List<Object> slots = new ArrayList<>();
+      List<List<String>> children = walk(new ChildVisitor<List<String>>() {
+        @Override
+        public void visit(DirEntry entry, Inode inode, boolean first) {
+          if (query.matches(entry.getName(), inode)) {
+            slots.add(childPath(entry));
+          }
+          if (inode.isDir()) {
+            slots.add(SUBDIR);
+          }
+        }
+
+        @Override
+        public ForkJoinTask<List<String>> subtask(DirEntry entry, Inode inode) {
+          return new FindTask(inode, childPath(entry), query, visited);
+        }
+      });
+      List<String> matched = new ArrayList<>();
+      int child = 0;
+      for (Object slot : slots) {
+        if (slot == SUBDIR) {
+          matched.addAll(children.get(child++));
+        } else {
+          matched.add((String) slot);
+        }
+      }
+      return matched;
+    }
+  }
+}
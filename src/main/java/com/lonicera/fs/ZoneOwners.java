@@ -0,0 +1,346 @@
+package com.lonicera.fs;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import lombok.Getter;
+
+/**
+ * zone 到所有者的反向索引。每个 zone 一个 long 和一个 int：long 的低 32 位是 inode 号，接着 3 位是用途，
+ * 0 表示没有所有者；int 是逻辑块号。索引是建立时的快照，文件系统被修改后通过 isCurrent 判断是否需要重建。
+ * isCurrent 只比较文件系统的修改计数，保存到文件的索引用位图和 inode 表的校验和判断是否还能使用。
+ */
+public class ZoneOwners {
+
+  public enum Role {
+    DATA, INDIRECT, DOUBLE_INDIRECT, TRIPLE_INDIRECT
+  }
+
+  /**
+   * logicalBlock 是 zone 中第一个数据块在文件中的块号，索引块是它覆盖的第一个块
+   */
+  @Getter
+  public static class Owner {
+
+    private final int zone;
+    private final int inum;
+    private final Role role;
+    private final int logicalBlock;
+
+    private Owner(int zone, long entry, int logicalBlock) {
+      this.zone = zone;
+      this.inum = (int) entry;
+      this.role = Role.values()[(int) ((entry >>> 32) & 0b111) - 1];
+      this.logicalBlock = logicalBlock;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("zone %d : inode %d %s block %d", zone, inum,
+          role.name().toLowerCase().replace('_', ' '), logicalBlock);
+    }
+  }
+
+  private static final int SPLIT_BLOCKS = 8;
+  private static final int FILE_MAGIC = 0x5a4f4e32;
+  private static final int HEADER_LONGS = 4;
+  // 计算指纹时一次读取的 inode 表块数
+  private static final int FINGERPRINT_BLOCKS = 64;
+  // 读写索引文件时缓冲区的大小
+  private static final int IO_BUFFER_SIZE = 64 * 1024;
+
+  private final MinixFileSystem fs;
+  private final Layout layout;
+  // 下标是 zone 号
+  private final long[] entries;
+  private final int[] logicalBlocks;
+  private final int firstDatazone;
+  // 建立索引前文件系统的修改计数
+  private final long modifications;
+  @Getter
+  private long elapsedNanos;
+
+  private ZoneOwners(MinixFileSystem fs, long[] entries, int[] logicalBlocks,
+      long modifications) {
+    this.fs = fs;
+    this.layout = fs.getLayout();
+    this.entries = entries;
+    this.logicalBlocks = logicalBlocks;
+    this.firstDatazone = fs.getSuperBlock().getFirstDatazone();
+    this.modifications = modifications;
+  }
+
+  public static ZoneOwners build(MinixFileSystem fs) {
+    return build(fs, ForkJoinPool.commonPool());
+  }
+
+  public static ZoneOwners build(MinixFileSystem fs, ForkJoinPool pool) {
+    long start = System.nanoTime();
+    SuperBlock superBlock = fs.getSuperBlock();
+    int nzones = superBlock.getNzones();
+    ZoneOwners owners = new ZoneOwners(fs, new long[nzones], new int[nzones],
+        fs.getModifications());
+    int ninodes = superBlock.getNinodes();
+    int perBlock = fs.getLayout().getInodesPerBlock();
+    int tableBlocks = (ninodes + perBlock - 1) / perBlock;
+    pool.invoke(owners.new ScanTask(0, tableBlocks));
+    owners.elapsedNanos = System.nanoTime() - start;
+    return owners;
+  }
+
+  /**
+   * 从 file 读取索引，文件不存在或者与当前文件系统不一致时重新建立并保存
+   */
+  public static ZoneOwners loadOrBuild(MinixFileSystem fs, File file) {
+    if (file.exists()) {
+      ZoneOwners owners = load(fs, file);
+      if (owners != null) {
+        return owners;
+      }
+    }
+    ZoneOwners owners = build(fs);
+    owners.save(file);
+    return owners;
+  }
+
+  // 文件头：magic，zone 数，指纹，保留，之后是全部 long 和全部 int。分段读取，文件可以超过 2GiB
+  private static ZoneOwners load(MinixFileSystem fs, File file) {
+    long start = System.nanoTime();
+    long modifications = fs.getModifications();
+    int nzones = fs.getSuperBlock().getNzones();
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      if (channel.size() != fileSize(nzones)) {
+        return null;
+      }
+      ByteBuffer bytes = ByteBuffer.allocate(IO_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+      bytes.limit(HEADER_LONGS * 8);
+      if (!fill(channel, bytes) || bytes.getLong() != FILE_MAGIC || bytes.getLong() != nzones
+          || bytes.getLong() != fingerprint(fs)) {
+        return null;
+      }
+      long[] entries = new long[nzones];
+      for (int i = 0; i < nzones; ) {
+        bytes.clear();
+        bytes.limit((int) Math.min(IO_BUFFER_SIZE, (long) (nzones - i) * 8));
+        if (!fill(channel, bytes)) {
+          return null;
+        }
+        int count = bytes.remaining() / 8;
+        bytes.asLongBuffer().get(entries, i, count);
+        i += count;
+      }
+      int[] logicalBlocks = new int[nzones];
+      for (int i = 0; i < nzones; ) {
+        bytes.clear();
+        bytes.limit((int) Math.min(IO_BUFFER_SIZE, (long) (nzones - i) * 4));
+        if (!fill(channel, bytes)) {
+          return null;
+        }
+        int count = bytes.remaining() / 4;
+        bytes.asIntBuffer().get(logicalBlocks, i, count);
+        i += count;
+      }
+      ZoneOwners owners = new ZoneOwners(fs, entries, logicalBlocks, modifications);
+      owners.elapsedNanos = System.nanoTime() - start;
+      return owners;
+    } catch (IOException e) {
+      return null;
+    }
+  }
+
+  // 读满 bytes 的剩余部分后 flip，文件提前结束时返回 false
+  private static boolean fill(FileChannel channel, ByteBuffer bytes) throws IOException {
+    while (bytes.hasRemaining()) {
+      if (channel.read(bytes) < 0) {
+        return false;
+      }
+    }
+    bytes.flip();
+    return true;
+  }
+
+  /**
+   * 保存索引，指纹按保存时的文件系统计算，所以只能保存最新的索引
+   */
+  public void save(File file) {
+    if (!isCurrent()) {
+      throw new IllegalStateException("zone owners are stale");
+    }
+    ByteBuffer bytes = ByteBuffer.allocate(IO_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE,
+        StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      bytes.putLong(FILE_MAGIC);
+      bytes.putLong(entries.length);
+      bytes.putLong(fingerprint(fs));
+      bytes.putLong(0);
+      for (long entry : entries) {
+        if (!bytes.hasRemaining()) {
+          drain(channel, bytes);
+        }
+        bytes.putLong(entry);
+      }
+      for (int logicalBlock : logicalBlocks) {
+        if (!bytes.hasRemaining()) {
+          drain(channel, bytes);
+        }
+        bytes.putInt(logicalBlock);
+      }
+      drain(channel, bytes);
+    } catch (IOException e) {
+      throw new FileSystemParseException(e);
+    }
+  }
+
+  private static void drain(FileChannel channel, ByteBuffer bytes) throws IOException {
+    bytes.flip();
+    while (bytes.hasRemaining()) {
+      channel.write(bytes);
+    }
+    bytes.clear();
+  }
+
+  private static long fileSize(int nzones) {
+    return (long) HEADER_LONGS * 8 + (long) nzones * 12;
+  }
+
+  // 映像大小、分区位置、几何参数，以及位图和 inode 表的校验和。分配和释放 zone 都会修改位图，
+  // 改变文件的 zone 或者索引块都会修改 inode，所以所有者变化时指纹一定改变
+  private static long fingerprint(MinixFileSystem fs) {
+    SuperBlock superBlock = fs.getSuperBlock();
+    long hash = fs.deviceSize();
+    hash = hash * 31 + fs.blockOffset(0);
+    hash = hash * 31 + superBlock.getMagic();
+    hash = hash * 31 + superBlock.getNinodes();
+    hash = hash * 31 + superBlock.getNzones();
+    hash = hash * 31 + superBlock.getFirstDatazone();
+    CRC32 crc = new CRC32();
+    int bitmapBlocks = superBlock.getImapBlocks() + superBlock.getZmapBlocks();
+    for (int block = 2; block < 2 + bitmapBlocks; block++) {
+      crc.update(fs.readBlock(block));
+    }
+    int perBlock = fs.getLayout().getInodesPerBlock();
+    int tableBlocks = (superBlock.getNinodes() + perBlock - 1) / perBlock;
+    for (int block = 0; block < tableBlocks; block += FINGERPRINT_BLOCKS) {
+      crc.update(fs.readInodeTable(block, Math.min(FINGERPRINT_BLOCKS, tableBlocks - block)));
+    }
+    return hash * 31 + crc.getValue();
+  }
+
+  public boolean isCurrent() {
+    return modifications == fs.getModifications();
+  }
+
+  /**
+   * @return zone 的所有者，空闲或者不在数据区时返回 null
+   */
+  public Owner owner(int zone) {
+    if (zone < firstDatazone || zone >= entries.length || entries[zone] == 0) {
+      return null;
+    }
+    return new Owner(zone, entries[zone], logicalBlocks[zone]);
+  }
+
+  /**
+   * [fromZone, toZone) 中有所有者的 zone
+   */
+  public List<Owner> owners(int fromZone, int toZone) {
+    List<Owner> owners = new ArrayList<>();
+    for (int zone = Math.max(fromZone, firstDatazone); zone < Math.min(toZone, entries.length);
+        zone++) {
+      if (entries[zone] != 0) {
+        owners.add(new Owner(zone, entries[zone], logicalBlocks[zone]));
+      }
+    }
+    return owners;
+  }
+
+  // 不同 inode 登记的 zone 互不相同，只有损坏的映像会重复登记，此时保留任意一个
+  private void put(int zone, int inum, Role role, int logicalBlock) {
+    if (zone >= firstDatazone && zone < entries.length) {
+      entries[zone] = (long) (role.ordinal() + 1) << 32 | inum & 0xffffffffL;
+      logicalBlocks[zone] = logicalBlock;
+    }
+  }
+
+  private class ScanTask extends RecursiveAction {
+
+    private final int fromBlock;
+    private final int toBlock;
+
+    private ScanTask(int fromBlock, int toBlock) {
+      this.fromBlock = fromBlock;
+      this.toBlock = toBlock;
+    }
+
+    @Override
+    protected void compute() {
+      if (toBlock - fromBlock > SPLIT_BLOCKS) {
+        int middle = (fromBlock + toBlock) >>> 1;
+        invokeAll(new ScanTask(fromBlock, middle), new ScanTask(middle, toBlock));
+        return;
+      }
+      int ninodes = fs.getSuperBlock().getNinodes();
+      ByteBuffer bytes = fs.readInodeTable(fromBlock, toBlock - fromBlock);
+      int firstInum = fromBlock * layout.getInodesPerBlock() + 1;
+      int lastInum = Math.min(ninodes, toBlock * layout.getInodesPerBlock());
+      for (int inum = firstInum; inum <= lastInum; inum++) {
+        Inode inode = new Inode(layout, inum, bytes, (inum - firstInum) * layout.getInodeSize());
+        if (inode.getImode() != 0 && inode.getInlinks() != 0 && fs.getInodeMap().get(inum)) {
+          scan(inode);
+        }
+      }
+    }
+  }
+
+  // 设备文件的 i_zone[0] 是设备号，不登记
+  private void scan(Inode inode) {
+    if (!inode.hasZones()) {
+      return;
+    }
+    int inum = inode.getInum();
+    for (int i = 0; i < Layout.DIRECT_ZONES; i++) {
+      int zone = inode.getZone(i);
+      if (zone != 0) {
+        put(zone, inum, Role.DATA, i);
+      }
+    }
+    long first = Layout.DIRECT_ZONES;
+    for (int level = 1; level <= layout.getIndexLevels(); level++) {
+      int zone = inode.getZone(Layout.DIRECT_ZONES + level - 1);
+      if (zone != 0) {
+        scanIndex(inum, zone, level, first);
+      }
+      first += layout.span(level);
+    }
+  }
+
+  // level 级索引块覆盖从 first 开始的块，登记它自己和它下面的全部 zone。
+  // 超过最大文件块数的部分不可能被读到，逻辑块号也放不进 int，不登记
+  private void scanIndex(int inum, int indexZone, int level, long first) {
+    if (indexZone < firstDatazone || indexZone >= entries.length
+        || first >= layout.getMaxFileBlocks()) {
+      return;
+    }
+    put(indexZone, inum, Role.values()[level], (int) first);
+    int[] zones = IndexBlock.map(layout, fs.readBlock(indexZone)).indexes();
+    long childSpan = layout.span(level - 1);
+    for (int i = 0; i < zones.length && first + i * childSpan < layout.getMaxFileBlocks(); i++) {
+      if (zones[i] == 0) {
+        continue;
+      }
+      if (level == 1) {
+        put(zones[i], inum, Role.DATA, (int) (first + i));
+      } else {
+        scanIndex(inum, zones[i], level - 1, first + i * childSpan);
+      }
+    }
+  }
+}
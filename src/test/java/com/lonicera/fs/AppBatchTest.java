@@ -0,0 +1,119 @@
+package com.lonicera.fs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AppBatchTest {
+
+  private File image;
+
+  @Before
+  public void createImage() throws IOException {
+    image = File.createTempFile("minix-batch", ".img");
+    new ImageGenerator().files(20).fanOut(2).depth(1).freeZones(64).generate(image);
+  }
+
+  @After
+  public void deleteImage() {
+    image.delete();
+  }
+
+  @Test
+  public void parsesEachLineOnce() {
+    App.CommandLine command = App.CommandLine.parse("  write /a   hello   world ");
+    assertEquals("write", command.name());
+    assertEquals(3, command.argCount());
+    assertEquals("/a", command.arg(0));
+    assertEquals("hello   world", command.rest(1));
+    assertEquals(".", App.CommandLine.parse("ll").arg(0, "."));
+    assertNull(App.CommandLine.parse("   "));
+    assertNull(App.CommandLine.parse("# ll /"));
+  }
+
+  @Test
+  public void runsScriptIntoOneOutput() throws IOException {
+    try (MinixFileSystem fs = MinixFileSystem.open(image, true)) {
+      fs.mount(0);
+      ByteArrayOutputStream output = new ByteArrayOutputStream();
+      int failures = App.runBatch(fs, output, Arrays.asList(
+          "cd /d1",
+          "pwd",
+          "",
+          "write note first line",
+          "write note second  line",
+          "cat note",
+          "unknown command",
+          "cd /missing",
+          "stats"));
+      String text = output.toString("UTF-8");
+      assertEquals(2, failures);
+      assertTrue(text, text.startsWith("/d1\n"));
+      assertTrue(text, text.contains("first line\nsecond  line\n"));
+      assertTrue(text, text.contains("cat "));
+      assertEquals(2, fs.getMetrics().command("write").getCount());
+    }
+  }
+
+  @Test
+  public void unexpectedErrorsOnlyFailTheCommand() throws IOException {
+    try (MinixFileSystem fs = MinixFileSystem.open(image, true)) {
+      fs.mount(0);
+      // 根目录第 3 项指向不存在的 inode
+      ByteBuffer block = fs.getBufferCache().getForWrite(fs.root().getZone(0));
+      fs.getLayout().putEntryInode(block, 2 * fs.getLayout().getDirEntrySize(), 65535);
+      fs.getDentryCache().invalidate(1);
+      ByteArrayOutputStream output = new ByteArrayOutputStream();
+      int failures = App.runBatch(fs, output, Arrays.asList("ll /", "pwd", "help"));
+      String text = output.toString("UTF-8");
+      assertEquals(1, failures);
+      assertTrue(text, text.contains("/\n"));
+      assertTrue(text, text.contains("support : pwd "));
+    }
+  }
+
+  @Test
+  public void badModeDoesNotStopCommands() throws IOException {
+    try (MinixFileSystem fs = MinixFileSystem.open(image, true)) {
+      fs.mount(0);
+      fs.writableInode(fs.stat("/d0").getInum()).setImode(0_070755);
+      assertEquals('?', Inode.type(0_070755));
+      ByteArrayOutputStream output = new ByteArrayOutputStream();
+      int failures = App.runBatch(fs, output, Arrays.asList("ll /", "query", "grep zzz /",
+          "pwd"));
+      String text = output.toString("UTF-8");
+      assertEquals(text, 0, failures);
+      assertTrue(text, text.contains("  ? "));
+      assertTrue(text, text.endsWith("/\n"));
+    }
+  }
+
+  @Test
+  public void slicesFiles() throws IOException {
+    try (MinixFileSystem fs = MinixFileSystem.open(image, true)) {
+      fs.mount(0);
+      run(fs, "write /lines one", "write /lines two", "write /lines three");
+      assertEquals("one\ntwo\n", run(fs, "head -n 2 /lines"));
+      assertEquals("one\ntwo\nthree\n", run(fs, "head /lines"));
+      assertEquals("two\nthree\n", run(fs, "tail -n 2 /lines"));
+      assertEquals("ee\n", run(fs, "tail -c 3 /lines"));
+      assertEquals("two\n", run(fs, "dd if=/lines bs=4 skip=1 count=1"));
+      assertEquals("o\nthree\n", run(fs, "dd if=/lines bs=1 skip=6"));
+    }
+  }
+
+  private static String run(MinixFileSystem fs, String... lines) throws IOException {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    assertEquals(0, App.runBatch(fs, output, Arrays.asList(lines)));
+    return output.toString("UTF-8");
+  }
+}
@@ -0,0 +1,51 @@
+package com.lonicera.fs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Test;
+
+public class BlockIndexItrTest {
+
+  private static final int INDEX_COUNT = Layout.V1.getIndexCount();
+
+  private final Map<Integer, ByteBuffer> indexBlocks = new HashMap<>();
+  private int reads;
+
+  private ByteBuffer indexBlock(int zone) {
+    return indexBlocks.computeIfAbsent(zone, z -> ByteBuffer.allocate(Block.BLOCK_SIZE));
+  }
+
+  private IndexBlock read(int zone) {
+    reads++;
+    return IndexBlock.map(Layout.V1, indexBlock(zone).duplicate());
+  }
+
+  // 第 7 个直接块和每个索引块的最后一项都不能漏掉
+  @Test
+  public void visitsLastEntryOfEveryLevel() {
+    int[] zones = {1, 2, 3, 4, 5, 6, 7, 100, 200};
+    Bytes.putU16(indexBlock(100), 0, 1000);
+    Bytes.putU16(indexBlock(100), (INDEX_COUNT - 1) * 2, 1511);
+    Bytes.putU16(indexBlock(200), (INDEX_COUNT - 1) * 2, 300);
+    Bytes.putU16(indexBlock(300), (INDEX_COUNT - 1) * 2, 3000);
+    BlockIndexItr itr = new BlockIndexItr(Layout.V1, zones, this::read);
+    int[] seen = new int[Layout.V1.getMaxFileBlocks()];
+    int count = 0;
+    while (itr.hasNext()) {
+      seen[count++] = itr.next();
+    }
+    assertEquals(seen.length, count);
+    assertEquals(7, seen[6]);
+    assertEquals(1000, seen[7]);
+    assertEquals(1511, seen[7 + INDEX_COUNT - 1]);
+    assertEquals(0, seen[7 + INDEX_COUNT]);
+    assertEquals(3000, seen[seen.length - 1]);
+    // 一次间接块、二次间接块和它的子索引块各读一次，没有分配的子索引块不读取
+    assertEquals(3, reads);
+    assertFalse(itr.hasNext());
+  }
+}
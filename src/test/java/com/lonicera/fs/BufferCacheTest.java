@@ -0,0 +1,167 @@
+package com.lonicera.fs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+public class BufferCacheTest {
+
+  private final AtomicInteger reads = new AtomicInteger();
+
+  private ByteBuffer read(int block) {
+    reads.incrementAndGet();
+    ByteBuffer buffer = ByteBuffer.allocate(Block.BLOCK_SIZE);
+    buffer.put(0, (byte) block);
+    return buffer;
+  }
+
+  @Test
+  public void evictsLeastRecentlyUsed() {
+    BufferCache cache = new BufferCache(this::read, 2);
+    cache.get(1);
+    cache.get(2);
+    cache.get(1);
+    cache.get(3);
+    assertEquals(3, reads.get());
+    cache.get(1);
+    assertEquals(3, reads.get());
+    cache.get(2);
+    assertEquals(4, reads.get());
+    assertEquals(2, cache.getHits());
+    assertEquals(4, cache.getMisses());
+    assertEquals(2, cache.getEvictions());
+  }
+
+  @Test
+  public void pinnedBlocksSurviveEviction() {
+    BufferCache cache = new BufferCache(this::read, 1);
+    cache.pin(1);
+    cache.get(2);
+    cache.get(3);
+    assertEquals(1, cache.get(1).get(0));
+    assertEquals(3, reads.get());
+  }
+
+  @Test
+  public void viewsAreIndependent() {
+    BufferCache cache = new BufferCache(this::read, 1);
+    cache.get(7).limit(10);
+    assertEquals(Block.BLOCK_SIZE, cache.get(7).remaining());
+  }
+
+  @Test
+  public void flushCoalescesAdjacentDirtyBlocks() {
+    BufferCache cache = new BufferCache(this::read, 8);
+    cache.getForWrite(5).put(1, (byte) 50);
+    cache.getForWrite(3).put(1, (byte) 30);
+    cache.getForWrite(4).put(1, (byte) 40);
+    cache.getForWrite(3).put(2, (byte) 31);
+    cache.create(9);
+    assertEquals(4, cache.dirtyCount());
+    assertTrue(cache.isDirty(4, 1));
+    assertFalse(cache.isDirty(6, 3));
+
+    List<Integer> starts = new ArrayList<>();
+    List<Integer> lengths = new ArrayList<>();
+    assertEquals(4, cache.flush((block, bytes) -> {
+      starts.add(block);
+      lengths.add(bytes.remaining());
+      if (block == 3) {
+        assertEquals(31, bytes.get(2));
+        assertEquals(40, bytes.get(Block.BLOCK_SIZE + 1));
+      }
+    }));
+    assertEquals(Arrays.asList(3, 9), starts);
+    assertEquals(Arrays.asList(3 * Block.BLOCK_SIZE, Block.BLOCK_SIZE), lengths);
+    assertEquals(0, cache.dirtyCount());
+    assertEquals(50, cache.get(5).get(1));
+  }
+
+  @Test
+  public void writesCopyReadOnlyBlocks() {
+    ByteBuffer disk = ByteBuffer.allocate(Block.BLOCK_SIZE).asReadOnlyBuffer();
+    BufferCache cache = new BufferCache(block -> disk, 2);
+    cache.get(1);
+    cache.getForWrite(1).put(0, (byte) 1);
+    assertEquals(1, cache.get(1).get(0));
+    assertEquals(0, disk.get(0));
+  }
+
+  // 一块的读取卡住时，其他块的读取不受影响，同一块的并发读取只读一次
+  @Test(timeout = 10_000)
+  public void missesReadOutsideLock() throws Exception {
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    BufferCache cache = new BufferCache(block -> {
+      if (block == 1) {
+        started.countDown();
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          throw new IllegalStateException(e);
+        }
+      }
+      return read(block);
+    }, 8);
+    CompletableFuture<ByteBuffer> slow = CompletableFuture.supplyAsync(() -> cache.get(1));
+    assertTrue(started.await(5, TimeUnit.SECONDS));
+    CompletableFuture<ByteBuffer> waiting = CompletableFuture.supplyAsync(() -> cache.get(1));
+    assertEquals(2, cache.get(2).get(0));
+    cache.create(3).put(0, (byte) 30);
+    assertEquals(30, cache.get(3).get(0));
+    release.countDown();
+    assertEquals(1, slow.get().get(0));
+    assertEquals(1, waiting.get().get(0));
+    assertEquals(2, reads.get());
+  }
+
+  @Test(timeout = 60_000)
+  public void concurrentReadsFromFileChannel() throws Exception {
+    int count = 64;
+    File image = File.createTempFile("minix-buffer", ".img");
+    byte[] content = new byte[count * Block.BLOCK_SIZE];
+    for (int i = 0; i < content.length; i++) {
+      content[i] = (byte) (i / Block.BLOCK_SIZE * 3 + i);
+    }
+    Files.write(image.toPath(), content);
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try (FileChannelBlockDevice device = FileChannelBlockDevice.open(image)) {
+      BufferCache cache = new BufferCache(
+          block -> device.read((long) block * Block.BLOCK_SIZE, Block.BLOCK_SIZE), count / 4);
+      List<Future<?>> futures = new ArrayList<>();
+      for (int t = 0; t < 8; t++) {
+        int seed = t;
+        futures.add(executor.submit(() -> {
+          for (int i = 0; i < 2000; i++) {
+            int block = (i * 7 + seed * 13) % count;
+            int offset = (i * 31) % Block.BLOCK_SIZE;
+            assertEquals(content[block * Block.BLOCK_SIZE + offset], cache.get(block).get(offset));
+          }
+        }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+      assertEquals(8 * 2000, cache.getHits() + cache.getMisses());
+    } finally {
+      executor.shutdownNow();
+      image.delete();
+    }
+  }
+}
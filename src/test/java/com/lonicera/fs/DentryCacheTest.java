@@ -0,0 +1,145 @@
+package com.lonicera.fs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+public class DentryCacheTest {
+
+  private final AtomicInteger reads = new AtomicInteger();
+
+  private static Inode dir(int inum) {
+    return new Inode(Layout.V1, inum, ByteBuffer.allocate(Layout.V1.getInodeSize()), 0);
+  }
+
+  private List<DirEntry> read(Inode dir) {
+    reads.incrementAndGet();
+    return Arrays.asList(DirEntry.of(dir.getInum(), "."), DirEntry.of(dir.getInum() + 10, "a"));
+  }
+
+  @Test
+  public void cachesNegativeEntries() {
+    DentryCache cache = new DentryCache(this::read, 16, 4);
+    assertNull(cache.lookup(dir(1), "missing"));
+    assertNull(cache.lookup(dir(1), "missing"));
+    assertEquals(11, cache.lookup(dir(1), "a").getInode());
+    assertEquals(11, cache.lookup(dir(1), "a").getInode());
+    assertEquals(1, reads.get());
+    assertEquals(1, cache.getNegativeHits());
+    assertEquals(1, cache.getHits());
+    assertEquals(2, cache.getMisses());
+
+    cache.invalidate(1);
+    assertNull(cache.lookup(dir(1), "missing"));
+    assertEquals(2, reads.get());
+  }
+
+  @Test
+  public void addAndRemoveUpdateIndexInPlace() {
+    DentryCache cache = new DentryCache(this::read, 16, 4);
+    assertNull(cache.lookup(dir(1), "b"));
+    cache.added(1, DirEntry.of(50, "b"));
+    cache.added(1, DirEntry.of(51, "c"));
+    assertEquals(50, cache.lookup(dir(1), "b").getInode());
+    assertEquals(51, cache.lookup(dir(1), "c").getInode());
+    cache.removed(1, "a");
+    assertNull(cache.lookup(dir(1), "a"));
+    assertEquals(1, reads.get());
+  }
+
+  // 批量创建时目录索引和已缓存的目录项保持有效，删除后空出的目录项被重新使用
+  @Test
+  public void bulkCreateKeepsDirectoryIndex() throws IOException {
+    File image = File.createTempFile("minix-dentry", ".img");
+    try {
+      new ImageGenerator().files(10).fanOut(1).depth(0).freeRatio(30).freeZones(64)
+          .generate(image);
+      try (MinixFileSystem fs = MinixFileSystem.open(image, true)) {
+        fs.mount(0);
+        for (int i = 0; i < 200; i++) {
+          fs.create(fs.root(), "new" + i);
+        }
+        long hits = fs.getDentryCache().getHits();
+        long misses = fs.getDentryCache().getMisses();
+        for (int i = 0; i < 200; i++) {
+          assertNotNull(fs.childEntryOrNull(fs.root(), "new" + i));
+        }
+        assertEquals(hits + 200, fs.getDentryCache().getHits());
+        assertEquals(misses, fs.getDentryCache().getMisses());
+
+        long size = fs.root().getIsize();
+        fs.unlink(fs.root(), "new100");
+        fs.create(fs.root(), "g");
+        assertEquals(size, fs.root().getIsize());
+        fs.sync();
+      }
+      try (MinixFileSystem fs = MinixFileSystem.open(image)) {
+        fs.mount(0);
+        assertNull(fs.childEntryOrNull(fs.root(), "new100"));
+        assertNotNull(fs.childEntryOrNull(fs.root(), "g"));
+        assertNotNull(fs.childEntryOrNull(fs.root(), "new199"));
+      }
+    } finally {
+      image.delete();
+    }
+  }
+
+  @Test
+  public void createAndUnlinkInvalidateEntries() throws IOException {
+    File image = File.createTempFile("minix-dentry", ".img");
+    try {
+      new ImageGenerator().files(10).fanOut(1).depth(0).freeRatio(0.5).freeZones(16)
+          .generate(image);
+      try (MinixFileSystem fs = MinixFileSystem.open(image, true)) {
+        fs.mount(0);
+        assertNull(fs.childEntryOrNull(fs.root(), "new"));
+        Inode created = fs.create(fs.root(), "new");
+        assertEquals(created.getInum(), fs.childEntryOrNull(fs.root(), "new").getInode());
+        fs.unlink(fs.root(), "new");
+        assertNull(fs.childEntryOrNull(fs.root(), "new"));
+      }
+    } finally {
+      image.delete();
+    }
+  }
+
+  // 一个目录读取很慢时，其他目录的查找不受影响，同一目录的并发查找只读取一次
+  @Test(timeout = 10_000)
+  public void coldDirectoryDoesNotBlockOtherLookups() throws Exception {
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    DentryCache cache = new DentryCache(dir -> {
+      if (dir.getInum() == 1) {
+        started.countDown();
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          throw new IllegalStateException(e);
+        }
+      }
+      return read(dir);
+    }, 16, 4);
+    CompletableFuture<DirEntry> slow = CompletableFuture.supplyAsync(
+        () -> cache.lookup(dir(1), "a"));
+    assertTrue(started.await(5, TimeUnit.SECONDS));
+    CompletableFuture<DirEntry> waiting = CompletableFuture.supplyAsync(
+        () -> cache.lookup(dir(1), "."));
+    assertEquals(12, cache.lookup(dir(2), "a").getInode());
+    release.countDown();
+    assertEquals(11, slow.get().getInode());
+    assertEquals(1, waiting.get().getInode());
+    assertEquals(2, reads.get());
+  }
+}
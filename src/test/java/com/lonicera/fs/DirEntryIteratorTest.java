@@ -0,0 +1,57 @@
+package com.lonicera.fs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DirEntryIteratorTest {
+
+  private File image;
+
+  @Before
+  public void createImage() throws IOException {
+    // 根目录下 3000 个文件，目录跨越间接块
+    image = File.createTempFile("minix-dir", ".img");
+    new ImageGenerator().files(3000).fanOut(1).depth(0).freeZones(64).generate(image);
+  }
+
+  @After
+  public void deleteImage() {
+    image.delete();
+  }
+
+  @Test
+  public void pagesMatchFullListing() throws IOException {
+    try (MinixFileSystem fs = MinixFileSystem.open(image)) {
+      fs.mount(0);
+      List<DirEntry> all = fs.list(fs.root());
+      assertEquals(3002, all.size());
+      List<DirEntry> page = fs.list(fs.root(), 2990, 100);
+      assertEquals(12, page.size());
+      for (int i = 0; i < page.size(); i++) {
+        assertEquals(all.get(2990 + i).getName(), page.get(i).getName());
+      }
+      DirEntryIterator itr = fs.iterate(fs.root());
+      assertEquals(3002, itr.skip(5000));
+      assertFalse(itr.hasNext());
+    }
+  }
+
+  @Test
+  public void skipsFreedSlots() throws IOException {
+    try (MinixFileSystem fs = MinixFileSystem.open(image, true)) {
+      fs.mount(0);
+      fs.unlink(fs.root(), "/f0");
+      fs.unlink(fs.root(), "/f1");
+      // . .. 之后原来是 f0 f1 f2
+      assertEquals("f2", fs.list(fs.root(), 2, 1).get(0).getName());
+      assertEquals(3000, fs.list(fs.root()).size());
+    }
+  }
+}
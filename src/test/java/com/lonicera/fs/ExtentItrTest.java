@@ -0,0 +1,63 @@
+package com.lonicera.fs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+public class ExtentItrTest {
+
+  private static final int INDIRECT = 100;
+
+  private static BlockIndexItr blocks(int... indirectEntries) {
+    int[] zones = {10, 11, 12, 0, 0, 20, 21, INDIRECT, 0};
+    ByteBuffer indirect = ByteBuffer.allocate(Block.BLOCK_SIZE);
+    for (int i = 0; i < indirectEntries.length; i++) {
+      Bytes.putU16(indirect, i * 2, indirectEntries[i]);
+    }
+    return new BlockIndexItr(Layout.V1, zones, zone -> {
+      assertEquals(INDIRECT, zone);
+      return IndexBlock.map(Layout.V1, indirect.duplicate());
+    });
+  }
+
+  private static List<String> extents(ExtentItr itr) {
+    List<String> extents = new ArrayList<>();
+    while (itr.hasNext()) {
+      Extent extent = itr.next();
+      extents.add(extent.getZone() + "+" + extent.getBlocks() + ":" + extent.getLength());
+    }
+    return extents;
+  }
+
+  @Test
+  public void coalescesAdjacentZonesAndHoles() {
+    long size = 9L * Block.BLOCK_SIZE + 5;
+    ExtentItr itr = new ExtentItr(blocks(22, 23, 40, 41), size, Block.BLOCK_SIZE);
+    List<String> extents = extents(itr);
+    // 直接块和一次间接块中的相邻 zone 合并，末块按文件大小截断，之后的块不再给出
+    assertEquals(4, extents.size());
+    assertEquals("10+3:3072", extents.get(0));
+    assertEquals("0+2:2048", extents.get(1));
+    assertEquals("20+4:4096", extents.get(2));
+    assertEquals("40+1:5", extents.get(3));
+    assertFalse(itr.hasNext());
+  }
+
+  @Test
+  public void trailingHoleEndsAtFileSize() {
+    long size = 12L * Block.BLOCK_SIZE - 1;
+    List<String> extents = extents(new ExtentItr(blocks(22), size, Block.BLOCK_SIZE));
+    assertEquals("20+3:3072", extents.get(2));
+    assertEquals("0+4:" + (4 * Block.BLOCK_SIZE - 1), extents.get(3));
+    assertEquals(4, extents.size());
+  }
+
+  @Test
+  public void emptyFileHasNoExtents() {
+    assertFalse(new ExtentItr(blocks(), 0, Block.BLOCK_SIZE).hasNext());
+  }
+}
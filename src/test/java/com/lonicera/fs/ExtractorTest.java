@@ -0,0 +1,71 @@
+package com.lonicera.fs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ExtractorTest {
+
+  private File image;
+  private File hostDir;
+  private ImageGenerator.Summary summary;
+
+  @Before
+  public void createImage() throws IOException {
+    image = File.createTempFile("minix-extract", ".img");
+    hostDir = Files.createTempDirectory("minix-extract").toFile();
+    summary = new ImageGenerator().files(300).fanOut(3).depth(2).largeFiles(1, 700 * 1024)
+        .generate(image);
+  }
+
+  @After
+  public void deleteImage() throws IOException {
+    image.delete();
+    try (Stream<Path> paths = Files.walk(hostDir.toPath())) {
+      paths.sorted((a, b) -> b.compareTo(a)).forEach(path -> path.toFile().delete());
+    }
+  }
+
+  @Test
+  public void extractsWholeTreeWithSizesAndTimes() throws IOException {
+    try (MinixFileSystem fs = MinixFileSystem.open(image)) {
+      fs.mount(0);
+      // 额度小于大文件，大文件独占额度时其他文件等待
+      Extractor.Summary result = new Extractor(fs).threads(4).maxInFlightBytes(64 * 1024)
+          .extract(fs.root(), "/", hostDir);
+      assertTrue(result.getErrors().toString(), result.getErrors().isEmpty());
+      assertEquals(300, result.getFiles());
+      assertEquals(13, result.getDirs());
+
+      String largest = summary.getLargestFile();
+      Inode inode = fs.stat(largest);
+      File copy = new File(hostDir, largest.substring(1));
+      assertEquals(inode.getIsize(), copy.length());
+      assertEquals(inode.getImtime() * 1000, copy.lastModified());
+      byte[] bytes = Files.readAllBytes(copy.toPath());
+      for (int offset = 0; offset < bytes.length; offset += 4093) {
+        assertEquals(ImageGenerator.contentByte(inode.getInum(), offset), bytes[offset]);
+      }
+    }
+  }
+
+  @Test
+  public void extractsSubtreeUnderItsName() throws IOException {
+    try (MinixFileSystem fs = MinixFileSystem.open(image)) {
+      fs.mount(0);
+      Extractor.Summary result = new Extractor(fs).extract(fs.stat("/d1/d2"), "d2", hostDir);
+      assertEquals(1, result.getDirs());
+      File dir = new File(hostDir, "d2");
+      assertEquals(fs.list("/d1/d2").size() - 2, dir.list().length);
+      assertEquals(fs.stat("/d1/d2").getImtime() * 1000, dir.lastModified());
+    }
+  }
+}
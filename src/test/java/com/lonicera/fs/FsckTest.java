@@ -0,0 +1,100 @@
+package com.lonicera.fs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FsckTest {
+
+  private File image;
+
+  @Before
+  public void createImage() throws IOException {
+    image = File.createTempFile("minix-fsck", ".img");
+    new ImageGenerator().files(500).fanOut(4).depth(2).largeFiles(1, 700 * 1024).generate(image);
+  }
+
+  @After
+  public void deleteImage() {
+    image.delete();
+  }
+
+  @Test
+  public void generatedImageIsClean() throws IOException {
+    try (MinixFileSystem fs = MinixFileSystem.open(image)) {
+      fs.mount(0);
+      Fsck.Report report = new Fsck(fs).check();
+      assertTrue(report.toString(), report.isClean());
+      assertEquals(500, report.getFiles());
+      assertEquals(21, report.getDirs());
+      assertEquals(fs.getZoneMap().cardinality() - 1, report.getZones());
+    }
+  }
+
+  @Test
+  public void reportsBitmapAndLinkErrors() throws IOException {
+    try (MinixFileSystem fs = MinixFileSystem.open(image, true)) {
+      fs.mount(0);
+      SuperBlock superBlock = fs.getSuperBlock();
+      // 根目录的第一个 zone 不再标记为已用，最后一个 zone 标记为已用
+      int rootZone = fs.root().getZone(0);
+      int rootBit = rootZone - superBlock.getFirstDatazone() + 1;
+      fs.getZoneMap().clear(rootBit, rootBit + 1);
+      int lastBit = fs.getZoneMap().size() - 1;
+      fs.getZoneMap().set(lastBit, lastBit + 1);
+      // 2 号 inode 的链接数改为 3
+      int inodeTable = 2 + superBlock.getImapBlocks() + superBlock.getZmapBlocks();
+      ByteBuffer block = fs.getBufferCache().getForWrite(inodeTable);
+      block.put(Layout.V1.getInodeSize() + 13, (byte) 3);
+
+      Fsck.Report report = new Fsck(fs).check();
+      assertEquals(report.toString(), 3, report.getErrors());
+      assertTrue(report.getMessages()
+          .contains("zone " + rootZone + " is used but not marked in zone map"));
+      assertTrue(report.getMessages().contains("zone " + (superBlock.getNzones() - 1)
+          + " is marked in zone map but not used"));
+      assertTrue(report.getMessages().contains("inode 2 has 3 links but 1 references"));
+    }
+  }
+
+  @Test
+  public void reportsBadMode() throws IOException {
+    try (MinixFileSystem fs = MinixFileSystem.open(image, true)) {
+      fs.mount(0);
+      SuperBlock superBlock = fs.getSuperBlock();
+      int inodeTable = 2 + superBlock.getImapBlocks() + superBlock.getZmapBlocks();
+      ByteBuffer block = fs.getBufferCache().getForWrite(inodeTable);
+      Bytes.putU16(block, Layout.V1.getInodeSize(), 0_070644);
+      fs.getInodeCache().invalidate(2);
+      assertFalse(Inode.isValidMode(0_070644));
+
+      Fsck.Report report = new Fsck(fs).check();
+      assertTrue(report.toString(), report.getMessages().contains("inode 2 has bad mode 70644"));
+    }
+  }
+
+  // 设备文件的 i_zone[0] 是设备号，不是 zone
+  @Test
+  public void deviceNumbersAreNotZones() throws IOException {
+    try (MinixFileSystem fs = MinixFileSystem.open(image, true)) {
+      fs.mount(0);
+      int dataZone = fs.root().getZone(0);
+      Inode tty = fs.writableInode(fs.create(fs.root(), "tty0").getInum());
+      tty.setImode(0_020644);
+      tty.setZone(0, 0x400);
+      Inode disk = fs.writableInode(fs.create(fs.root(), "hd1").getInum());
+      disk.setImode(0_060644);
+      disk.setZone(0, dataZone);
+
+      Fsck.Report report = new Fsck(fs).check();
+      assertTrue(report.toString(), report.isClean());
+    }
+  }
+}
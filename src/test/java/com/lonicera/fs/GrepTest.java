@@ -0,0 +1,110 @@
+package com.lonicera.fs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class GrepTest {
+
+  private File image;
+  private ForkJoinPool pool;
+
+  @Before
+  public void createFiles() throws IOException {
+    image = File.createTempFile("minix-grep", ".img");
+    new ImageGenerator().files(20).fanOut(2).depth(1).freeRatio(0.5).freeZones(512)
+        .generate(image);
+    pool = new ForkJoinPool(4);
+    try (MinixFileSystem fs = MinixFileSystem.open(image, true)) {
+      fs.mount(0);
+      Inode dir = fs.mkdir(fs.root(), "g");
+      // "needle" 跨过第一块和第二块的边界
+      StringBuilder text = new StringBuilder();
+      while (text.length() < Block.BLOCK_SIZE - 3) {
+        text.append("filler line\n");
+      }
+      text.setLength(Block.BLOCK_SIZE - 3);
+      text.append("needle here\nmore\nNEEDLE again\n");
+      write(fs, dir, "a.txt", text.toString());
+      write(fs, dir, "b.txt", "nothing\nhay needle hay needle\n");
+      write(fs, dir, "c.txt", "no match\n");
+      fs.mkdir(dir, "sub");
+      write(fs, dir, "sub/d.txt", "version 1.20\nversion 12\n");
+    }
+  }
+
+  private static void write(MinixFileSystem fs, Inode dir, String name, String content) {
+    MinixFile file = fs.open(fs.create(dir, name));
+    file.write(ByteBuffer.wrap(content.getBytes(StandardCharsets.US_ASCII)), 0);
+  }
+
+  @After
+  public void deleteImage() {
+    pool.shutdown();
+    image.delete();
+  }
+
+  @Test
+  public void findsLiteralAcrossBlocks() throws IOException {
+    try (MinixFileSystem fs = MinixFileSystem.open(image)) {
+      fs.mount(0);
+      Inode dir = fs.stat("/g");
+      Grep.Result result = new Grep(fs, pool).lineNumbers(true).search("needle", dir, "/g");
+      assertEquals(4, result.getSearched());
+      assertEquals(Arrays.asList("/g/a.txt", "/g/b.txt"), result.getFiles());
+      List<String> lines = lines(result);
+      int fillers = (Block.BLOCK_SIZE - 3) / "filler line\n".length();
+      String split = "filler line\n".substring(0, (Block.BLOCK_SIZE - 3) % 12);
+      assertEquals(Arrays.asList(
+          "/g/a.txt:" + (fillers + 1) + ":" + split + "needle here",
+          "/g/b.txt:2:hay needle hay needle"), lines);
+      assertEquals(Block.BLOCK_SIZE - 3 - split.length(), result.getMatches().get(0).getOffset());
+
+      result = new Grep(fs, pool).ignoreCase(true).search("needle", dir, "/g");
+      assertEquals(3, result.getMatches().size());
+      assertEquals("NEEDLE again", result.getMatches().get(1).getText());
+    }
+  }
+
+  @Test
+  public void matchesRegexLineByLine() throws IOException {
+    try (MinixFileSystem fs = MinixFileSystem.open(image)) {
+      fs.mount(0);
+      Inode dir = fs.stat("/g");
+      Grep.Result result = new Grep(fs, pool).regex(true).lineNumbers(true)
+          .search("^version 1\\.\\d+$", fs.lookup(dir, "sub"), "sub");
+      assertEquals(Arrays.asList("sub/d.txt:1:version 1.20"), lines(result));
+
+      result = new Grep(fs, pool).regex(true).filesOnly(true).search("e{2}|1\\.", dir, ".");
+      assertEquals(Arrays.asList("./a.txt", "./b.txt", "./sub/d.txt"), result.getFiles());
+      assertTrue(result.getMatches().isEmpty());
+
+      try {
+        new Grep(fs, pool).regex(true).search("(", dir, ".");
+        fail();
+      } catch (CommandExecuteException e) {
+        assertTrue(e.getMessage().startsWith("bad pattern"));
+      }
+    }
+  }
+
+  private static List<String> lines(Grep.Result result) {
+    List<String> lines = new ArrayList<>();
+    for (Grep.Match match : result.getMatches()) {
+      lines.add(match.toString());
+    }
+    return lines;
+  }
+}
@@ -0,0 +1,83 @@
+package com.lonicera.fs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ImageGeneratorTest {
+
+  private File image;
+
+  @Before
+  public void createImage() throws IOException {
+    image = File.createTempFile("minix-test", ".img");
+  }
+
+  @After
+  public void deleteImage() {
+    image.delete();
+  }
+
+  @Test
+  public void generatedImageMountsAndReadsBack() throws IOException {
+    ImageGenerator.Summary summary = new ImageGenerator()
+        .files(300)
+        .fanOut(3)
+        .depth(2)
+        .fileSize(ImageGenerator.SizeDistribution.EXPONENTIAL, 0, 3000, 20000)
+        .largeFiles(1, 1024 * 1024)
+        .partitions(2)
+        .generate(image);
+    assertEquals(13 * 2, summary.getDirs());
+    assertTrue(summary.getLargestFileSize() > ImageGenerator.DOUBLE_INDIRECT_START);
+
+    try (MinixFileSystem fs = MinixFileSystem.open(image)) {
+      assertEquals(ImageGenerator.SYS_IND_MINIX, fs.partitions()[1].getSysInd());
+      assertEquals(0, fs.partitions()[2].getSysInd());
+      fs.mount(1);
+      assertEquals(ImageGenerator.MAGIC_V1, fs.getSuperBlock().getMagic());
+      assertEquals(300, countFiles(fs, fs.root()));
+      assertNotEquals(0, fs.stat(summary.getDeepestFile()).getInum());
+
+      Inode large = fs.stat(summary.getLargestFile());
+      assertEquals(summary.getLargestFileSize(), large.getIsize());
+      ByteBuffer content = ByteBuffer.allocate((int) large.getIsize());
+      assertEquals(content.capacity(), fs.open(large).read(content, 0));
+      for (int i = 0; i < content.capacity(); i++) {
+        assertEquals(ImageGenerator.contentByte(large.getInum(), i), content.get(i));
+      }
+    }
+  }
+
+  @Test
+  public void largeDirectoryUsesIndirectZone() throws IOException {
+    // 根目录 2000 个目录项，占 32 块
+    new ImageGenerator().files(2000).depth(0).generate(image);
+    try (MinixFileSystem fs = MinixFileSystem.open(image)) {
+      fs.mount(0);
+      assertEquals(2002, fs.list(fs.root()).size());
+      assertEquals(1999 + 2, fs.stat("/f1999").getInum());
+    }
+  }
+
+  private int countFiles(MinixFileSystem fs, Inode dir) {
+    int count = 0;
+    List<DirEntry> entries = fs.list(dir);
+    for (DirEntry entry : entries) {
+      if (entry.getName().equals(".") || entry.getName().equals("..")) {
+        continue;
+      }
+      Inode inode = fs.readInode(entry.getInode());
+      count += inode.isDir() ? countFiles(fs, inode) : 1;
+    }
+    return count;
+  }
+}
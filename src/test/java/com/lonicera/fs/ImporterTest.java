@@ -0,0 +1,121 @@
+package com.lonicera.fs;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ImporterTest {
+
+  private File image;
+  private Path hostDir;
+  private byte[] big;
+
+  @Before
+  public void createTree() throws IOException {
+    image = File.createTempFile("minix-import", ".img");
+    new ImageGenerator().files(50).fanOut(2).depth(1).freeRatio(0.5).freeZones(4096)
+        .generate(image);
+    hostDir = Files.createTempDirectory("minix-import");
+    Path src = Files.createDirectory(hostDir.resolve("src"));
+    Files.write(src.resolve("a.txt"), "hello minix".getBytes(StandardCharsets.US_ASCII));
+    // 超过一次间接块能覆盖的大小，用到二次间接块
+    big = new byte[600 * 1024 + 123];
+    new Random(7).nextBytes(big);
+    Files.write(src.resolve("big.bin"), big);
+    Files.createFile(src.resolve("empty"));
+    Path sub = Files.createDirectories(src.resolve("sub/deep"));
+    Files.write(sub.resolve("d"), new byte[]{1, 2, 3});
+    Files.setLastModifiedTime(src.resolve("a.txt"), FileTime.fromMillis(1_500_000_000_000L));
+  }
+
+  @After
+  public void deleteTree() throws IOException {
+    image.delete();
+    try (Stream<Path> paths = Files.walk(hostDir)) {
+      paths.sorted((a, b) -> b.compareTo(a)).forEach(path -> path.toFile().delete());
+    }
+  }
+
+  @Test
+  public void importsTreeContiguously() throws IOException {
+    try (MinixFileSystem fs = MinixFileSystem.open(image, true)) {
+      fs.mount(0);
+      int rootLinks = fs.root().getInlinks();
+      Importer.Summary summary = new Importer(fs).batchBytes(64 * 1024)
+          .importFrom(hostDir.resolve("src").toFile(), fs.root());
+      assertEquals(4, summary.getFiles());
+      assertEquals(3, summary.getDirs());
+      assertEquals(big.length + 11 + 3, summary.getBytes());
+      assertEquals(1, summary.getRuns());
+      assertEquals(rootLinks + 1, fs.root().getInlinks());
+    }
+    try (MinixFileSystem fs = MinixFileSystem.open(image)) {
+      fs.mount(0);
+      assertArrayEquals(big, content(fs, "/src/big.bin"));
+      assertEquals("hello minix",
+          new String(content(fs, "/src/a.txt"), StandardCharsets.US_ASCII));
+      assertEquals(1_500_000_000L, fs.stat("/src/a.txt").getImtime());
+      assertEquals(0, fs.stat("/src/empty").getIsize());
+      assertArrayEquals(new byte[]{1, 2, 3}, content(fs, "/src/sub/deep/d"));
+      assertEquals(3, fs.stat("/src").getInlinks());
+
+      // 数据块连续，只有一个区段
+      List<Extent> extents = new ArrayList<>();
+      fs.extentItr(fs.stat("/src/big.bin")).forEachRemaining(extents::add);
+      assertEquals(1, extents.size());
+      // 同一目录中的文件 inode 编号相邻
+      int first = fs.stat("/src/a.txt").getInum();
+      assertEquals(first + 1, fs.stat("/src/big.bin").getInum());
+      assertEquals(first + 2, fs.stat("/src/empty").getInum());
+
+      Fsck.Report report = new Fsck(fs).check();
+      assertTrue(report.toString(), report.isClean());
+    }
+  }
+
+  @Test
+  public void failsBeforeWritingWhenSpaceIsShort() throws IOException {
+    try (MinixFileSystem fs = MinixFileSystem.open(image, true)) {
+      fs.mount(0);
+      int freeZones = fs.freeZones();
+      int freeInodes = fs.freeInodes();
+      try (RandomAccessFile file = new RandomAccessFile(
+          hostDir.resolve("src/sub/huge").toFile(), "rw")) {
+        file.setLength((freeZones + 1L) * Block.BLOCK_SIZE);
+      }
+      try {
+        new Importer(fs).importFrom(hostDir.resolve("src").toFile(), fs.root());
+        fail();
+      } catch (CommandExecuteException e) {
+        assertEquals("no space left on device", e.getMessage());
+      }
+      assertEquals(freeZones, fs.freeZones());
+      assertEquals(freeInodes, fs.freeInodes());
+      assertNull(fs.childEntryOrNull(fs.root(), "src"));
+    }
+  }
+
+  private static byte[] content(MinixFileSystem fs, String path) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    fs.writeTo(fs.stat(path), bytes);
+    return bytes.toByteArray();
+  }
+}
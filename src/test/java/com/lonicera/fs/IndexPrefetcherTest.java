@@ -0,0 +1,132 @@
+package com.lonicera.fs;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class IndexPrefetcherTest {
+
+  private static final int INDEX_COUNT = Layout.V1.getIndexCount();
+
+  private File image;
+  private ExecutorService executor;
+
+  @Before
+  public void createImage() throws IOException {
+    image = File.createTempFile("minix-prefetch", ".img");
+  }
+
+  @After
+  public void cleanUp() {
+    image.delete();
+    if (executor != null) {
+      executor.shutdownNow();
+    }
+  }
+
+  // 只有一个线程时，预取任务如果等待排在它后面的读取任务就永远不会结束
+  @Test(timeout = 10_000)
+  public void singleThreadPoolPrefetchesEveryLeaf() throws Exception {
+    Map<Integer, ByteBuffer> blocks = new ConcurrentHashMap<>();
+    ByteBuffer top = ByteBuffer.allocate(Block.BLOCK_SIZE);
+    for (int i = 0; i < 3; i++) {
+      Bytes.putU16(top, i * 2, 300 + i);
+      ByteBuffer leaf = ByteBuffer.allocate(Block.BLOCK_SIZE);
+      Bytes.putU16(leaf, 0, 1000 + i);
+      blocks.put(300 + i, leaf);
+    }
+    blocks.put(200, top);
+    ByteBuffer indirect = ByteBuffer.allocate(Block.BLOCK_SIZE);
+    Bytes.putU16(indirect, (INDEX_COUNT - 1) * 2, 999);
+    blocks.put(100, indirect);
+
+    Set<Integer> prefetched = ConcurrentHashMap.newKeySet();
+    executor = IndexPrefetcher.newExecutor(1);
+    // 二次间接块读得慢，它指向的索引块排在使用方触发的预取任务之后
+    IndexPrefetcher prefetcher = new IndexPrefetcher(Layout.V1, zone -> {
+      if (zone == 200) {
+        sleep(200);
+      }
+      return blocks.get(zone).duplicate();
+    }, prefetched::add, executor, 100, 200);
+    prefetcher.start();
+    assertEquals(999, prefetcher.get(100).index(INDEX_COUNT - 1));
+    for (int i = 0; i < 3; i++) {
+      assertEquals(1000 + i, prefetcher.get(300 + i).index(0));
+    }
+    while (prefetched.size() < 4) {
+      Thread.sleep(10);
+    }
+  }
+
+  @Test(timeout = 60_000)
+  public void concurrentReadersOfDoubleIndirectFilesFinish() throws Exception {
+    ImageGenerator.Summary summary = new ImageGenerator().files(16).fanOut(1).depth(0)
+        .largeFiles(16, 3 * 1024 * 1024).generate(image);
+    try (MinixFileSystem fs = MinixFileSystem.open(image)) {
+      fs.mount(0);
+      List<Inode> files = new ArrayList<>();
+      for (int i = 0; i < 16; i++) {
+        files.add(fs.stat("/f" + i));
+      }
+      ExecutorService readers = Executors.newFixedThreadPool(8);
+      try {
+        List<Future<Long>> results = new ArrayList<>();
+        for (int round = 0; round < 4; round++) {
+          for (Inode inode : files) {
+            results.add(readers.submit(() -> {
+              CountingStream out = new CountingStream();
+              fs.open(inode).writeTo(out);
+              return out.count;
+            }));
+          }
+        }
+        for (int i = 0; i < results.size(); i++) {
+          assertEquals(files.get(i % files.size()).getIsize(), (long) results.get(i).get());
+        }
+      } finally {
+        readers.shutdownNow();
+        readers.awaitTermination(5, TimeUnit.SECONDS);
+      }
+      assertEquals(summary.getDataBytes(), files.stream().mapToLong(Inode::getIsize).sum());
+    }
+  }
+
+  private static void sleep(long millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static class CountingStream extends OutputStream {
+
+    private long count;
+
+    @Override
+    public void write(int b) {
+      count++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+      count += len;
+    }
+  }
+}
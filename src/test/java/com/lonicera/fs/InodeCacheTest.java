@@ -0,0 +1,112 @@
+package com.lonicera.fs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class InodeCacheTest {
+
+  private static final int START_BLOCK = 5;
+  private static final int PER_BLOCK = Layout.V1.getInodesPerBlock();
+
+  private final List<Integer> reads = Collections.synchronizedList(new ArrayList<>());
+
+  // 每个 inode 的 uid 是自己的编号
+  private ByteBuffer read(int block) {
+    reads.add(block);
+    ByteBuffer bytes = ByteBuffer.allocate(Block.BLOCK_SIZE);
+    for (int slot = 0; slot < PER_BLOCK; slot++) {
+      int inum = (block - START_BLOCK) * PER_BLOCK + slot + 1;
+      Bytes.putU16(bytes, slot * Layout.V1.getInodeSize() + 2, inum);
+    }
+    return bytes;
+  }
+
+  private InodeCache cache(int capacity) {
+    return new InodeCache(Layout.V1, this::read, START_BLOCK, 10 * PER_BLOCK, capacity);
+  }
+
+  @Test
+  public void loadsWholeTableBlock() {
+    InodeCache cache = cache(4);
+    Inode first = cache.get(1);
+    for (int inum = 1; inum <= PER_BLOCK; inum++) {
+      assertEquals(inum, cache.get(inum).getIuid());
+    }
+    assertEquals(Arrays.asList(START_BLOCK), reads);
+    assertSame(first, cache.get(1));
+    assertEquals(1, cache.getMisses());
+    assertEquals(PER_BLOCK + 1, cache.getHits());
+
+    cache.get(PER_BLOCK + 1);
+    assertEquals(Arrays.asList(START_BLOCK, START_BLOCK + 1), reads);
+  }
+
+  @Test
+  public void getAllReadsEachBlockOnceInArgumentOrder() {
+    InodeCache cache = cache(4);
+    int[] inums = {3 * PER_BLOCK, 2, PER_BLOCK * 2 + 1, 1, 3 * PER_BLOCK - 1};
+    Inode[] inodes = cache.getAll(inums);
+    for (int i = 0; i < inums.length; i++) {
+      assertEquals(inums[i], inodes[i].getInum());
+      assertEquals(inums[i], inodes[i].getIuid());
+    }
+    // 按块号顺序读取，第 2 块没有用到
+    assertEquals(Arrays.asList(START_BLOCK, START_BLOCK + 2), reads);
+  }
+
+  @Test
+  public void evictsAndInvalidatesWholeBlocks() {
+    InodeCache cache = cache(1);
+    cache.get(1);
+    cache.get(PER_BLOCK + 1);
+    cache.get(2);
+    assertEquals(3, reads.size());
+    cache.invalidate(3);
+    cache.get(1);
+    assertEquals(4, reads.size());
+    try {
+      cache.get(10 * PER_BLOCK + 1);
+      fail();
+    } catch (IllegalArgumentException e) {
+      assertEquals("inode " + (10 * PER_BLOCK + 1) + " out of range", e.getMessage());
+    }
+  }
+
+  // 装载卡住的块不影响其他块，同一块的并发装载共用同一组 Inode
+  @Test(timeout = 10_000)
+  public void loadsOutsideLock() throws Exception {
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    InodeCache cache = new InodeCache(Layout.V1, block -> {
+      if (block == START_BLOCK) {
+        started.countDown();
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          throw new IllegalStateException(e);
+        }
+      }
+      return read(block);
+    }, START_BLOCK, 10 * PER_BLOCK, 4);
+    CompletableFuture<Inode> slow = CompletableFuture.supplyAsync(() -> cache.get(1));
+    assertTrue(started.await(5, TimeUnit.SECONDS));
+    CompletableFuture<Inode> waiting = CompletableFuture.supplyAsync(() -> cache.get(1));
+    assertEquals(PER_BLOCK + 1, cache.get(PER_BLOCK + 1).getIuid());
+    release.countDown();
+    assertSame(slow.get(), waiting.get());
+    assertSame(slow.get(), cache.get(1));
+    assertEquals(Arrays.asList(START_BLOCK + 1, START_BLOCK), reads);
+  }
+}
@@ -0,0 +1,89 @@
+package com.lonicera.fs;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class InodeTableTest {
+
+  private File image;
+  private ImageGenerator.Summary summary;
+
+  @Before
+  public void createImage() throws IOException {
+    image = File.createTempFile("minix-table", ".img");
+    summary = new ImageGenerator().files(500).fanOut(4).depth(2).largeFiles(1, 700 * 1024)
+        .generate(image);
+  }
+
+  @After
+  public void deleteImage() {
+    image.delete();
+  }
+
+  @Test
+  public void scanKeepsAllocatedInodes() throws IOException {
+    try (MinixFileSystem fs = MinixFileSystem.open(image)) {
+      fs.mount(0);
+      InodeTable table = InodeTable.scan(fs);
+      assertEquals(521, table.getCount());
+      assertEquals(500, table.query().type('f').select().length);
+      assertArrayEquals(new String[]{"/", summary.getLargestFile()},
+          table.paths(new int[]{MinixFileSystem.ROOT_INODE,
+              table.query().minSize(summary.getLargestFileSize()).select()[0]}));
+    }
+  }
+
+  @Test
+  public void queryMatchesTreeWalk() throws IOException {
+    try (MinixFileSystem fs = MinixFileSystem.open(image)) {
+      fs.mount(0);
+      InodeTable table = InodeTable.scan(fs);
+      int[] inums = table.query().type('f').minSize(500).maxSize(800).uid(1).select();
+      String[] paths = table.paths(inums);
+      Arrays.sort(paths);
+
+      List<String> found = new TreeWalker(fs).find(fs.root(), "/",
+          new TreeWalker.Query().type('f').minSize(500).maxSize(800));
+      long expected = found.stream().filter(path -> fs.stat(path).getIuid() == 1).count();
+      assertEquals(expected, paths.length);
+      for (String path : paths) {
+        assertEquals(1, fs.stat(path).getIuid());
+        long size = fs.stat(path).getIsize();
+        assertTrue(size >= 500 && size <= 800);
+      }
+    }
+  }
+
+  @Test
+  public void pathsStopOnceTargetsAreNamed() throws IOException {
+    long full;
+    try (MinixFileSystem fs = MinixFileSystem.open(image)) {
+      fs.mount(0);
+      InodeTable table = InodeTable.scan(fs);
+      fs.list(fs.root());
+      long before = fs.getMetrics().getBytesRead();
+      assertEquals(0, table.paths(new int[0]).length);
+      assertEquals(before, fs.getMetrics().getBytesRead());
+      table.paths(table.query().type('f').select());
+      full = fs.getMetrics().getBytesRead() - before;
+    }
+    try (MinixFileSystem fs = MinixFileSystem.open(image)) {
+      fs.mount(0);
+      InodeTable table = InodeTable.scan(fs);
+      DirEntry first = fs.list(fs.root()).get(2);
+      long before = fs.getMetrics().getBytesRead();
+      assertArrayEquals(new String[]{"/" + first.getName()},
+          table.paths(new int[]{first.getInode()}));
+      assertTrue(fs.getMetrics().getBytesRead() - before < full);
+    }
+  }
+}
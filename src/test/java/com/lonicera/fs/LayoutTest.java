@@ -0,0 +1,159 @@
+package com.lonicera.fs;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LayoutTest {
+
+  private File image;
+
+  @Before
+  public void createImage() throws IOException {
+    image = File.createTempFile("minix-layout", ".img");
+  }
+
+  @After
+  public void deleteImage() {
+    image.delete();
+  }
+
+  @Test
+  public void layoutFollowsMagic() {
+    Layout v2 = Layout.ofMagic(Layout.MAGIC_V2_30, Block.BLOCK_SIZE);
+    assertEquals(64, v2.getInodeSize());
+    assertEquals(32, v2.getDirEntrySize());
+    assertEquals(256, v2.getIndexCount());
+    assertEquals(10, v2.getZoneCount());
+    Layout v3 = Layout.ofMagic(Layout.MAGIC_V3, 4096);
+    assertEquals(64, v3.getDirEntrySize());
+    assertEquals(1024, v3.getIndexCount());
+    assertEquals(Layout.MAGIC_V3, v3.getMagic());
+    // 一次间接块，二次间接块和它下面的 256 块，三次间接块下面各一块
+    assertEquals(1 + 257 + 3, v2.indexBlocks(7 + 256 + 256 * 256 + 1));
+    try {
+      Layout.ofMagic(0x1234, Block.BLOCK_SIZE);
+      fail();
+    } catch (CommandExecuteException e) {
+      assertTrue(e.getMessage().startsWith("unknown magic"));
+    }
+  }
+
+  @Test
+  public void v2ReachesTripleIndirect() throws IOException {
+    Layout layout = Layout.of(2, Block.BLOCK_SIZE, 30);
+    ImageGenerator.Summary summary = new ImageGenerator().layout(layout).files(100).fanOut(2)
+        .depth(1).largeFiles(1, 400 * 1024).freeZones(256).generate(image);
+    long tripleStart = (7 + 256 + 256 * 256) * (long) Block.BLOCK_SIZE;
+    byte[] tail = new byte[2000];
+    for (int i = 0; i < tail.length; i++) {
+      tail[i] = (byte) (i * 7 + 1);
+    }
+    try (MinixFileSystem fs = MinixFileSystem.open(image, true)) {
+      fs.mount(0);
+      assertEquals(layout.toString(), fs.getLayout().toString());
+      assertLargestFile(fs, summary);
+
+      // 手工把三次间接块链接到新文件上，避免写满前面的 6 万多块
+      String name = "a-name-of-exactly-thirty-chars";
+      MinixFile file = fs.open(fs.create(fs.root(), name));
+      int[] zones = fs.allocZones(5);
+      Inode inode = fs.writableInode(file.getInum());
+      inode.setZone(9, zones[0]);
+      Bytes.putU32(fs.getBufferCache().create(zones[0]), 0, zones[1]);
+      Bytes.putU32(fs.getBufferCache().create(zones[1]), 0, zones[2]);
+      ByteBuffer single = fs.getBufferCache().create(zones[2]);
+      Bytes.putU32(single, 0, zones[3]);
+      Bytes.putU32(single, 4, zones[4]);
+      fs.getBufferCache().create(zones[3]);
+      fs.getBufferCache().create(zones[4]);
+      inode.setIsize(tripleStart + tail.length);
+      fs.sync();
+      assertEquals(tail.length, file.write(ByteBuffer.wrap(tail), tripleStart));
+      assertEquals(zones[4], fs.bmap(fs.stat("/" + name), (int) (tripleStart / 1024) + 1));
+      fs.sync();
+    }
+    try (MinixFileSystem fs = MinixFileSystem.open(image, true)) {
+      fs.mount(0);
+      Inode inode = fs.stat("/a-name-of-exactly-thirty-chars");
+      ByteBuffer bytes = fs.read(inode, tripleStart, tail.length);
+      assertArrayEquals(tail, Arrays.copyOf(bytes.array(), bytes.remaining()));
+      assertEquals(0, fs.read(inode, Block.BLOCK_SIZE, 10).get(0));
+      Fsck.Report report = new Fsck(fs).check();
+      assertTrue(report.toString(), report.isClean());
+
+      ZoneOwners owners = ZoneOwners.build(fs);
+      ZoneOwners.Owner triple = owners.owner(inode.getZone(9));
+      assertEquals(ZoneOwners.Role.TRIPLE_INDIRECT, triple.getRole());
+      assertEquals(tripleStart / 1024, triple.getLogicalBlock());
+      int data = fs.bmap(inode, (int) (tripleStart / 1024));
+      assertEquals(tripleStart / 1024, owners.owner(data).getLogicalBlock());
+
+      // 截断释放三级索引块和数据块
+      int free = fs.freeZones();
+      fs.open(inode).truncate(0);
+      assertEquals(free + 5, fs.freeZones());
+      assertTrue(new Fsck(fs).check().isClean());
+    }
+  }
+
+  @Test
+  public void v3UsesBlockSizeFromSuperBlock() throws IOException {
+    Layout layout = Layout.of(3, 4096, 60);
+    ImageGenerator.Summary summary = new ImageGenerator().layout(layout).files(300).fanOut(3)
+        .depth(2).largeFiles(1, 5 * 1024 * 1024).freeZones(2048).generate(image);
+    StringBuilder name = new StringBuilder();
+    while (name.length() < 60) {
+      name.append((char) ('a' + name.length() % 26));
+    }
+    byte[] content = new byte[(7 + 1024) * 4096 + 5000];
+    for (int i = 0; i < content.length; i++) {
+      content[i] = (byte) (i / 4096 + i);
+    }
+    try (MinixFileSystem fs = MinixFileSystem.open(image, true)) {
+      fs.mount(0);
+      assertEquals(4096, fs.getLayout().getBlockSize());
+      assertEquals(Layout.MAGIC_V3, fs.getSuperBlock().getMagic());
+      assertLargestFile(fs, summary);
+
+      Inode dir = fs.mkdir(fs.root(), "v3");
+      MinixFile file = fs.open(fs.create(dir, name.toString()));
+      assertEquals(content.length, file.write(ByteBuffer.wrap(content), 0));
+      try {
+        fs.create(dir, name + "x");
+        fail();
+      } catch (CommandExecuteException e) {
+        assertTrue(e.getMessage().contains("too long"));
+      }
+      fs.sync();
+    }
+    try (MinixFileSystem fs = MinixFileSystem.open(image)) {
+      fs.mount(0);
+      Inode inode = fs.stat("/v3/" + name);
+      ByteBuffer bytes = fs.read(inode, 0, Integer.MAX_VALUE);
+      assertArrayEquals(content, Arrays.copyOf(bytes.array(), bytes.remaining()));
+      Fsck.Report report = new Fsck(fs).check();
+      assertTrue(report.toString(), report.isClean());
+      assertEquals(301, report.getFiles());
+    }
+  }
+
+  private static void assertLargestFile(MinixFileSystem fs, ImageGenerator.Summary summary) {
+    Inode large = fs.stat(summary.getLargestFile());
+    assertEquals(summary.getLargestFileSize(), large.getIsize());
+    ByteBuffer content = fs.read(large, 0, Integer.MAX_VALUE);
+    assertEquals(large.getIsize(), content.remaining());
+    for (int i = 0; i < content.remaining(); i += 997) {
+      assertEquals(ImageGenerator.contentByte(large.getInum(), i), content.get(i));
+    }
+  }
+}
@@ -0,0 +1,55 @@
+package com.lonicera.fs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+
+public class LongBitMapTest {
+
+  @Test
+  public void mapsDiskBitOrder() {
+    ByteBuffer block = ByteBuffer.allocate(Block.BLOCK_SIZE);
+    block.put(0, (byte) 0x07);
+    block.put(9, (byte) 0x80);
+    // 超出 size 的位不计入
+    block.put(100, (byte) 0xff);
+    LongBitMap bitMap = LongBitMap.map(200, block);
+    assertTrue(bitMap.get(2));
+    assertFalse(bitMap.get(3));
+    assertEquals(3, bitMap.nextClear(0));
+    assertEquals(79, bitMap.nextSet(3));
+    assertEquals(-1, bitMap.nextSet(80));
+    assertEquals(4, bitMap.cardinality());
+  }
+
+  @Test
+  public void rangeOperationsCrossWords() {
+    LongBitMap bitMap = new LongBitMap(300);
+    bitMap.set(10, 250);
+    assertEquals(240, bitMap.cardinality());
+    assertEquals(250, bitMap.nextClear(10));
+    bitMap.clear(63, 129);
+    assertEquals(63, bitMap.nextClear(10));
+    assertEquals(129, bitMap.nextSet(63));
+    bitMap.set(0, 300);
+    assertEquals(-1, bitMap.nextClear(0));
+    assertEquals(300, bitMap.cardinality());
+  }
+
+  @Test
+  public void forEachSetVisitsInOrder() {
+    LongBitMap bitMap = new LongBitMap(130);
+    bitMap.set(0, 1);
+    bitMap.set(64, 66);
+    bitMap.set(129, 130);
+    List<Integer> bits = new ArrayList<>();
+    bitMap.forEachSet(bits::add);
+    assertEquals(Arrays.asList(0, 64, 65, 129), bits);
+  }
+}
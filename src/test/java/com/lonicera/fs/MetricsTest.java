@@ -0,0 +1,101 @@
+package com.lonicera.fs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MetricsTest {
+
+  private File image;
+
+  @Before
+  public void createImage() throws IOException {
+    image = File.createTempFile("minix-metrics", ".img");
+    new ImageGenerator().files(50).fanOut(2).depth(1).generate(image);
+  }
+
+  @After
+  public void deleteImage() {
+    image.delete();
+  }
+
+  @Test
+  public void countsDeviceAndCacheReads() throws IOException {
+    try (MinixFileSystem fs = MinixFileSystem.open(image)) {
+      Metrics metrics = fs.getMetrics();
+      assertEquals(1, metrics.getSectorReads());
+      fs.mount(0);
+      metrics.reset();
+      fs.list("/d0");
+      fs.list("/d0");
+      assertTrue(metrics.getDeviceReads() > 0);
+      assertTrue(metrics.getBytesRead() >= metrics.getDeviceReads());
+      assertTrue(metrics.getDentryCacheHits() > 0);
+
+      MinixFile file = fs.open("/d0/f0");
+      long before = metrics.getBytesRead();
+      file.read(ByteBuffer.allocate(100), 0);
+      assertTrue(metrics.getBytesRead() > before);
+    }
+  }
+
+  // 两个线程交替顺序读取，各自只在第一次读取时寻道
+  @Test
+  public void seeksAreTrackedPerThread() throws Exception {
+    Metrics metrics = new Metrics(null);
+    BlockDevice device = new MeteredBlockDevice(new BlockDevice() {
+      @Override
+      public long size() {
+        return 1 << 20;
+      }
+
+      @Override
+      public ByteBuffer read(long offset, int length) {
+        return ByteBuffer.allocate(length);
+      }
+
+      @Override
+      public void close() {
+      }
+    }, metrics);
+    ExecutorService first = Executors.newSingleThreadExecutor();
+    ExecutorService second = Executors.newSingleThreadExecutor();
+    try {
+      for (int i = 0; i < 10; i++) {
+        long offset = i * 100L;
+        first.submit(() -> device.read(offset, 100)).get();
+        second.submit(() -> device.read(4096 + offset, 100)).get();
+      }
+    } finally {
+      first.shutdown();
+      second.shutdown();
+    }
+    assertEquals(20, metrics.getDeviceReads());
+    assertEquals(2, metrics.getSeeks());
+  }
+
+  @Test
+  public void histogramReportsBucketUpperBounds() {
+    Metrics metrics = new Metrics(null);
+    for (int i = 0; i < 98; i++) {
+      metrics.recordCommand("ll", 1000);
+    }
+    metrics.recordCommand("ll", 5000);
+    metrics.recordCommand("ll", 70000);
+    Metrics.Histogram histogram = metrics.command("ll");
+    assertEquals(100, histogram.getCount());
+    // 1000 在 [512, 1024) 桶中
+    assertEquals(1023, histogram.percentileNanos(50));
+    assertEquals(8191, histogram.percentileNanos(99));
+    assertEquals(70000, histogram.percentileNanos(100));
+    assertEquals(70000, histogram.getMaxNanos());
+  }
+}
@@ -0,0 +1,110 @@
+package com.lonicera.fs;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MinixFileSystemReadTest {
+
+  private static final int BLOCKS = 601;
+
+  private File image;
+  private byte[] expected;
+
+  // 用到二次间接块的文件，再去掉第 2 块、整个一次间接块和最后一块，形成开头、中间和末尾的空洞
+  @Before
+  public void createSparseFile() throws IOException {
+    image = File.createTempFile("minix-read", ".img");
+    new ImageGenerator().files(20).fanOut(2).depth(1).freeZones(2048).generate(image);
+    expected = new byte[(BLOCKS - 1) * Block.BLOCK_SIZE + 100];
+    for (int i = 0; i < expected.length; i++) {
+      expected[i] = (byte) (i * 31 + i / 1024 + 1);
+    }
+    try (MinixFileSystem fs = MinixFileSystem.open(image, true)) {
+      fs.mount(0);
+      MinixFile file = fs.open(fs.create(fs.root(), "sparse"));
+      file.write(ByteBuffer.wrap(expected), 0);
+      Inode inode = fs.writableInode(file.getInum());
+      inode.setZone(2, 0);
+      inode.setZone(7, 0);
+      int child = IndexBlock.map(fs.getLayout(), fs.readBlock(inode.getZone(8))).index(0);
+      Bytes.putU16(fs.getBufferCache().getForWrite(child), (BLOCKS - 1 - 7 - 512) * 2, 0);
+      fs.sync();
+    }
+    zero(2, 3);
+    zero(7, 7 + 512);
+    zero(BLOCKS - 1, BLOCKS);
+  }
+
+  private void zero(int fromBlock, int toBlock) {
+    Arrays.fill(expected, fromBlock * Block.BLOCK_SIZE,
+        Math.min(expected.length, toBlock * Block.BLOCK_SIZE), (byte) 0);
+  }
+
+  @After
+  public void deleteImage() {
+    image.delete();
+  }
+
+  @Test
+  public void readsHolesAsZeros() throws IOException {
+    try (MinixFileSystem fs = MinixFileSystem.open(image)) {
+      fs.mount(0);
+      ByteBuffer all = fs.read("/sparse", 0, Integer.MAX_VALUE);
+      assertEquals(expected.length, all.remaining());
+      assertArrayEquals(expected, Arrays.copyOf(all.array(), all.remaining()));
+
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      fs.open("/sparse").writeTo(out);
+      assertArrayEquals(expected, out.toByteArray());
+
+      long length = 0;
+      int holes = 0;
+      ExtentItr itr = fs.extentItr(fs.stat("/sparse"));
+      while (itr.hasNext()) {
+        Extent extent = itr.next();
+        length += extent.getLength();
+        holes += extent.isHole() ? 1 : 0;
+      }
+      assertEquals(expected.length, length);
+      assertEquals(3, holes);
+    }
+  }
+
+  @Test
+  public void readsAnyOffsetThroughBmap() throws IOException {
+    try (MinixFileSystem fs = MinixFileSystem.open(image)) {
+      fs.mount(0);
+      Inode inode = fs.stat("/sparse");
+
+      // 读取文件末尾附近只读二次间接块和它的一个子索引块
+      fs.getMetrics().reset();
+      int offset = expected.length - 5000;
+      ByteBuffer bytes = fs.read(inode, offset, 4000);
+      assertEquals(2, fs.getMetrics().getBufferCacheMisses());
+      assertArrayEquals(Arrays.copyOfRange(expected, offset, offset + 4000),
+          Arrays.copyOf(bytes.array(), bytes.remaining()));
+
+      BlockIndexItr itr = fs.blockIndexItr(inode);
+      for (int block = 0; block < BLOCKS; block++) {
+        assertEquals(itr.next(), fs.bmap(inode, block));
+      }
+
+      // 跨过空洞边界和超过文件末尾
+      bytes = fs.read(inode, 6 * Block.BLOCK_SIZE + 10, 3000);
+      assertArrayEquals(Arrays.copyOfRange(expected, 6 * Block.BLOCK_SIZE + 10,
+          6 * Block.BLOCK_SIZE + 3010), Arrays.copyOf(bytes.array(), bytes.remaining()));
+      assertEquals(50, fs.read(inode, expected.length - 50, 1000).remaining());
+      assertTrue(!fs.read(inode, expected.length, 10).hasRemaining());
+    }
+  }
+}
@@ -0,0 +1,182 @@
+package com.lonicera.fs;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MinixFileSystemWriteTest {
+
+  private File image;
+
+  @Before
+  public void createImage() throws IOException {
+    image = File.createTempFile("minix-write", ".img");
+    new ImageGenerator().files(20).fanOut(2).depth(1).freeZones(2048).generate(image);
+  }
+
+  @After
+  public void deleteImage() {
+    image.delete();
+  }
+
+  private static byte[] content(int length) {
+    byte[] bytes = new byte[length];
+    for (int i = 0; i < length; i++) {
+      bytes[i] = (byte) (i * 31 + i / 1024);
+    }
+    return bytes;
+  }
+
+  private static byte[] readAll(MinixFile file) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    file.writeTo(out);
+    return out.toByteArray();
+  }
+
+  @Test
+  public void createWriteAndReadBack() throws IOException {
+    // 超过 7 + 512 块，用到二次间接块
+    byte[] data = content(600 * 1024 + 100);
+    int freeZones;
+    try (MinixFileSystem fs = MinixFileSystem.open(image, true)) {
+      fs.mount(0);
+      freeZones = fs.freeZones();
+      int rootLinks = fs.root().getInlinks();
+      Session session = fs.newSession();
+      session.mkdir("/new");
+      session.cd("/new");
+      MinixFile file = session.create("data.bin");
+      assertEquals(data.length, file.write(ByteBuffer.wrap(data), 0));
+      file.write(ByteBuffer.wrap(new byte[]{1, 2, 3}), 10);
+      data[10] = 1;
+      data[11] = 2;
+      data[12] = 3;
+      // 未写回时也能读到修改
+      assertArrayEquals(data, readAll(file));
+      assertEquals(rootLinks + 1, fs.root().getInlinks());
+    }
+    try (MinixFileSystem fs = MinixFileSystem.open(image)) {
+      fs.mount(0);
+      assertArrayEquals(data, readAll(fs.open("/new/data.bin")));
+      assertEquals(2, fs.stat("/new").getInlinks());
+      assertEquals(freeZones - 1 - 601 - 3, fs.freeZones());
+    }
+  }
+
+  @Test
+  public void truncateAndUnlinkReleaseZones() throws IOException {
+    try (MinixFileSystem fs = MinixFileSystem.open(image, true)) {
+      fs.mount(0);
+      int freeZones = fs.freeZones();
+      int freeInodes = fs.freeInodes();
+      Session session = fs.newSession();
+      MinixFile file = session.create("/big");
+      file.write(ByteBuffer.wrap(content(300 * 1024)), 0);
+      file.truncate(5000);
+      assertEquals(5000, file.size());
+      assertEquals(freeZones - 5, fs.freeZones());
+      file.truncate(8000);
+      byte[] read = readAll(file);
+      assertEquals(8000, read.length);
+      assertEquals(0, read[6000]);
+      assertEquals(content(5000)[4999], read[4999]);
+
+      session.unlink("/big");
+      assertEquals(freeZones, fs.freeZones());
+      assertEquals(freeInodes, fs.freeInodes());
+      try {
+        session.stat("/big");
+        fail();
+      } catch (CommandExecuteException e) {
+        assertEquals("path not exists", e.getMessage());
+      }
+
+      session.mkdir("/dir");
+      session.create("/dir/f");
+      try {
+        session.unlink("/dir");
+        fail();
+      } catch (CommandExecuteException e) {
+        assertEquals("directory not empty", e.getMessage());
+      }
+      session.unlink("/dir/f");
+      session.unlink("/dir");
+      assertEquals(freeZones, fs.freeZones());
+      assertEquals(freeInodes, fs.freeInodes());
+    }
+  }
+
+  @Test
+  public void writePastEndLeavesHoles() throws IOException {
+    long position = 100L * Block.BLOCK_SIZE + 10;
+    try (MinixFileSystem fs = MinixFileSystem.open(image, true)) {
+      fs.mount(0);
+      int freeZones = fs.freeZones();
+      MinixFile file = fs.newSession().create("/sparse");
+      file.write(ByteBuffer.wrap(content(100)), 10);
+      file.write(ByteBuffer.wrap(new byte[]{7}), position);
+      // 首块、一次间接块和末块，中间不分配
+      assertEquals(freeZones - 3, fs.freeZones());
+      file.truncate(position + 50L * Block.BLOCK_SIZE);
+      assertEquals(freeZones - 3, fs.freeZones());
+      fs.sync();
+    }
+    try (MinixFileSystem fs = MinixFileSystem.open(image)) {
+      fs.mount(0);
+      byte[] read = readAll(fs.open("/sparse"));
+      assertEquals(position + 50L * Block.BLOCK_SIZE, read.length);
+      assertEquals(content(100)[99], read[109]);
+      assertEquals(0, read[110]);
+      assertEquals(0, read[50 * Block.BLOCK_SIZE]);
+      assertEquals(7, read[(int) position]);
+      assertTrue(new Fsck(fs).check().isClean());
+    }
+  }
+
+  @Test
+  public void nameLengthCountsUtf8Bytes() throws IOException {
+    StringBuilder name = new StringBuilder("/");
+    int inum;
+    try (MinixFileSystem fs = MinixFileSystem.open(image, true)) {
+      fs.mount(0);
+      // 每个汉字占 3 个字节
+      while (name.length() * 3 <= fs.getLayout().getNameLength()) {
+        name.append('文');
+      }
+      Session session = fs.newSession();
+      inum = session.create(name.toString()).getInum();
+      try {
+        session.create(name + "件");
+        fail();
+      } catch (CommandExecuteException e) {
+        assertEquals("file name too long", e.getMessage());
+      }
+      fs.sync();
+    }
+    try (MinixFileSystem fs = MinixFileSystem.open(image)) {
+      fs.mount(0);
+      assertEquals(inum, fs.stat(name.toString()).getInum());
+    }
+  }
+
+  @Test
+  public void readOnlyMountRejectsWrites() throws IOException {
+    try (MinixFileSystem fs = MinixFileSystem.open(image)) {
+      fs.mount(0);
+      fs.newSession().mkdir("/x");
+      fail();
+    } catch (CommandExecuteException e) {
+      assertEquals("read-only file system", e.getMessage());
+    }
+    assertTrue(image.length() > 0);
+  }
+}
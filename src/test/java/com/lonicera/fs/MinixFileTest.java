@@ -0,0 +1,125 @@
+package com.lonicera.fs;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MinixFileTest {
+
+  private File image;
+  private File target;
+  private byte[] expected;
+
+  // 全部 256 种字节值，中间有一个空洞，末块不满
+  @Before
+  public void createFile() throws IOException {
+    image = File.createTempFile("minix-cat", ".img");
+    target = File.createTempFile("minix-cat", ".out");
+    new ImageGenerator().files(10).fanOut(1).depth(0).freeRatio(0.5).freeZones(64).generate(image);
+    expected = new byte[5 * Block.BLOCK_SIZE + 17];
+    for (int i = 0; i < expected.length; i++) {
+      expected[i] = (byte) (i * 7);
+    }
+    Arrays.fill(expected, Block.BLOCK_SIZE, 3 * Block.BLOCK_SIZE, (byte) 0);
+    try (MinixFileSystem fs = MinixFileSystem.open(image, true)) {
+      fs.mount(0);
+      MinixFile file = fs.open(fs.create(fs.root(), "binary"));
+      file.write(ByteBuffer.wrap(expected, 0, Block.BLOCK_SIZE), 0);
+      file.write(ByteBuffer.wrap(expected, 3 * Block.BLOCK_SIZE,
+          expected.length - 3 * Block.BLOCK_SIZE), 3 * Block.BLOCK_SIZE);
+      fs.create(fs.root(), "empty");
+      fs.sync();
+    }
+  }
+
+  @After
+  public void deleteFiles() {
+    image.delete();
+    target.delete();
+  }
+
+  @Test
+  public void writeToIsByteExact() throws IOException {
+    try (MinixFileSystem fs = MinixFileSystem.open(image)) {
+      fs.mount(0);
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      fs.open("/binary").writeTo(out);
+      assertArrayEquals(expected, out.toByteArray());
+
+      out.reset();
+      fs.open("/binary").writeTo(Channels.newChannel(out));
+      assertArrayEquals(expected, out.toByteArray());
+
+      // 文件通道走 transferTo
+      try (FileChannel channel = FileChannel.open(target.toPath(), StandardOpenOption.WRITE)) {
+        fs.open("/binary").writeTo(channel);
+      }
+      assertArrayEquals(expected, Files.readAllBytes(target.toPath()));
+
+      out.reset();
+      fs.open("/empty").writeTo(out);
+      assertEquals(0, out.size());
+    }
+  }
+
+  // 顺序读取时预读逐步扩大，跳转后退回一块
+  @Test(timeout = 10_000)
+  public void positionalReadsDriveReadahead() throws Exception {
+    new ImageGenerator().files(10).fanOut(1).depth(0).freeRatio(0.5).freeZones(256)
+        .generate(image);
+    try (MinixFileSystem fs = MinixFileSystem.open(image, true)) {
+      fs.mount(0);
+      fs.open(fs.create(fs.root(), "seq")).write(ByteBuffer.allocate(120 * Block.BLOCK_SIZE), 0);
+      fs.sync();
+    }
+    AtomicLong prefetched = new AtomicLong();
+    BlockDevice channel = FileChannelBlockDevice.open(image);
+    BlockDevice device = new BlockDevice() {
+      @Override
+      public long size() {
+        return channel.size();
+      }
+
+      @Override
+      public ByteBuffer read(long offset, int length) {
+        return channel.read(offset, length);
+      }
+
+      @Override
+      public void prefetch(long offset, long length) {
+        prefetched.addAndGet(length / Block.BLOCK_SIZE);
+      }
+
+      @Override
+      public void close() throws IOException {
+        channel.close();
+      }
+    };
+    try (MinixFileSystem fs = MinixFileSystem.open(device)) {
+      fs.mount(0);
+      MinixFile file = fs.open("/seq");
+      long[] positions = {0, 1, 2, 100};
+      long[] total = {1, 3, 6, 7};
+      for (int i = 0; i < positions.length; i++) {
+        file.read(ByteBuffer.allocate(Block.BLOCK_SIZE), positions[i] * Block.BLOCK_SIZE);
+        while (prefetched.get() < total[i]) {
+          Thread.sleep(1);
+        }
+        assertEquals(total[i], prefetched.get());
+      }
+    }
+  }
+}
@@ -0,0 +1,69 @@
+package com.lonicera.fs;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class ReadaheadWindowTest {
+
+  @Test
+  public void doublesOnSequentialAccessUpToMax() {
+    ReadaheadWindow window = new ReadaheadWindow(1, 8);
+    long block = 0;
+    int[] expected = {1, 2, 4, 8, 8};
+    for (int count : expected) {
+      assertEquals(count, window.next(block, 100));
+      block += count;
+    }
+  }
+
+  @Test
+  public void seekResetsWindow() {
+    ReadaheadWindow window = new ReadaheadWindow(2, 16);
+    assertEquals(2, window.next(0, 100));
+    assertEquals(4, window.next(2, 100));
+    assertEquals(8, window.next(6, 100));
+    // 向后和向前跳转都退回初始大小
+    assertEquals(2, window.next(100, 100));
+    assertEquals(4, window.next(102, 100));
+    assertEquals(2, window.next(50, 100));
+    assertEquals(2, window.getWindow());
+  }
+
+  @Test
+  public void limitCutsReadWithoutBreakingSequence() {
+    ReadaheadWindow window = new ReadaheadWindow(1, 64);
+    assertEquals(1, window.next(0, 10));
+    assertEquals(2, window.next(1, 10));
+    // 区段末尾只剩 1 块，之后紧接着的访问仍然算顺序
+    assertEquals(1, window.next(3, 1));
+    assertEquals(8, window.next(4, 10));
+  }
+
+  @Test
+  public void positionalReadsPrefetchAheadOnce() {
+    ReadaheadWindow window = new ReadaheadWindow(1, 8);
+    // 依次预读 [1, 2) [2, 4) [4, 7)
+    assertEquals(1, window.onRead(0, 1));
+    assertEquals(2, window.getAhead());
+    assertEquals(2, window.onRead(1, 2));
+    assertEquals(4, window.getAhead());
+    assertEquals(3, window.onRead(2, 3));
+    assertEquals(7, window.getAhead());
+    // 同一块中继续读取不预读
+    assertEquals(0, window.onRead(2, 3));
+    assertEquals(4, window.getWindow());
+    // 随机读取退回初始大小，只预读后面一块
+    assertEquals(1, window.onRead(100, 101));
+    assertEquals(102, window.getAhead());
+    assertEquals(1, window.onRead(50, 52));
+    assertEquals(53, window.getAhead());
+    assertEquals(2, window.onRead(52, 53));
+    assertEquals(55, window.getAhead());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsMaxBelowInitial() {
+    new ReadaheadWindow(4, 2);
+  }
+}
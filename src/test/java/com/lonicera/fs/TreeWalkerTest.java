@@ -0,0 +1,81 @@
+package com.lonicera.fs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TreeWalkerTest {
+
+  private File image;
+  private ImageGenerator.Summary summary;
+
+  @Before
+  public void createImage() throws IOException {
+    image = File.createTempFile("minix-walk", ".img");
+    summary = new ImageGenerator().files(500).fanOut(4).depth(2).largeFiles(1, 700 * 1024)
+        .generate(image);
+  }
+
+  @After
+  public void deleteImage() {
+    image.delete();
+  }
+
+  @Test
+  public void duCountsEveryZoneOnce() throws IOException {
+    try (MinixFileSystem fs = MinixFileSystem.open(image)) {
+      fs.mount(0);
+      TreeWalker walker = new TreeWalker(fs);
+      TreeWalker.Usage usage = walker.du(fs.root(), "/");
+      assertEquals(500, usage.getFiles());
+      assertEquals(21, usage.getDirs());
+      assertEquals(fs.getZoneMap().cardinality() - 1, usage.getZones());
+      assertEquals(4, usage.getChildren().size());
+      long childBytes = 0;
+      for (TreeWalker.Usage child : usage.getChildren()) {
+        childBytes += child.getBytes();
+      }
+      assertTrue(usage.getBytes() > childBytes);
+      assertTrue(walker.getWarnings().isEmpty());
+    }
+  }
+
+  @Test
+  public void duDoesNotCountDeviceNumbers() throws IOException {
+    try (MinixFileSystem fs = MinixFileSystem.open(image, true)) {
+      fs.mount(0);
+      Inode tty = fs.writableInode(fs.create(fs.root(), "tty0").getInum());
+      tty.setImode(0_020644);
+      tty.setZone(0, 0x400);
+      Inode disk = fs.writableInode(fs.create(fs.root(), "hd1").getInum());
+      disk.setImode(0_060644);
+      disk.setZone(0, 0x301);
+      TreeWalker.Usage usage = new TreeWalker(fs).du(fs.root(), "/");
+      assertEquals(502, usage.getFiles());
+      assertEquals(fs.getZoneMap().cardinality() - 1, usage.getZones());
+    }
+  }
+
+  @Test
+  public void findFiltersByNameTypeAndSize() throws IOException {
+    try (MinixFileSystem fs = MinixFileSystem.open(image)) {
+      fs.mount(0);
+      TreeWalker walker = new TreeWalker(fs);
+      // 文件在每个目录内编号，21 个目录各有 23 或 24 个文件，f1 和 f10..f19 各 11 个
+      List<String> matched = walker.find(fs.root(), "/",
+          new TreeWalker.Query().name("f1*").type('f'));
+      assertEquals(21 * 11, matched.size());
+      assertEquals(20, walker.find(fs.root(), "/",
+          new TreeWalker.Query().name("d?").type('d')).size());
+      assertEquals(Collections.singletonList(summary.getLargestFile()), walker.find(fs.root(), "/",
+          new TreeWalker.Query().minSize(summary.getLargestFileSize())));
+    }
+  }
+}
@@ -0,0 +1,184 @@
+package com.lonicera.fs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ZoneOwnersTest {
+
+  private File image;
+  private File index;
+  private ImageGenerator.Summary summary;
+
+  @Before
+  public void createImage() throws IOException {
+    image = File.createTempFile("minix-owners", ".img");
+    index = new File(image.getPath() + ".owners");
+    summary = new ImageGenerator().files(200).fanOut(4).depth(1).largeFiles(1, 700 * 1024)
+        .freeZones(64).generate(image);
+  }
+
+  @After
+  public void deleteImage() {
+    image.delete();
+    index.delete();
+  }
+
+  @Test
+  public void ownersAgreeWithBmap() throws IOException {
+    try (MinixFileSystem fs = MinixFileSystem.open(image)) {
+      fs.mount(0);
+      ZoneOwners owners = ZoneOwners.build(fs);
+      SuperBlock superBlock = fs.getSuperBlock();
+      assertEquals(fs.getZoneMap().cardinality() - 1,
+          owners.owners(0, superBlock.getNzones()).size());
+
+      Inode file = fs.stat(summary.getLargestFile());
+      int blocks = (int) ((file.getIsize() + Block.BLOCK_SIZE - 1) / Block.BLOCK_SIZE);
+      for (int block = 0; block < blocks; block += 97) {
+        ZoneOwners.Owner owner = owners.owner(fs.bmap(file, block));
+        assertEquals(file.getInum(), owner.getInum());
+        assertEquals(ZoneOwners.Role.DATA, owner.getRole());
+        assertEquals(block, owner.getLogicalBlock());
+      }
+      ZoneOwners.Owner doubleIndirect = owners.owner(file.getZone(8));
+      assertEquals(ZoneOwners.Role.DOUBLE_INDIRECT, doubleIndirect.getRole());
+      assertEquals(7 + Layout.V1.getIndexCount(), doubleIndirect.getLogicalBlock());
+      assertNull(owners.owner(superBlock.getNzones() - 1));
+    }
+  }
+
+  @Test
+  public void persistedIndexIsReusedUntilFileSystemChanges() throws IOException {
+    try (MinixFileSystem fs = MinixFileSystem.open(image, true)) {
+      fs.mount(0);
+      ZoneOwners built = ZoneOwners.loadOrBuild(fs, index);
+      assertTrue(index.exists());
+      ZoneOwners loaded = ZoneOwners.loadOrBuild(fs, index);
+      int zone = fs.root().getZone(0);
+      assertEquals(built.owner(zone).getInum(), loaded.owner(zone).getInum());
+
+      MinixFile file = fs.open(fs.create(fs.root(), "/new"));
+      file.append(ByteBuffer.wrap(new byte[2048]));
+      assertFalse(loaded.isCurrent());
+      ZoneOwners rebuilt = ZoneOwners.loadOrBuild(fs, index);
+      assertTrue(rebuilt.isCurrent());
+      assertEquals(fs.stat("/new").getInum(),
+          rebuilt.owner(fs.stat("/new").getZone(1)).getInum());
+    }
+  }
+
+  // 一个文件释放的 zone 与另一个文件新分配的一样多，空闲计数不变，但所有者变了
+  @Test
+  public void indexIsStaleWhenOwnersChangeWithSameFreeCounts() throws IOException {
+    try (MinixFileSystem fs = MinixFileSystem.open(image, true)) {
+      fs.mount(0);
+      Session session = fs.newSession();
+      session.create("/a").append(ByteBuffer.wrap(new byte[4 * Block.BLOCK_SIZE]));
+      session.create("/b");
+      fs.sync();
+      ZoneOwners saved = ZoneOwners.loadOrBuild(fs, index);
+      int freeZones = fs.freeZones();
+
+      session.open("/a").truncate(0);
+      session.open("/b").append(ByteBuffer.wrap(new byte[4 * Block.BLOCK_SIZE]));
+      assertEquals(freeZones, fs.freeZones());
+      assertFalse(saved.isCurrent());
+      fs.sync();
+      ZoneOwners reloaded = ZoneOwners.loadOrBuild(fs, index);
+      assertTrue(reloaded.isCurrent());
+      Inode b = fs.stat("/b");
+      assertEquals(b.getInum(), reloaded.owner(b.getZone(0)).getInum());
+    }
+  }
+
+  // 32K 块的三次间接块中第 8 项以下的逻辑块号超过 2^29
+  @Test
+  public void logicalBlocksBeyond29Bits() throws IOException {
+    Layout layout = Layout.of(3, 32 * 1024, 60);
+    new ImageGenerator().layout(layout).files(10).fanOut(1).depth(0).freeZones(16)
+        .generate(image);
+    long logical = 7 + layout.span(1) + layout.span(2) + 7 * layout.span(2);
+    assertTrue(logical > 1 << 29);
+    try (MinixFileSystem fs = MinixFileSystem.open(image, true)) {
+      fs.mount(0);
+      Inode inode = fs.writableInode(fs.create(fs.root(), "far").getInum());
+      int[] zones = fs.allocZones(4);
+      inode.setZone(9, zones[0]);
+      Bytes.putU32(fs.getBufferCache().create(zones[0]), 7 * 4, zones[1]);
+      Bytes.putU32(fs.getBufferCache().create(zones[1]), 0, zones[2]);
+      Bytes.putU32(fs.getBufferCache().create(zones[2]), 0, zones[3]);
+      fs.getBufferCache().create(zones[3]);
+      inode.setIsize(0);
+      fs.sync();
+
+      ZoneOwners owners = ZoneOwners.build(fs);
+      assertEquals(ZoneOwners.Role.TRIPLE_INDIRECT, owners.owner(zones[0]).getRole());
+      assertEquals(ZoneOwners.Role.DOUBLE_INDIRECT, owners.owner(zones[1]).getRole());
+      assertEquals(logical, owners.owner(zones[1]).getLogicalBlock());
+      assertEquals(ZoneOwners.Role.DATA, owners.owner(zones[3]).getRole());
+      assertEquals(logical, owners.owner(zones[3]).getLogicalBlock());
+      owners.save(index);
+      assertEquals(logical, ZoneOwners.loadOrBuild(fs, index).owner(zones[3]).getLogicalBlock());
+    }
+  }
+
+  @Test
+  public void deviceNumbersHaveNoOwner() throws IOException {
+    try (MinixFileSystem fs = MinixFileSystem.open(image, true)) {
+      fs.mount(0);
+      int zone = fs.getSuperBlock().getNzones() - 1;
+      Inode tty = fs.writableInode(fs.create(fs.root(), "tty0").getInum());
+      tty.setImode(0_020644);
+      tty.setZone(0, zone);
+      assertNull(ZoneOwners.build(fs).owner(zone));
+    }
+  }
+
+  // isCurrent 只比较修改计数，不读取设备也不访问缓冲区
+  @Test
+  public void isCurrentDoesNotReadTheImage() throws IOException {
+    try (MinixFileSystem fs = MinixFileSystem.open(image, true)) {
+      fs.mount(0);
+      ZoneOwners owners = ZoneOwners.build(fs);
+      Metrics metrics = fs.getMetrics();
+      long reads = metrics.getDeviceReads();
+      long cacheReads = fs.getBufferCache().getHits() + fs.getBufferCache().getMisses();
+      for (int i = 0; i < 100; i++) {
+        assertTrue(owners.isCurrent());
+      }
+      assertEquals(reads, metrics.getDeviceReads());
+      assertEquals(cacheReads, fs.getBufferCache().getHits() + fs.getBufferCache().getMisses());
+      fs.newSession().create("/touched");
+      assertFalse(owners.isCurrent());
+    }
+  }
+
+  // zone 数超过一次读写的缓冲区，分段保存和读取
+  @Test
+  public void savesAndLoadsInChunks() throws IOException {
+    new ImageGenerator().files(50).fanOut(2).depth(1).largeFiles(1, 700 * 1024)
+        .freeZones(20000).generate(image);
+    try (MinixFileSystem fs = MinixFileSystem.open(image)) {
+      fs.mount(0);
+      int nzones = fs.getSuperBlock().getNzones();
+      assertTrue(nzones > 16384);
+      ZoneOwners built = ZoneOwners.build(fs);
+      built.save(index);
+      assertEquals(32 + 12L * nzones, index.length());
+      ZoneOwners loaded = ZoneOwners.loadOrBuild(fs, index);
+      assertEquals(built.owners(0, nzones).size(), loaded.owners(0, nzones).size());
+      for (ZoneOwners.Owner owner : built.owners(0, nzones)) {
+        assertEquals(owner.toString(), loaded.owner(owner.getZone()).toString());
+      }
+    }
+  }
+}